@@ -0,0 +1,29 @@
+import models.dataaccess.StartPointIndex;
+import models.dataaccess.StartPointTiles;
+import models.dataaccess.TourIngestQueue;
+import models.dataaccess.TrackBackfill;
+import play.Application;
+import play.GlobalSettings;
+
+/**
+ * Starts and stops the background services of the application.
+ */
+public class Global extends GlobalSettings {
+
+	@Override
+	public void onStart(Application app) {
+		TourIngestQueue.start();
+		TrackBackfill.start();
+		StartPointIndex.start();
+		StartPointTiles.start();
+	}
+
+	@Override
+	public void onStop(Application app) {
+		StartPointTiles.stop();
+		StartPointIndex.stop();
+		TrackBackfill.stop();
+		// Write the queued tours before the database connections are closed.
+		TourIngestQueue.stop();
+	}
+}
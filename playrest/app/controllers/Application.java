@@ -1,32 +1,73 @@
 package controllers;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Sets.newHashSet;
 import static play.libs.Json.toJson;
-import static utils.JsonHelper.jsonToTour;
-import static utils.JsonHelper.tourToJson;
-import static utils.JsonHelper.toursToJson;
+import static utils.JsonHelper.summariesToJson;
+import static utils.JsonHelper.summaryToBytes;
+import static utils.JsonHelper.tourArrayWriter;
+import static utils.JsonHelper.tourToBytes;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.regex.Pattern;
 
+import models.dataaccess.DetailLevels;
+import models.dataaccess.DuplicateTourException;
+import models.dataaccess.Page;
+import models.dataaccess.ReferenceDataCache;
+import models.dataaccess.StartPointIndex;
 import models.dataaccess.TourDataAccessUtils;
+import models.dataaccess.TourDistance;
+import models.dataaccess.TourIngestQueue;
+import models.dataaccess.TourStatsFilter;
+import models.dtos.TileDto;
+import models.dtos.TourCreationResultDto;
 import models.dtos.TourDto;
+import models.dtos.TourSummaryDto;
+import play.Configuration;
 import play.Logger.ALogger;
+import play.Play;
 import play.db.jpa.Transactional;
+import play.libs.F.Callback;
 import play.libs.F.Function;
 import play.libs.F.Promise;
+import play.libs.F.Tuple;
+import play.libs.Json;
 import play.mvc.BodyParser;
-import play.mvc.BodyParser.Json;
+import play.mvc.BodyParser.Raw;
 import play.mvc.Controller;
+import play.mvc.Http.RawBuffer;
 import play.mvc.Result;
+import play.mvc.Results.ByteChunks;
+import play.mvc.Results.Chunks;
+import utils.ChunkOutputStream;
+import utils.JsonHelper.TourArrayWriter;
+import utils.TimeFormat;
+import utils.TourResponseCache;
+import utils.WireFormat;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Handles all HTTP requests for the application, performs DTO-JSON conversion
@@ -35,7 +76,11 @@ import com.google.common.base.Throwables;
 public class Application extends Controller {
 	private static final ALogger LOG = play.Logger.of("application");
 
-	private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("UTC");
+	/** The time zone of times in responses, unless given by {@code tz}. */
+	private static final TimeZone DEFAULT_TIME_ZONE = TimeZone
+			.getTimeZone("UTC");
+	/** The ID of the zone returned for unknown time zone IDs. */
+	private static final String UNKNOWN_TIME_ZONE_ID = "GMT";
 
 	private static final String Q_USER = "username";
 	private static final String Q_SPORT = "sport";
@@ -43,87 +88,342 @@ public class Application extends Controller {
 	private static final String Q_START_LON = "startlon";
 	private static final String Q_START_ALT = "startalt";
 	private static final String Q_RADIUS = "radius";
+	private static final String Q_LIMIT = "limit";
+	private static final String Q_CURSOR = "cursor";
+	private static final String Q_VIEW = "view";
+	private static final String Q_K = "k";
+	private static final String Q_BBOX = "bbox";
+	private static final String Q_POLYGON = "polygon";
+	private static final String Q_TOLERANCE = "tolerance";
+	private static final String Q_ZOOM = "zoom";
+	private static final String Q_MIN_DISTANCE = "mindistance";
+	private static final String Q_MAX_DISTANCE = "maxdistance";
+	private static final String Q_MIN_DURATION = "minduration";
+	private static final String Q_MAX_DURATION = "maxduration";
+	private static final String Q_TIMES = "times";
+	private static final String Q_TZ = "tz";
+
+	private static final String VIEW_FULL = "full";
+	private static final String VIEW_SUMMARY = "summary";
+
+	private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	private static final String TIME_FORMAT_HEADER = "X-Time-Format";
+	private static final BaseEncoding CURSOR_ENCODING = BaseEncoding
+			.base64Url().omitPadding();
+	private static final String DEFAULT_LIMIT_KEY = "tours.page.defaultLimit";
+	private static final String MAX_LIMIT_KEY = "tours.page.maxLimit";
+	private static final int DEFAULT_LIMIT = 100;
+	private static final int DEFAULT_MAX_LIMIT = 500;
+
+	private static final String MAX_LENGTH_KEY = "parsers.text.maxLength";
+	private static final String BATCH_SIZE_KEY =
+			"tours.batch.toursPerTransaction";
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	private static final String TILE_MAX_AGE_KEY = "tours.tiles.maxAge";
+	private static final int DEFAULT_TILE_MAX_AGE = 300;
+
+	/** The size of the chunks in which tour lists are sent. */
+	private static final int CHUNK_SIZE = 16 * 1024;
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+	private static final String GZIP_ENCODING = "gzip";
+	private static final List<String> SUPPORTED_FORMATS;
+	static {
+		List<String> mediaTypes = Lists.newArrayList();
+		for (WireFormat format : WireFormat.values()) {
+			mediaTypes.add(format.mediaType);
+		}
+		SUPPORTED_FORMATS = Collections.unmodifiableList(mediaTypes);
+	}
+	private static final Pattern ZERO_QUALITY = Pattern.compile("q=0(\\.0*)?");
 
 	/**
 	 * Creates a new tour based on a JSON received in the body of a POST
 	 * request.<br>
-	 * The maximum size of the received content is 1 megabyte.
+	 * The body is buffered to disk and the tour is read from it as a stream,
+	 * but the points are held in memory while the tour is finished, so the
+	 * memory used grows with the number of points in the tour. It is bounded
+	 * by the maximum size of the received content, which is configured by
+	 * {@code parsers.text.maxLength}. The {@code creator} and {@code sport}
+	 * fields must precede the {@code geometry} field.<br>
+	 * The body may be in any {@link WireFormat}, given by the
+	 * {@code Content-Type} header. Unknown content types are read as JSON.<br>
+	 * If {@code tours.ingest.async} is enabled, the tour is only validated and
+	 * then queued to be written in the background by the
+	 * {@link TourIngestQueue}.
 	 * 
 	 * @return <ul>
+	 *         <li><b>{@code 200 (OK)}</b> if the user already has the same
+	 *         tour, as recognized by the fingerprint of its track and its
+	 *         start time. The body will contain the ID of the existing tour,
+	 *         and nothing is written.</li>
 	 *         <li><b>{@code 201 (CREATED)}</b> if the tour was successfully
 	 *         created. The body of the request will contain the ID of the
 	 *         created tour which can later be used to fetch the particular
 	 *         tour.</li>
+	 *         <li><b>{@code 202 (ACCEPTED)}</b> if the tour was queued. The
+	 *         body of the request will contain the ID under which the tour
+	 *         will be available once written.</li>
 	 *         <li><b>{@code 400 (BAD REQUEST)}</b> if there was an error
 	 *         interpreting the data or if the content exceeds the maximum
-	 *         length (1 M).</li>
+	 *         length.</li>
+	 *         <li><b>{@code 503 (SERVICE UNAVAILABLE)}</b> if the queue is
+	 *         full.</li>
 	 *         </ul>
 	 */
-	@Transactional
-	@BodyParser.Of(value = Json.class, maxLength = 1024 * 1024)
+	@BodyParser.Of(Raw.class)
 	public static Promise<Result> createTour() {
-		if (request().body().isMaxSizeExceeded()) {
-			return Promise
-					.<Result> pure(badRequest(toJson("Request body too large. (> 1 M)")));
+		Result error = checkRawBody();
+		if (error != null) {
+			return Promise.pure(error);
 		}
 
-		JsonNode node = request().body().asJson();
-		try {
-			final TourDto tourDto = jsonToTour(node);
-			Promise<Result> promiseResult = TourDataAccessUtils.create(tourDto)
-					.map(new Function<Integer, Result>() {
+		WireFormat format = WireFormat.ofContentType(request().getHeader(
+				CONTENT_TYPE));
+		Promise<Result> promiseResult;
+		if (TourIngestQueue.isEnabled()) {
+			Optional<InputStream> body = openRawBody();
+			if (body.isPresent() == false) {
+				return Promise.<Result> pure(internalServerError());
+			}
+			promiseResult = TourIngestQueue.submit(body.get(), format).map(
+					new Function<Optional<Integer>, Result>() {
+
+						@Override
+						public Result apply(Optional<Integer> arg0)
+								throws Throwable {
+							if (arg0.isPresent()) {
+								return status(ACCEPTED, toJson(arg0.get()));
+							}
+							return status(SERVICE_UNAVAILABLE,
+									toJson("Too many pending tours."));
+						}
+					});
+		} else {
+			// The buffered body is read twice, see TourDataAccessUtils.
+			File body = request().body().asRaw().asFile();
+			promiseResult = TourDataAccessUtils.create(body, format).map(
+					new Function<Integer, Result>() {
 
 						@Override
 						public Result apply(Integer arg0) throws Throwable {
 							return created(toJson(arg0));
 						}
 					});
+		}
 
-			return promiseResult;
+		return promiseResult.recover(new Function<Throwable, Result>() {
 
-		} catch (JsonProcessingException e) {
-			LOG.info("Error parsing JSON request.", e);
-			String message = Strings.nullToEmpty(Throwables.getRootCause(e)
-					.getMessage());
+			@Override
+			public Result apply(Throwable arg0) throws Throwable {
+				Throwable cause = Throwables.getRootCause(arg0);
+				if (cause instanceof DuplicateTourException) {
+					LOG.info(cause.getMessage());
+					return ok(toJson(((DuplicateTourException) cause)
+							.existingId));
+				}
 
-			return Promise.<Result> pure(badRequest(toJson(message)));
-		} catch (IllegalArgumentException e) {
-			LOG.info("Error creating tour.", e);
-			String message = Strings.nullToEmpty(Throwables.getRootCause(e)
-					.getMessage());
-			return Promise.<Result> pure(badRequest(toJson(message)));
-		} catch (RuntimeException e) {
-			LOG.error("While creating tour.", e);
-			String message = Strings.nullToEmpty(Throwables.getRootCause(e)
-					.getMessage());
-			return Promise.<Result> pure(badRequest(toJson(message)));
+				if (arg0 instanceof JsonProcessingException) {
+					LOG.info("Error parsing JSON request.", arg0);
+				} else if (arg0 instanceof IllegalArgumentException) {
+					LOG.info("Error creating tour.", arg0);
+				} else {
+					LOG.error("While creating tour.", arg0);
+				}
+				String message = Strings.nullToEmpty(cause.getMessage());
+				return badRequest(toJson(message));
+			}
+		});
+	}
+
+	/**
+	 * Creates multiple tours based on the body of a POST request, which
+	 * contains either a JSON array of tours or newline-delimited JSON tours,
+	 * in the same format as accepted by {@link #createTour()}.<br>
+	 * The tours are persisted in batches, the size of which is configured by
+	 * {@code tours.batch.toursPerTransaction}.
+	 * 
+	 * @return <ul>
+	 *         <li><b>{@code 200 (OK)}</b> with a JSON array containing an
+	 *         object for each received tour, in the order of the request. The
+	 *         object contains either the {@code id} of the created tour, the
+	 *         {@code id} of the existing tour along with {@code duplicate} if
+	 *         the user already has the same tour, or an {@code error}
+	 *         describing why the tour was not created.</li>
+	 *         <li><b>{@code 400 (BAD REQUEST)}</b> if the content is empty or
+	 *         exceeds the maximum length.</li>
+	 *         </ul>
+	 */
+	@BodyParser.Of(Raw.class)
+	public static Promise<Result> createTours() {
+		Result error = checkRawBody();
+		if (error != null) {
+			return Promise.pure(error);
+		}
+
+		Optional<InputStream> json = openRawBody();
+		if (json.isPresent() == false) {
+			return Promise.<Result> pure(internalServerError());
+		}
+
+		int batchSize = Objects.firstNonNull(Play.application()
+				.configuration().getInt(BATCH_SIZE_KEY), DEFAULT_BATCH_SIZE);
+		Promise<Result> promiseResult = TourDataAccessUtils.createAll(
+				json.get(), batchSize).map(
+				new Function<List<TourCreationResultDto>, Result>() {
+
+					@Override
+					public Result apply(List<TourCreationResultDto> arg0)
+							throws Throwable {
+						return ok(toJson(arg0));
+					}
+				});
+
+		return promiseResult;
+	}
+
+	/**
+	 * @return A {@code 400 (BAD REQUEST)} result if the raw body of the
+	 *         current request is empty or exceeds the maximum length, otherwise
+	 *         {@code null}.
+	 */
+	private static Result checkRawBody() {
+		if (request().body().isMaxSizeExceeded()) {
+			String maxLength = Play.application().configuration()
+					.getString(MAX_LENGTH_KEY);
+			return badRequest(toJson("Request body too large. (> "
+					+ maxLength + ")"));
+		}
+
+		RawBuffer body = request().body().asRaw();
+		if (body == null || body.size() == 0) {
+			return badRequest(toJson("Empty request body."));
+		}
+		return null;
+	}
+
+	/**
+	 * @return A stream of the raw body of the current request, which has
+	 *         been buffered to disk, or an absent value if the buffer cannot
+	 *         be read.
+	 */
+	private static Optional<InputStream> openRawBody() {
+		try {
+			return Optional.<InputStream> of(new FileInputStream(request()
+					.body().asRaw().asFile()));
+		} catch (FileNotFoundException e) {
+			LOG.error("While reading request body.", e);
+			return Optional.absent();
 		}
 	}
 
 	/**
-	 * Fetches a single tour by its ID.
+	 * Fetches a single tour by its ID.<br>
+	 * If the {@code view} query parameter is {@code summary}, only the
+	 * summary of the tour is returned, containing its {@code id},
+	 * {@code creator}, {@code sport}, {@code start} point and
+	 * {@code pointCount}, instead of its whole geometry.<br>
+	 * If the {@code tolerance} query parameter is given in degrees, or the
+	 * {@code zoom} level of a web map the tour is drawn on, the geometry is
+	 * the stored simplified track with the greatest tolerance not exceeding
+	 * the given one, or the whole geometry if there is none.<br>
+	 * Responses are served from the {@link TourResponseCache} and carry a
+	 * strong {@code ETag}. The body is gzipped if the client accepts it.<br>
+	 * The tour is encoded in the {@link WireFormat} preferred by the
+	 * {@code Accept} header, JSON by default.<br>
+	 * If the {@code times} query parameter or the {@code X-Time-Format}
+	 * header is {@code millis}, the times of the points are given in
+	 * milliseconds, as described by {@link TimeFormat#MILLIS}. Otherwise
+	 * they are given in the time zone of the {@code tz} query parameter, a
+	 * time zone ID such as {@code Europe/Zagreb}, UTC by default.
 	 * 
 	 * @param id
 	 *            The ID of the tour to fetch.
 	 * @return <ul>
 	 *         <li><b>{@code200 (OK)}</b> if the tour was found. The body of the
-	 *         response will contain a JSON representation of the selected tour.
+	 *         response will contain a representation of the selected tour.
 	 *         </li>
+	 *         <li><b>{@code304 (NOT MODIFIED)}</b> if the
+	 *         {@code If-None-Match} request header matches the ETag of the
+	 *         tour.</li>
+	 *         <li><b>{@code400 (BAD REQUEST)}</b> if the view is neither
+	 *         {@code full} nor {@code summary}, or the tolerance, the zoom
+	 *         level, the time zone or the time format is invalid.</li>
 	 *         <li><b>{@code404 (NOT FOUND)}</b> if a tour with the provided ID
 	 *         was not found.</li>
+	 *         <li><b>{@code406 (NOT ACCEPTABLE)}</b> if none of the accepted
+	 *         media types is supported. The body will contain a JSON array of
+	 *         the supported media types.</li>
 	 *         </ul>
 	 */
-	@Transactional(readOnly = true)
 	public static Promise<Result> getTour(int id) {
-		Promise<Result> promiseResult = TourDataAccessUtils.findById(id).map(
+		boolean summary;
+		Optional<Double> tolerance;
+		final TimeZone tz;
+		final TimeFormat times;
+		try {
+			summary = isSummaryView(request().queryString().get(Q_VIEW));
+			tolerance = parseTolerance(request().queryString());
+			tz = parseTimeZone(request().queryString());
+			times = parseTimeFormat(request().queryString(),
+					request().getHeader(TIME_FORMAT_HEADER));
+		} catch (IllegalArgumentException e) {
+			return Promise.<Result> pure(badRequest(toJson(e.getMessage())));
+		}
+
+		Optional<WireFormat> negotiated = WireFormat.negotiate(request()
+				.getHeader(ACCEPT));
+		if (negotiated.isPresent() == false) {
+			return Promise.<Result> pure(status(NOT_ACCEPTABLE,
+					toJson(SUPPORTED_FORMATS)));
+		}
+		final WireFormat format = negotiated.get();
+
+		final String ifNoneMatch = request().getHeader(IF_NONE_MATCH);
+		final boolean gzip = acceptsGzip(request().getHeader(ACCEPT_ENCODING));
+		final TourResponseCache cache = TourResponseCache.instance();
+		final String key = TourResponseCache.key(id, format, tz, times,
+				summary, tolerance);
+		Optional<TourResponseCache.Entry> cached = cache.find(key);
+		if (cached.isPresent()) {
+			return Promise.pure(cachedToResult(cached.get(), format,
+					ifNoneMatch, gzip));
+		}
+
+		if (summary) {
+			return TourDataAccessUtils.findSummaryById(id).map(
+					new Function<TourSummaryDto, Result>() {
+						@Override
+						public Result apply(TourSummaryDto arg0)
+								throws Throwable {
+							Result result;
+							if (arg0 != null) {
+								TourResponseCache.Entry entry = cache.put(key,
+										summaryToBytes(arg0, tz, format,
+												times));
+								result = cachedToResult(entry, format,
+										ifNoneMatch, gzip);
+							} else {
+								result = notFound();
+							}
+							return result;
+						}
+					});
+		}
+
+		Promise<Result> promiseResult = TourDataAccessUtils.findById(id,
+				tolerance).map(
 				new Function<TourDto, Result>() {
 					@Override
 					public Result apply(TourDto arg0) throws Throwable {
 						LOG.debug("tour: " + arg0);
 						Result result;
 						if (arg0 != null) {
-							JsonNode json = tourToJson(arg0, TIME_ZONE);
-							result = ok(json);
+							TourResponseCache.Entry entry = cache.put(key,
+									tourToBytes(arg0, tz, format,
+											times));
+							result = cachedToResult(entry, format,
+									ifNoneMatch, gzip);
 						} else {
 							result = notFound();
 						}
@@ -135,6 +435,53 @@ public class Application extends Controller {
 
 	}
 
+	/**
+	 * @return {@code 304 (NOT MODIFIED)} if the client already has the
+	 *         cached body, otherwise the body, gzipped if the client accepts
+	 *         it and the cache holds a gzipped copy.
+	 */
+	private static Result cachedToResult(TourResponseCache.Entry entry,
+			WireFormat format, String ifNoneMatch, boolean acceptsGzip) {
+		boolean gzipped = acceptsGzip && entry.gzipped().isPresent();
+		response().setHeader(VARY, ACCEPT + ", " + ACCEPT_ENCODING + ", "
+				+ TIME_FORMAT_HEADER);
+		response().setHeader(ETAG, entry.etag(gzipped));
+		if (entry.matches(ifNoneMatch)) {
+			return status(NOT_MODIFIED);
+		}
+
+		byte[] body;
+		if (gzipped) {
+			response().setHeader(CONTENT_ENCODING, GZIP_ENCODING);
+			body = entry.gzipped().get();
+		} else {
+			body = entry.body();
+		}
+		return ok(body).as(format.contentType);
+	}
+
+	/**
+	 * @param acceptEncoding
+	 *            The value of an {@code Accept-Encoding} request header, may
+	 *            be {@code null}.
+	 * @return {@code true} if the header lists gzip without a zero quality.
+	 */
+	private static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : Splitter.on(',').trimResults()
+				.omitEmptyStrings().split(acceptEncoding)) {
+			List<String> parts = Splitter.on(';').trimResults()
+					.splitToList(coding);
+			if (parts.get(0).equalsIgnoreCase(GZIP_ENCODING)) {
+				return parts.size() < 2 || ZERO_QUALITY.matcher(
+						parts.get(1).replace(" ", "")).matches() == false;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Retrieves a JSON array of tours queried by a set of criteria returned
 	 * from the URL query parameters. <br>
@@ -147,10 +494,49 @@ public class Application extends Controller {
 	 * <li><b>{@code startlon}</b> (double): The start point WGS84 longitude in
 	 * degrees.</li>
 	 * <li><b>{@code startalt}</b> (double): The start point altitude above sea
-	 * level in metres. (optional)</li>
+	 * level in metres. If given, the altitude difference counts towards the
+	 * distance from the start point. (optional)</li>
 	 * <li><b>{@code radius}</b> (double): The radius in metres with reference
 	 * to the start point coordinates.</li>
+	 * <li><b>{@code k}</b> (int): The number of tours with the closest start
+	 * points to return, at most {@code tours.page.maxLimit}.</li>
+	 * <li><b>{@code bbox}</b> (string): An area given as
+	 * {@code minlon,minlat,maxlon,maxlat} in degrees. If {@code minlon} is
+	 * greater than {@code maxlon}, the area crosses the antimeridian.</li>
+	 * <li><b>{@code polygon}</b> (string): An area given as a WKT polygon or
+	 * multipolygon of longitudes and latitudes in degrees.</li>
+	 * <li><b>{@code limit}</b> (int): The maximum number of returned tours.
+	 * (optional, configured by {@code tours.page.defaultLimit} and
+	 * {@code tours.page.maxLimit})</li>
+	 * <li><b>{@code cursor}</b> (string): The cursor of the requested page, as
+	 * returned in the {@code X-Next-Cursor} header of the previous page.
+	 * (optional)</li>
+	 * <li><b>{@code view}</b> (string): {@code full} for the whole tours or
+	 * {@code summary} for tour summaries without geometry, as returned by
+	 * {@link #getTour(int)}. (optional, {@code full} by default)</li>
+	 * <li><b>{@code tolerance}</b> (double) or <b>{@code zoom}</b> (int): The
+	 * level of detail of the geometry of whole tours, as for
+	 * {@link #getTour(int)}. (optional)</li>
+	 * <li><b>{@code mindistance}, {@code maxdistance}</b> (double): Bounds of
+	 * the length of the tracks in metres, added to any criteria set. Tours
+	 * stored before their statistics were computed do not match. (optional)
+	 * </li>
+	 * <li><b>{@code minduration}, {@code maxduration}</b> (double): Bounds of
+	 * the duration of the tours in seconds, like the distance bounds.
+	 * (optional)</li>
+	 * <li><b>{@code times}</b> (string): {@code text} or {@code millis}, the
+	 * format of the times of points, as for {@link #getTour(int)}. The
+	 * {@code X-Time-Format} header may be used instead. (optional,
+	 * {@code text} by default)</li>
+	 * <li><b>{@code tz}</b> (string): The ID of the time zone of the times
+	 * of points, as for {@link #getTour(int)}. (optional, UTC by default)
+	 * </li>
 	 * </ul>
+	 * The tours are ordered by ID. If there are more tours than the limit, the
+	 * {@code X-Next-Cursor} response header contains the cursor of the next
+	 * page.<br>
+	 * Whole tours are streamed in a chunked response as they are read from
+	 * the database, in groups of {@code tours.stream.groupSize}.
 	 * 
 	 * @return <ul>
 	 *         <li><b>{@code 200 (OK)}</b> with a JSON array of tours in the
@@ -158,7 +544,8 @@ public class Application extends Controller {
 	 *         is returned ({@code []}).</li>
 	 *         <li><b>{@code 400 (BAD REQUEST)}</b> if the query parameters
 	 *         didn't contain all the mandatory parameters defined in any of the
-	 *         three criteria sets described below.</li>
+	 *         criteria sets described below, or if the given area, time
+	 *         zone or time format is invalid.</li>
 	 *         </ul>
 	 *         Valid criteria sets:
 	 *         <ul>
@@ -167,6 +554,16 @@ public class Application extends Controller {
 	 *         {@code radius} metres from ({@code startlat, startlon, startalt}
 	 *         ). If {@code sport} is provided, the tours are additionally
 	 *         filtered by the given sport name.</li>
+	 *         <li><b>{@code startlat, startlon, k, [sport]}: </b> Retrieves an
+	 *         array of the {@code k} tours with their starting points closest
+	 *         to ({@code startlat, startlon}), ordered by the distance, which
+	 *         is included in each tour. If {@code sport} is provided, the
+	 *         tours are additionally filtered by the given sport name. Paging
+	 *         does not apply.</li>
+	 *         <li><b>{@code bbox | polygon, [sport]}: </b> Retrieves an array
+	 *         of tours with a track crossing or lying within the given area.
+	 *         If {@code sport} is provided, the tours are additionally
+	 *         filtered by the given sport name.</li>
 	 *         <li><b>{@code username}: </b> Retrieves an array of tours created
 	 *         by the user with the given username.</li>
 	 *         <li><b>{@code sport}: </b> Retrieves an array of tours created
@@ -176,12 +573,38 @@ public class Application extends Controller {
 	@Transactional(readOnly = true)
 	public static Promise<Result> getToursByCriteria() {
 		Map<String, String[]> qMap = request().queryString();
-		return handleCriteria(qMap);
+		return handleCriteria(qMap, request().getHeader(TIME_FORMAT_HEADER));
 	}
 
-	static Promise<Result> handleCriteria(Map<String, String[]> qMap) {
+	/**
+	 * @param timeFormatHeader
+	 *            The value of the {@code X-Time-Format} header of the
+	 *            request, may be {@code null}.
+	 */
+	static Promise<Result> handleCriteria(Map<String, String[]> qMap,
+			String timeFormatHeader) {
 		Promise<Result> result;
 		Collection<String> keys = qMap.keySet();
+
+		int afterId;
+		int limit;
+		boolean summary;
+		Optional<Double> tolerance;
+		TourStatsFilter filter;
+		TimeZone tz;
+		TimeFormat times;
+		try {
+			afterId = parseCursor(qMap.get(Q_CURSOR));
+			limit = parseLimit(Q_LIMIT, qMap.get(Q_LIMIT));
+			summary = isSummaryView(qMap.get(Q_VIEW));
+			tolerance = parseTolerance(qMap);
+			filter = parseStatsFilter(qMap);
+			tz = parseTimeZone(qMap);
+			times = parseTimeFormat(qMap, timeFormatHeader);
+		} catch (IllegalArgumentException e) {
+			return Promise.<Result> pure(badRequest(toJson(e.getMessage())));
+		}
+
 		if (keys.containsAll(newHashSet(Q_START_LAT, Q_START_LON, Q_RADIUS))) {
 			double lat = Double.parseDouble(qMap.get(Q_START_LAT)[0]);
 			double lon = Double.parseDouble(qMap.get(Q_START_LON)[0]);
@@ -195,21 +618,46 @@ public class Application extends Controller {
 				alt = Optional.absent();
 			}
 
-			String[] sportParam = qMap.get(Q_SPORT);
-			Optional<String> sport;
-			if (sportParam != null) {
-				sport = Optional.of(sportParam[0]);
-			} else {
-				sport = Optional.absent();
+			Optional<String> sport = getOptional(qMap, Q_SPORT);
+
+			result = getToursByStartPoint(lat, lon, alt, radius, sport,
+					filter, summary, tolerance, tz, times, afterId, limit);
+		} else if (keys.containsAll(newHashSet(Q_START_LAT, Q_START_LON, Q_K))) {
+			double lat = Double.parseDouble(qMap.get(Q_START_LAT)[0]);
+			double lon = Double.parseDouble(qMap.get(Q_START_LON)[0]);
+
+			int k;
+			try {
+				k = parseLimit(Q_K, qMap.get(Q_K));
+			} catch (IllegalArgumentException e) {
+				return Promise.<Result> pure(badRequest(toJson(e
+						.getMessage())));
+			}
+
+			Optional<String> sport = getOptional(qMap, Q_SPORT);
+
+			result = getNearestTours(lat, lon, sport, filter, summary,
+					tolerance, tz, times, k);
+		} else if (keys.contains(Q_BBOX) || keys.contains(Q_POLYGON)) {
+			Geometry area;
+			try {
+				area = parseArea(qMap);
+			} catch (IllegalArgumentException e) {
+				return Promise.<Result> pure(badRequest(toJson(e
+						.getMessage())));
 			}
+			Optional<String> sport = getOptional(qMap, Q_SPORT);
 
-			result = getToursByStartPoint(lat, lon, alt, radius, sport);
+			result = getToursByArea(area, sport, filter, summary, tolerance,
+					tz, times, afterId, limit);
 		} else if (keys.contains(Q_USER)) {
 			String username = qMap.get(Q_USER)[0];
-			result = getToursByUsername(username);
+			result = getToursByUsername(username, filter, summary,
+					tolerance, tz, times, afterId, limit);
 		} else if (keys.contains(Q_SPORT)) {
 			String sport = qMap.get(Q_SPORT)[0];
-			result = getToursBySport(sport);
+			result = getToursBySport(sport, filter, summary, tolerance,
+					tz, times, afterId, limit);
 		} else {
 			result = Promise
 					.<Result> pure(badRequest("Illegal set of query parameters received."));
@@ -218,56 +666,521 @@ public class Application extends Controller {
 		return result;
 	}
 
-	static Promise<Result> getToursByUsername(String username) {
+	/**
+	 * @return The first value of the given query parameter, if present.
+	 */
+	private static Optional<String> getOptional(Map<String, String[]> qMap,
+			String name) {
+		String[] param = qMap.get(name);
+		if (param != null) {
+			return Optional.of(param[0]);
+		}
+		return Optional.absent();
+	}
 
-		Promise<Result> promiseResult = TourDataAccessUtils.findByUsername(
-				username).map(new Function<List<TourDto>, Result>() {
-			@Override
-			public Result apply(List<TourDto> arg0) throws Throwable {
-				JsonNode json = toursToJson(arg0, TIME_ZONE);
-				Result result = ok(json);
-				return result;
+	/**
+	 * @return The area given by the bbox or, if absent, the polygon query
+	 *         parameter.
+	 * @throws IllegalArgumentException
+	 *             if the area is invalid.
+	 */
+	private static Geometry parseArea(Map<String, String[]> qMap) {
+		String[] bboxParam = qMap.get(Q_BBOX);
+		if (bboxParam != null) {
+			String[] bounds = bboxParam[0].split(",");
+			checkArgument(bounds.length == 4,
+					"The bbox must be minlon,minlat,maxlon,maxlat.");
+			// A NumberFormatException is an IllegalArgumentException.
+			return TourDataAccessUtils.createEnvelope(
+					Double.parseDouble(bounds[0]),
+					Double.parseDouble(bounds[1]),
+					Double.parseDouble(bounds[2]),
+					Double.parseDouble(bounds[3]));
+		}
+		return TourDataAccessUtils.parseArea(qMap.get(Q_POLYGON)[0]);
+	}
+
+	/**
+	 * @param cursorParam
+	 *            The values of the cursor query parameter or {@code null}.
+	 * @return The ID after which the requested page starts.
+	 * @throws IllegalArgumentException
+	 *             if the cursor is invalid.
+	 */
+	private static int parseCursor(String[] cursorParam) {
+		int afterId = 0;
+		if (cursorParam != null) {
+			try {
+				afterId = Integer.parseInt(new String(CURSOR_ENCODING
+						.decode(cursorParam[0]), Charsets.US_ASCII));
+			} catch (IllegalArgumentException e) {
+				// Also thrown by parseInt, as a NumberFormatException.
+				throw new IllegalArgumentException("Invalid cursor.", e);
 			}
-		});
+		}
+		return afterId;
+	}
 
-		return promiseResult;
+	/**
+	 * @param name
+	 *            The name of the query parameter.
+	 * @return The page size given by the limit query parameter or the
+	 *         configured default.
+	 * @throws IllegalArgumentException
+	 *             if the limit is not between 1 and the configured maximum.
+	 */
+	private static int parseLimit(String name, String[] limitParam) {
+		Configuration config = Play.application().configuration();
+		int maxLimit = Objects.firstNonNull(config.getInt(MAX_LIMIT_KEY),
+				DEFAULT_MAX_LIMIT);
+
+		int limit;
+		if (limitParam != null) {
+			try {
+				limit = Integer.parseInt(limitParam[0]);
+			} catch (NumberFormatException e) {
+				limit = 0;
+			}
+			checkArgument(limit > 0 && limit <= maxLimit,
+					"The %s must be between 1 and %s.", name, maxLimit);
+		} else {
+			limit = Objects.firstNonNull(config.getInt(DEFAULT_LIMIT_KEY),
+					DEFAULT_LIMIT);
+		}
+		return limit;
+	}
+
+	/**
+	 * @return The tolerance of the simplified tracks given by the tolerance
+	 *         query parameter in degrees or by the zoom query parameter, if
+	 *         any, rounded down to the configured level of detail which is
+	 *         served for it. Absent if all points are served, so that
+	 *         responses to different requests for the same level are cached
+	 *         only once.
+	 * @throws IllegalArgumentException
+	 *             if the tolerance or the zoom level is invalid.
+	 * @see DetailLevels
+	 */
+	private static Optional<Double> parseTolerance(Map<String, String[]> qMap) {
+		String[] toleranceParam = qMap.get(Q_TOLERANCE);
+		String[] zoomParam = qMap.get(Q_ZOOM);
+		Optional<Double> tolerance = Optional.absent();
+		if (toleranceParam != null) {
+			double value = Double.parseDouble(toleranceParam[0]);
+			checkArgument(value >= 0, "The tolerance must not be negative.");
+			tolerance = DetailLevels.level(value);
+		} else if (zoomParam != null) {
+			tolerance = DetailLevels.level(DetailLevels.zoomTolerance(Integer
+					.parseInt(zoomParam[0])));
+		}
+		return tolerance;
+	}
+
+	/**
+	 * @return The statistics filter given by the distance and duration query
+	 *         parameters.
+	 * @throws IllegalArgumentException
+	 *             if a bound is not a non-negative number.
+	 */
+	private static TourStatsFilter parseStatsFilter(
+			Map<String, String[]> qMap) {
+		return new TourStatsFilter(getDouble(qMap, Q_MIN_DISTANCE),
+				getDouble(qMap, Q_MAX_DISTANCE), getDouble(qMap,
+						Q_MIN_DURATION), getDouble(qMap, Q_MAX_DURATION));
+	}
+
+	/**
+	 * @return The first value of the given query parameter as a number, if
+	 *         present.
+	 * @throws NumberFormatException
+	 *             if the value is not a number.
+	 */
+	private static Optional<Double> getDouble(Map<String, String[]> qMap,
+			String name) {
+		Optional<String> param = getOptional(qMap, name);
+		if (param.isPresent()) {
+			return Optional.of(Double.parseDouble(param.get()));
+		}
+		return Optional.absent();
+	}
+
+	/**
+	 * @return The time zone given by the tz query parameter as a time zone ID,
+	 *         e.g. {@code Europe/Zagreb} or {@code GMT+02:00}, or UTC.
+	 * @throws IllegalArgumentException
+	 *             if the time zone is unknown.
+	 */
+	private static TimeZone parseTimeZone(Map<String, String[]> qMap) {
+		Optional<String> param = getOptional(qMap, Q_TZ);
+		if (param.isPresent() == false) {
+			return DEFAULT_TIME_ZONE;
+		}
+		TimeZone tz = TimeZone.getTimeZone(param.get());
+		// Unknown IDs are not rejected, but silently replaced by GMT.
+		checkArgument(tz.getID().equals(UNKNOWN_TIME_ZONE_ID) == false
+				|| param.get().equals(UNKNOWN_TIME_ZONE_ID),
+				"Unknown time zone: %s", param.get());
+		return tz;
+	}
+
+	/**
+	 * @param header
+	 *            The value of the {@code X-Time-Format} header, may be
+	 *            {@code null}.
+	 * @return The time format given by the times query parameter or, if
+	 *         absent, by the header.
+	 * @throws IllegalArgumentException
+	 *             if the time format is unknown.
+	 */
+	private static TimeFormat parseTimeFormat(Map<String, String[]> qMap,
+			String header) {
+		Optional<String> param = getOptional(qMap, Q_TIMES);
+		if (param.isPresent()) {
+			return TimeFormat.parse(param.get());
+		}
+		return TimeFormat.parse(header);
+	}
+
+	/**
+	 * @param viewParam
+	 *            The values of the view query parameter or {@code null}.
+	 * @return Whether tour summaries were requested instead of whole tours.
+	 * @throws IllegalArgumentException
+	 *             if the view is unknown.
+	 */
+	private static boolean isSummaryView(String[] viewParam) {
+		boolean summary = false;
+		if (viewParam != null) {
+			summary = VIEW_SUMMARY.equals(viewParam[0]);
+			checkArgument(summary || VIEW_FULL.equals(viewParam[0]),
+					"Unknown view: %s", viewParam[0]);
+		}
+		return summary;
+	}
+
+	/**
+	 * Sets the cursor of the page following the given one in the
+	 * {@code X-Next-Cursor} header, if there is a next page.
+	 */
+	private static void setNextCursor(Page<?> page) {
+		if (page.nextAfter.isPresent()) {
+			String cursor = CURSOR_ENCODING.encode(page.nextAfter.get()
+					.toString().getBytes(Charsets.US_ASCII));
+			response().setHeader(NEXT_CURSOR_HEADER, cursor);
+		}
 	}
 
-	static Promise<Result> getToursBySport(String sport) {
-		Promise<Result> promiseResult = TourDataAccessUtils.findBySportName(
-				sport).map(new Function<List<TourDto>, Result>() {
+	/**
+	 * Creates a result with the given JSON array of the items of a page.
+	 */
+	private static Result pageToResult(Page<?> page, JsonNode json) {
+		setNextCursor(page);
+		return ok(json);
+	}
 
+	/**
+	 * @return A function creating a result with the summaries of a page.
+	 */
+	private static Function<Page<TourSummaryDto>, Result> summaryPageToResult(
+			final TimeZone tz, final TimeFormat times) {
+		return new Function<Page<TourSummaryDto>, Result>() {
 			@Override
-			public Result apply(List<TourDto> arg0) throws Throwable {
-				JsonNode json = toursToJson(arg0, TIME_ZONE);
-				Result result = ok(json);
-				return result;
+			public Result apply(Page<TourSummaryDto> arg0) throws Throwable {
+				return pageToResult(arg0,
+						summariesToJson(arg0.items, tz, times));
 			}
-		});
+		};
+	}
+
+	/**
+	 * @return A function streaming the tours of a page of tour IDs.
+	 */
+	private static Function<Page<Integer>, Result> streamPage(
+			final Optional<Double> tolerance, final TimeZone tz,
+			final TimeFormat times) {
+		return new Function<Page<Integer>, Result>() {
+			@Override
+			public Result apply(Page<Integer> arg0) throws Throwable {
+				setNextCursor(arg0);
+				return ok(
+						streamTours(arg0.items,
+								Collections.<Integer, Double> emptyMap(),
+								tolerance, tz, times)).as(JSON_CONTENT_TYPE);
+			}
+		};
+	}
+
+	/**
+	 * Streams a JSON array of the tours with the given IDs, reading and
+	 * writing one group of tours at a time. If reading the tours fails, the
+	 * response ends without closing the array, so that the client can tell
+	 * that it is incomplete.<br>
+	 * The tours are read as fast as the database delivers them, regardless
+	 * of the client, since {@link Chunks.Out} has no backpressure. For a slow
+	 * client the whole page is therefore buffered in memory, which is
+	 * bounded by {@code tours.page.maxLimit}.
+	 * 
+	 * @param distances
+	 *            The distances to include in the tours, by ID.
+	 * @param tolerance
+	 *            The optional tolerance of the simplified tracks.
+	 * @param tz
+	 *            The time zone of the times of the points.
+	 * @param times
+	 *            The format of the times of the points.
+	 */
+	private static Chunks<byte[]> streamTours(final List<Integer> ids,
+			final Map<Integer, Double> distances,
+			final Optional<Double> tolerance, final TimeZone tz,
+			final TimeFormat times) {
+		return new ByteChunks() {
+			@Override
+			public void onReady(Out<byte[]> out) {
+				final ChunkOutputStream stream = new ChunkOutputStream(out,
+						CHUNK_SIZE);
+				final TourArrayWriter writer;
+				try {
+					writer = tourArrayWriter(stream, tz, times);
+				} catch (IOException e) {
+					LOG.error("While starting to stream tours.", e);
+					closeStream(stream);
+					return;
+				}
+
+				Promise<Void> written = TourDataAccessUtils.forEachTour(ids,
+						tolerance, new Callback<Tuple<Integer, TourDto>>() {
+							@Override
+							public void invoke(Tuple<Integer, TourDto> arg0)
+									throws Throwable {
+								Double distance = distances.get(arg0._1);
+								if (distance != null) {
+									writer.write(arg0._2.withDistance(distance));
+								} else {
+									writer.write(arg0._2);
+								}
+							}
+						});
+				written.onRedeem(new Callback<Void>() {
+					@Override
+					public void invoke(Void arg0) throws Throwable {
+						writer.close();
+					}
+				});
+				written.onFailure(new Callback<Throwable>() {
+					@Override
+					public void invoke(Throwable arg0) {
+						if (arg0 instanceof IOException) {
+							LOG.info("Streaming tours aborted.", arg0);
+						} else {
+							LOG.error("While streaming tours.", arg0);
+						}
+						closeStream(stream);
+					}
+				});
+			}
+		};
+	}
+
+	private static void closeStream(ChunkOutputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			LOG.info("While closing tour stream.", e);
+		}
+	}
+
+	static Promise<Result> getToursByUsername(String username,
+			TourStatsFilter filter, boolean summary,
+			Optional<Double> tolerance, TimeZone tz, TimeFormat times,
+			int afterId, int limit) {
+
+		Promise<Result> promiseResult;
+		if (summary) {
+			promiseResult = TourDataAccessUtils.findSummariesByUsername(
+					username, filter, afterId, limit).map(
+					summaryPageToResult(tz, times));
+		} else {
+			promiseResult = TourDataAccessUtils.findIdsByUsername(username,
+					filter, afterId, limit).map(
+					streamPage(tolerance, tz, times));
+		}
+
+		return promiseResult;
+	}
+
+	static Promise<Result> getToursBySport(String sport,
+			TourStatsFilter filter, boolean summary,
+			Optional<Double> tolerance, TimeZone tz, TimeFormat times,
+			int afterId, int limit) {
+		Promise<Result> promiseResult;
+		if (summary) {
+			promiseResult = TourDataAccessUtils.findSummariesBySportName(
+					sport, filter, afterId, limit).map(
+					summaryPageToResult(tz, times));
+		} else {
+			promiseResult = TourDataAccessUtils.findIdsBySportName(sport,
+					filter, afterId, limit).map(
+					streamPage(tolerance, tz, times));
+		}
 
 		return promiseResult;
 	}
 
 	static Promise<Result> getToursByStartPoint(double lat, double lon,
-			Optional<Double> alt, Double radius, Optional<String> sport) {
+			Optional<Double> alt, Double radius, Optional<String> sport,
+			TourStatsFilter filter, boolean summary,
+			Optional<Double> tolerance, TimeZone tz, TimeFormat times,
+			int afterId, int limit) {
 
-		Promise<Result> promiseResult = TourDataAccessUtils.findByStartPoint(
-				lat, lon, alt, radius, sport).map(
-				new Function<List<TourDto>, Result>() {
+		Promise<Result> promiseResult;
+		if (summary) {
+			promiseResult = TourDataAccessUtils.findSummariesByStartPoint(
+					lat, lon, alt, radius, sport, filter, afterId, limit).map(
+					summaryPageToResult(tz, times));
+		} else {
+			promiseResult = TourDataAccessUtils.findIdsByStartPoint(lat, lon,
+					alt, radius, sport, filter, afterId, limit).map(
+					streamPage(tolerance, tz, times));
+		}
 
-					@Override
-					public Result apply(List<TourDto> arg0) throws Throwable {
-						JsonNode json = toursToJson(arg0, TIME_ZONE);
-						Result result = ok(json);
-						return result;
+		return promiseResult;
+
+	}
+
+	static Promise<Result> getToursByArea(Geometry area,
+			Optional<String> sport, TourStatsFilter filter, boolean summary,
+			Optional<Double> tolerance, TimeZone tz, TimeFormat times,
+			int afterId, int limit) {
+		Promise<Result> promiseResult;
+		if (summary) {
+			promiseResult = TourDataAccessUtils.findSummariesByArea(area,
+					sport, filter, afterId, limit).map(
+					summaryPageToResult(tz, times));
+		} else {
+			promiseResult = TourDataAccessUtils.findIdsByArea(area, sport,
+					filter, afterId, limit).map(
+					streamPage(tolerance, tz, times));
+		}
+
+		return promiseResult;
+	}
+
+	static Promise<Result> getNearestTours(double lat, double lon,
+			Optional<String> sport, TourStatsFilter filter, boolean summary,
+			final Optional<Double> tolerance, final TimeZone tz,
+			final TimeFormat times, int k) {
+		Promise<Result> promiseResult;
+		if (summary) {
+			promiseResult = TourDataAccessUtils.findNearestSummaries(lat, lon,
+					sport, filter, k).map(new Function<List<TourSummaryDto>, Result>() {
+				@Override
+				public Result apply(List<TourSummaryDto> arg0)
+						throws Throwable {
+					return ok(summariesToJson(arg0, tz, times));
+				}
+			});
+		} else {
+			promiseResult = TourDataAccessUtils.findNearest(lat, lon, sport,
+					filter, k).map(new Function<List<TourDistance>, Result>() {
+				@Override
+				public Result apply(List<TourDistance> arg0) throws Throwable {
+					List<Integer> ids = Lists.newArrayListWithCapacity(arg0
+							.size());
+					Map<Integer, Double> distances = Maps.newHashMap();
+					for (TourDistance distance : arg0) {
+						ids.add(distance.id);
+						distances.put(distance.id, distance.distance);
 					}
-				});
+					return ok(
+							streamTours(ids, distances, tolerance, tz, times))
+							.as(
+							JSON_CONTENT_TYPE);
+				}
+			});
+		}
 
 		return promiseResult;
+	}
+
+	/**
+	 * Retrieves the state of the asynchronous tour ingestion.
+	 * 
+	 * @return <b>{@code 200 (OK)}</b> with a JSON object containing the
+	 *         number of {@code queued} tours, the {@code pendingPoints} of the
+	 *         tours which are not written yet, the {@code remainingPoints}
+	 *         capacity of the queue, the IDs of the {@code pending} tours and
+	 *         the errors of the recently {@code failed} tours by ID.
+	 */
+	public static Result getPendingTours() {
+		return ok(toJson(TourIngestQueue.status()));
+	}
+
+	/**
+	 * Retrieves the number of tours starting in each cell of a grid dividing
+	 * the given web map tile, for drawing a density map. The optional
+	 * {@code sport} query parameter restricts the count to a sport.
+	 * 
+	 * @return <ul>
+	 *         <li><b>{@code 200 (OK)}</b> with a JSON tile, cacheable for
+	 *         {@code tours.tiles.maxAge} seconds</li>
+	 *         <li><b>{@code 400 (Bad Request)}</b> if the tile does not exist
+	 *         or is too detailed</li>
+	 *         <li><b>{@code 503 (Service Unavailable)}</b> if the counts are
+	 *         not loaded</li>
+	 *         </ul>
+	 */
+	public static Promise<Result> getTile(int z, int x, int y) {
+		Optional<String> sport = getOptional(request().queryString(),
+				Q_SPORT);
+		Promise<Optional<TileDto>> tile;
+		try {
+			tile = TourDataAccessUtils.findTile(z, x, y, sport);
+		} catch (IllegalArgumentException e) {
+			return Promise.<Result> pure(badRequest(toJson(e.getMessage())));
+		}
+
+		final int maxAge = Objects.firstNonNull(Play.application()
+				.configuration().getInt(TILE_MAX_AGE_KEY),
+				DEFAULT_TILE_MAX_AGE);
+		return tile.map(new Function<Optional<TileDto>, Result>() {
+			@Override
+			public Result apply(Optional<TileDto> arg0) throws Throwable {
+				if (arg0.isPresent() == false) {
+					return status(SERVICE_UNAVAILABLE,
+							toJson("The tiles are not loaded."));
+				}
+				response().setHeader(CACHE_CONTROL, "public, max-age="
+						+ maxAge);
+				return ok(toJson(arg0.get()));
+			}
+		});
+	}
 
+	/**
+	 * Retrieves the counters of the user and sport lookup caches and of the
+	 * tour response cache.
+	 * 
+	 * @return <b>{@code 200 (OK)}</b> with a JSON object containing the
+	 *         {@code users}, {@code sports} and {@code tours} cache counters.
+	 */
+	public static Result getCacheStats() {
+		ObjectNode json = Json.newObject();
+		json.put("users", toJson(ReferenceDataCache.userStats()));
+		json.put("sports", toJson(ReferenceDataCache.sportStats()));
+		json.put("tours", toJson(TourResponseCache.instance().stats()));
+		return ok(json);
+	}
+
+	/**
+	 * Retrieves the size of the in-memory start point index.
+	 * 
+	 * @return <b>{@code 200 (OK)}</b> with a JSON object telling whether the
+	 *         index is {@code ready}, its {@code size} in tours, the number of
+	 *         grid {@code cells}, the {@code loadMillis} it took to load and
+	 *         its {@code estimatedBytes} in memory, also per million tours.
+	 */
+	public static Result getIndexStats() {
+		return ok(toJson(StartPointIndex.stats()));
 	}
-	
-	
-	
 
 }
@@ -10,6 +10,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
@@ -22,6 +23,11 @@ import play.db.jpa.JPA;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 
+@NamedQuery(
+	name = "findStartPointId",
+	query = "SELECT p.id FROM TimestampedPoint p WHERE p.tour = :tour " +
+		"ORDER BY p.time, p.id"
+)
 @Entity
 @Table(name = "timestamped_point")
 public class TimestampedPoint implements Comparable<TimestampedPoint> {
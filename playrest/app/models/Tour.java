@@ -1,6 +1,7 @@
 package models;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import javax.persistence.CascadeType;
@@ -19,39 +20,257 @@ import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.OrderBy;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Type;
+
+import com.vividsolutions.jts.geom.Geometry;
 
 @NamedNativeQueries({
 	@NamedNativeQuery(
 			name = "findTourByRadius",
-			query = "SELECT tour.* FROM tour " +
-				"JOIN timestamped_point ON tur_start_tsp_id = tsp_id " +
-				"WHERE ST_Distance_Sphere(:startpoint, tsp_point) < :radius " +
-				"ORDER BY tur_id",
-			resultClass = Tour.class
+			query = "SELECT tur_id FROM tour " +
+				"WHERE " + Tour.RADIUS_FILTER +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
 	),
 	@NamedNativeQuery(
 			name = "findTourByRadiusAndSport",
-			query = "SELECT tour.* FROM tour " +
-				"JOIN timestamped_point ON tur_start_tsp_id = tsp_id " +
+			query = "SELECT tur_id FROM tour " +
+				"JOIN sport ON tur_spt_id = spt_id " +
+				"WHERE " + Tour.RADIUS_FILTER +
+				"AND spt_name = :sport " +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourByArea",
+			query = "SELECT tur_id FROM tour " +
+				"WHERE " + Tour.AREA_FILTER +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourByAreaAndSport",
+			query = "SELECT tur_id FROM tour " +
+				"JOIN sport ON tur_spt_id = spt_id " +
+				"WHERE " + Tour.AREA_FILTER +
+				"AND spt_name = :sport " +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	// The nearest tour queries select the ID and the distance of the start
+	// point, ordered by the index-assisted distance in degrees, which is
+	// close to but not the same as the order by distance on the sphere.
+	@NamedNativeQuery(
+			name = "findNearestTours",
+			query = Tour.DISTANCE_SELECT +
+				"WHERE tur_start_point IS NOT NULL " +
+				Tour.STATS_FILTER +
+				"ORDER BY tur_start_point <-> :startpoint"
+	),
+	@NamedNativeQuery(
+			name = "findNearestToursBySport",
+			query = Tour.DISTANCE_SELECT +
+				"JOIN sport ON tur_spt_id = spt_id " +
+				"WHERE tur_start_point IS NOT NULL " +
+				"AND spt_name = :sport " +
+				Tour.STATS_FILTER +
+				"ORDER BY tur_start_point <-> :startpoint"
+	),
+	@NamedNativeQuery(
+			name = "findTourDistancesByRadius",
+			query = Tour.DISTANCE_SELECT +
+				"WHERE " + Tour.RADIUS_FILTER +
+				Tour.STATS_FILTER
+	),
+	@NamedNativeQuery(
+			name = "findTourDistancesByRadiusAndSport",
+			query = Tour.DISTANCE_SELECT +
 				"JOIN sport ON tur_spt_id = spt_id " +
-				"WHERE ST_Distance_Sphere(:startpoint, tsp_point) < :radius " +
+				"WHERE " + Tour.RADIUS_FILTER +
+				"AND spt_name = :sport " +
+				Tour.STATS_FILTER
+	),
+	// Selects the earliest tour of a user with the given fingerprint starting
+	// within the given time range, using the index of the fingerprints.
+	@NamedNativeQuery(
+			name = "findDuplicateTour",
+			query = "SELECT tur_id FROM tour " +
+				"WHERE tur_usr_id = :user AND tur_fingerprint = :fingerprint " +
+				"AND tur_start_time BETWEEN :from AND :to " +
+				"ORDER BY tur_id"
+	),
+	// Selects the simplified track of each of the tours with the greatest
+	// tolerance not exceeding the given one.
+	@NamedNativeQuery(
+			name = "findTourDetails",
+			query = "SELECT DISTINCT ON (tdl_tur_id) tdl_tur_id, tdl_track " +
+				"FROM tour_detail " +
+				"WHERE tdl_tur_id IN (:ids) AND tdl_tolerance <= :tolerance " +
+				"ORDER BY tdl_tur_id, tdl_tolerance DESC"
+	),
+	// The summary queries select only the columns of a TourSummaryDto, in the
+	// order of Tour.SUMMARY_COLUMNS.
+	@NamedNativeQuery(
+			name = "findTourSummaryById",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE tur_id = :id"
+	),
+	@NamedNativeQuery(
+			name = "findTourSummaryByIds",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE tur_id IN (:ids) " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourSummaryByUsername",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE usr_username = :user " +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourSummaryBySport",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE spt_name = :sport " +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourSummaryByRadius",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE " + Tour.RADIUS_FILTER +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourSummaryByRadiusAndSport",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE " + Tour.RADIUS_FILTER +
+				"AND spt_name = :sport " +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourSummaryByArea",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE " + Tour.AREA_FILTER +
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
+	),
+	@NamedNativeQuery(
+			name = "findTourSummaryByAreaAndSport",
+			query = Tour.SUMMARY_SELECT +
+				"WHERE " + Tour.AREA_FILTER +
 				"AND spt_name = :sport " +
-				"ORDER BY tur_id",
-			resultClass = Tour.class
+				Tour.STATS_FILTER +
+				"AND tur_id > :after " +
+				"ORDER BY tur_id"
 	)
 })
+// The user and the sport are fetched along with the tours, while the points
+// of multiple tours are fetched at once thanks to the batch size of the
+// points collection.
 @NamedQueries({
 	@NamedQuery(
-		name = "findTourByUsername",
-		query = "FROM Tour t WHERE t.user.username = :user"
+		name = "findTourIdsByUsername",
+		query = "SELECT t.id FROM Tour t " +
+			"WHERE t.user.username = :user " +
+			"AND " + Tour.STATS_CONDITION +
+			"AND t.id > :after ORDER BY t.id"
+	),
+	@NamedQuery(
+		name = "findTourIdsBySport",
+		query = "SELECT t.id FROM Tour t " +
+			"WHERE t.sport.name = :sport " +
+			"AND " + Tour.STATS_CONDITION +
+			"AND t.id > :after ORDER BY t.id"
 	),
 	@NamedQuery(
-		name = "findTourBySport",
-		query = "FROM Tour t WHERE t.sport.name = :sport"
+		name = "findTourByIds",
+		query = "SELECT t FROM Tour t JOIN FETCH t.user JOIN FETCH t.sport " +
+			"WHERE t.id IN (:ids) ORDER BY t.id"
 	)
 })
 @Entity
-public class Tour {	
+public class Tour {
+	/**
+	 * The number of tours for which the points are fetched with a single
+	 * query, once the points of one of them are accessed.
+	 */
+	public static final int POINTS_BATCH_SIZE = 500;
+
+	/**
+	 * The columns selected by the summary queries: the ID, the username, the
+	 * sport name, the time and the coordinates of the start point, the
+	 * number of points and the statistics.
+	 */
+	static final String SUMMARY_COLUMNS = "tur_id, usr_username, spt_name, " +
+			"tur_start_time, ST_X(tur_start_point), ST_Y(tur_start_point), " +
+			"ST_Z(tur_start_point), tur_point_count, tur_distance, " +
+			"tur_duration, tur_elevation_gain, tur_average_speed, " +
+			"tur_max_speed";
+	static final String SUMMARY_SELECT = "SELECT " + SUMMARY_COLUMNS + " " +
+			"FROM tour " +
+			"JOIN public.user ON tur_usr_id = usr_id " +
+			"JOIN sport ON tur_spt_id = spt_id ";
+
+	static final String DISTANCE_SELECT = "SELECT tur_id, " +
+			"ST_Distance_Sphere(:startpoint, tur_start_point) FROM tour ";
+
+	/**
+	 * Matches start points within {@code :radius} metres of
+	 * {@code :startpoint}, measured by {@code ST_Distance_Sphere}. Since that
+	 * cannot use an index, the tours are first selected by
+	 * {@code ST_DWithin} on the geography index of the start points, with the
+	 * slightly larger {@code :searchradius}.<br>
+	 * If {@code :usealt} is true, the altitude difference is also taken into
+	 * account. The distance can only grow that way, so the same tours are
+	 * selected by the index first.
+	 */
+	static final String RADIUS_FILTER =
+			"ST_DWithin(geography(tur_start_point), geography(:startpoint), " +
+				":searchradius, false) " +
+			"AND ST_Distance_Sphere(:startpoint, tur_start_point) < :radius " +
+			"AND (:usealt = false " +
+				"OR power(ST_Distance_Sphere(:startpoint, tur_start_point), 2) " +
+				"+ power(ST_Z(tur_start_point) - ST_Z(:startpoint), 2) " +
+				"< power(:radius, 2)) ";
+
+	/**
+	 * Matches tours with a track intersecting the {@code :area} geometry,
+	 * using the spatial index of the stored paths.
+	 */
+	static final String AREA_FILTER = "ST_Intersects(tur_path, :area) ";
+
+	/**
+	 * Matches tours with a distance between {@code :mindistance} and
+	 * {@code :maxdistance} and a duration between {@code :minduration} and
+	 * {@code :maxduration}, if {@code :usestats} is true. Tours without
+	 * statistics do not match then.
+	 */
+	static final String STATS_FILTER =
+			"AND (:usestats = false OR (" +
+				"tur_distance BETWEEN :mindistance AND :maxdistance " +
+				"AND tur_duration BETWEEN :minduration AND :maxduration)) ";
+	/** The {@link #STATS_FILTER} of the JPQL queries on a tour {@code t}. */
+	static final String STATS_CONDITION =
+			"(:usestats = false OR (" +
+				"t.distance BETWEEN :mindistance AND :maxdistance " +
+				"AND t.duration BETWEEN :minduration AND :maxduration)) ";
+	
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	@Column(name = "tur_id")
@@ -73,6 +292,29 @@ public class Tour {
 			nullable = true
 	)
 	private TimestampedPoint startPoint;
+
+	// The location and time of the start point, stored on the tour so that
+	// it can be searched and listed without reading the start point entry.
+	@Type(type = "org.hibernate.spatial.GeometryType")
+	@Column(name = "tur_start_point")
+	private Geometry startLocation;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "tur_start_time")
+	private Date startTime;
+
+	@Column(name = "tur_start_geohash")
+	private String startGeohash;
+	
+	/**
+	 * The two-dimensional line of the points ordered by time, or a point if
+	 * the tour has a single point, so that tours can be searched by the
+	 * areas their tracks cross without reading their points. Written once
+	 * along with the points, never updated.
+	 */
+	@Type(type = "org.hibernate.spatial.GeometryType")
+	@Column(name = "tur_path", updatable = false)
+	private Geometry path;
 	
 	@OneToMany(
 		fetch = FetchType.LAZY,
@@ -80,7 +322,51 @@ public class Tour {
 		cascade = CascadeType.ALL
 	)
 	@OrderBy("tsp_time")
+	@BatchSize(size = Tour.POINTS_BATCH_SIZE)
 	private List<TimestampedPoint> points;
+	
+	/**
+	 * The points of the tour in a compact binary form. If set, the tour has
+	 * no {@link #points} apart from its start point.
+	 */
+	@Column(name = "tur_track")
+	private byte[] track;
+
+	/**
+	 * The number of points of the tour, so that it can be listed without
+	 * reading its points. {@code null} for tours stored in compact form
+	 * before the column was introduced, until filled in by the
+	 * {@code TrackBackfill}.
+	 */
+	@Column(name = "tur_point_count")
+	private Integer pointCount;
+
+	// The statistics of the tour, computed from its points when it is
+	// written. Distances are in metres, durations in seconds and speeds in
+	// metres per second. Null for tours stored in compact form before the
+	// columns were introduced, until filled in by the TrackBackfill.
+	@Column(name = "tur_distance")
+	private Double distance;
+
+	@Column(name = "tur_duration")
+	private Double duration;
+
+	@Column(name = "tur_elevation_gain")
+	private Double elevationGain;
+
+	@Column(name = "tur_average_speed")
+	private Double averageSpeed;
+
+	@Column(name = "tur_max_speed")
+	private Double maxSpeed;
+
+	/**
+	 * The fingerprint of the track, for recognizing exact re-uploads.
+	 * {@code null} for tours created before the column was introduced, until
+	 * filled in by the {@code TrackBackfill}.
+	 */
+	@Column(name = "tur_fingerprint")
+	private Long fingerprint;
 
 	public Integer getId() {
 		return id;
@@ -114,6 +400,70 @@ public class Tour {
 		this.points = points;
 	}
 
+	public byte[] getTrack() {
+		return track;
+	}
+
+	public void setTrack(byte[] track) {
+		this.track = track;
+	}
+
+	public Integer getPointCount() {
+		return pointCount;
+	}
+
+	public void setPointCount(Integer pointCount) {
+		this.pointCount = pointCount;
+	}
+
+	public Double getDistance() {
+		return distance;
+	}
+
+	public void setDistance(Double distance) {
+		this.distance = distance;
+	}
+
+	public Double getDuration() {
+		return duration;
+	}
+
+	public void setDuration(Double duration) {
+		this.duration = duration;
+	}
+
+	public Double getElevationGain() {
+		return elevationGain;
+	}
+
+	public void setElevationGain(Double elevationGain) {
+		this.elevationGain = elevationGain;
+	}
+
+	public Double getAverageSpeed() {
+		return averageSpeed;
+	}
+
+	public void setAverageSpeed(Double averageSpeed) {
+		this.averageSpeed = averageSpeed;
+	}
+
+	public Double getMaxSpeed() {
+		return maxSpeed;
+	}
+
+	public void setMaxSpeed(Double maxSpeed) {
+		this.maxSpeed = maxSpeed;
+	}
+
+	public Long getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(Long fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
 	public TimestampedPoint getStartPoint() {
 		return startPoint;
 	}
@@ -122,6 +472,38 @@ public class Tour {
 		this.startPoint = startPoint;
 	}
 
+	public Geometry getStartLocation() {
+		return startLocation;
+	}
+
+	public void setStartLocation(Geometry startLocation) {
+		this.startLocation = startLocation;
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	public String getStartGeohash() {
+		return startGeohash;
+	}
+
+	public void setStartGeohash(String startGeohash) {
+		this.startGeohash = startGeohash;
+	}
+
+	public Geometry getPath() {
+		return path;
+	}
+
+	public void setPath(Geometry path) {
+		this.path = path;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
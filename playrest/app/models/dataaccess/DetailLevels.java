@@ -0,0 +1,188 @@
+package models.dataaccess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.List;
+
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
+import play.Play;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+/**
+ * Simplified versions of the tracks of tours, for clients which draw a tour
+ * on a map and do not need all of its points.<br>
+ * A track is simplified with the Douglas-Peucker algorithm for each of the
+ * tolerances configured by {@code tours.detail.tolerances}, in degrees, when
+ * the tour is written. The simplified points are a subset of the points of
+ * the tour, so they keep their times and altitudes. The algorithm works on
+ * the primitive arrays of a {@link PointSeries}, so no geometry is built.
+ */
+public class DetailLevels {
+	private static final String TOLERANCES_KEY = "tours.detail.tolerances";
+	private static final String DEFAULT_TOLERANCES = "0.00001, 0.0001, 0.001";
+
+	/** The highest zoom level of a web map. */
+	public static final int MAX_ZOOM = 30;
+	/** The size of a map tile in pixels. */
+	private static final int TILE_SIZE = 256;
+
+	private DetailLevels() {
+	}
+
+	/**
+	 * @return The configured tolerances in ascending order.
+	 * @throws IllegalArgumentException
+	 *             if a tolerance is not a positive number.
+	 */
+	static List<Double> tolerances() {
+		String tolerances = Objects.firstNonNull(Play.application()
+				.configuration().getString(TOLERANCES_KEY),
+				DEFAULT_TOLERANCES);
+		return parseTolerances(tolerances);
+	}
+
+	static List<Double> parseTolerances(String tolerances) {
+		List<Double> result = Lists.newArrayList();
+		for (String tolerance : Splitter.on(',').trimResults()
+				.omitEmptyStrings().split(tolerances)) {
+			double value = Double.parseDouble(tolerance);
+			checkArgument(value > 0, "Invalid tolerance: %s", tolerance);
+			result.add(value);
+		}
+		return Ordering.natural().sortedCopy(result);
+	}
+
+	/**
+	 * @param tolerance
+	 *            A requested tolerance in degrees.
+	 * @return The greatest configured tolerance not exceeding the requested
+	 *         one, which is the level of detail served for it, or absent if
+	 *         there is none and all points are served.
+	 */
+	public static Optional<Double> level(double tolerance) {
+		return level(tolerances(), tolerance);
+	}
+
+	/**
+	 * @param tolerances
+	 *            The configured tolerances in ascending order.
+	 */
+	static Optional<Double> level(List<Double> tolerances, double tolerance) {
+		Optional<Double> level = Optional.absent();
+		for (double configured : tolerances) {
+			if (configured > tolerance) {
+				break;
+			}
+			level = Optional.of(configured);
+		}
+		return level;
+	}
+
+	/**
+	 * @return The tolerance in degrees matching a pixel at the equator of a
+	 *         web map at the given zoom level.
+	 * @throws IllegalArgumentException
+	 *             if the zoom level is out of range.
+	 */
+	public static double zoomTolerance(int zoom) {
+		checkArgument(zoom >= 0 && zoom <= MAX_ZOOM,
+				"The zoom must be between 0 and %s.", MAX_ZOOM);
+		return 360d / TILE_SIZE / (1L << zoom);
+	}
+
+	/**
+	 * Simplifies the given points, ordered by time, keeping the points which
+	 * deviate from the simplified line by more than the tolerance. The first
+	 * and the last point are always kept. The distances are planar, like
+	 * those of {@code ST_Simplify}.
+	 *
+	 * @param tolerance
+	 *            The tolerance in degrees.
+	 */
+	static PointSeries simplify(List<TimestampedPointDto> points,
+			double tolerance) {
+		PointSeries series = PointSeries.copyOf(points);
+		int size = series.size();
+		if (size < 3) {
+			return series;
+		}
+
+		boolean[] kept = new boolean[size];
+		kept[0] = true;
+		kept[size - 1] = true;
+		int keptCount = 2;
+
+		// The sections left to simplify, as pairs of first and last index.
+		int[] sections = new int[32];
+		int top = 0;
+		sections[top++] = 0;
+		sections[top++] = size - 1;
+		while (top > 0) {
+			int last = sections[--top];
+			int first = sections[--top];
+
+			int farthest = -1;
+			double maxDistance = tolerance;
+			for (int i = first + 1; i < last; i++) {
+				double distance = distance(series, i, first, last);
+				if (distance > maxDistance) {
+					farthest = i;
+					maxDistance = distance;
+				}
+			}
+			if (farthest < 0) {
+				continue;
+			}
+
+			kept[farthest] = true;
+			keptCount++;
+			if (top + 4 > sections.length) {
+				sections = Arrays.copyOf(sections, sections.length * 2);
+			}
+			sections[top++] = first;
+			sections[top++] = farthest;
+			sections[top++] = farthest;
+			sections[top++] = last;
+		}
+
+		PointSeries.Builder result = new PointSeries.Builder(keptCount);
+		for (int i = 0; i < size; i++) {
+			if (kept[i]) {
+				result.add(series.time(i), series.x(i), series.y(i),
+						series.z(i));
+			}
+		}
+		return result.build();
+	}
+
+	/**
+	 * @return The planar distance in degrees of the point at {@code i} from
+	 *         the segment between the points at {@code first} and
+	 *         {@code last}.
+	 */
+	private static double distance(PointSeries series, int i, int first,
+			int last) {
+		double dx = series.x(last) - series.x(first);
+		double dy = series.y(last) - series.y(first);
+		double px = series.x(i) - series.x(first);
+		double py = series.y(i) - series.y(first);
+
+		double lengthSquared = dx * dx + dy * dy;
+		double r = lengthSquared > 0 ? (px * dx + py * dy) / lengthSquared
+				: 0;
+		if (r <= 0) {
+			return Math.hypot(px, py);
+		}
+		if (r >= 1) {
+			return Math.hypot(px - dx, py - dy);
+		}
+		return Math.abs(px * dy - py * dx) / Math.sqrt(lengthSquared);
+	}
+}
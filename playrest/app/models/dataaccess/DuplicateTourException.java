@@ -0,0 +1,18 @@
+package models.dataaccess;
+
+/**
+ * Thrown instead of creating a tour which repeats a tour of the same user,
+ * as recognized by its {@link TrackFingerprint} and its start time. Nothing
+ * is written for the repeated tour.
+ */
+public class DuplicateTourException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/** The ID of the existing tour. */
+	public final int existingId;
+
+	public DuplicateTourException(int existingId) {
+		super("Duplicate of tour " + existingId);
+		this.existingId = existingId;
+	}
+}
@@ -0,0 +1,89 @@
+package models.dataaccess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Encodes WGS84 coordinates as geohashes. A geohash names a cell of a grid
+ * which is refined with each character, so the geohashes of nearby points
+ * usually share a prefix. The encoding is the same as that of the PostGIS
+ * function {@code ST_GeoHash}.
+ */
+class Geohash {
+	/** The number of characters of the geohashes stored on tours. */
+	static final int PRECISION = 12;
+
+	/** The number of bits encoded by each character. */
+	private static final int CHAR_BITS = 5;
+
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz"
+			.toCharArray();
+
+	private Geohash() {
+	}
+
+	/**
+	 * @param lat
+	 *            The latitude in degrees.
+	 * @param lon
+	 *            The longitude in degrees.
+	 * @param precision
+	 *            The number of characters, at most 12.
+	 */
+	static String encode(double lat, double lon, int precision) {
+		checkArgument(precision > 0 && precision <= 12,
+				"Invalid geohash precision: %s", precision);
+
+		long bits = encodeBits(lat, lon, precision * CHAR_BITS);
+		char[] hash = new char[precision];
+		for (int i = precision - 1; i >= 0; i--) {
+			hash[i] = BASE32[(int) (bits & 0x1F)];
+			bits >>>= CHAR_BITS;
+		}
+		return new String(hash);
+	}
+
+	/**
+	 * Encodes the cell of a geohash with the given number of bits as a
+	 * number, without creating the characters.
+	 *
+	 * @param bits
+	 *            The number of bits, at most 60.
+	 * @return The bits of the geohash, the first one being the most
+	 *         significant.
+	 */
+	static long encodeBits(double lat, double lon, int bits) {
+		checkArgument(bits > 0 && bits <= 60, "Invalid geohash bits: %s",
+				bits);
+
+		double minLat = -90;
+		double maxLat = 90;
+		double minLon = -180;
+		double maxLon = 180;
+
+		long hash = 0;
+		// Longitude and latitude bits alternate, starting with longitude.
+		boolean lonBit = true;
+		for (int bit = 0; bit < bits; bit++) {
+			hash <<= 1;
+			if (lonBit) {
+				double mid = (minLon + maxLon) / 2;
+				if (lon >= mid) {
+					hash |= 1;
+					minLon = mid;
+				} else {
+					maxLon = mid;
+				}
+			} else {
+				double mid = (minLat + maxLat) / 2;
+				if (lat >= mid) {
+					hash |= 1;
+					minLat = mid;
+				} else {
+					maxLat = mid;
+				}
+			}
+			lonBit = !lonBit;
+		}
+		return hash;
+	}
+}
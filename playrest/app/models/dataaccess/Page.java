@@ -0,0 +1,30 @@
+package models.dataaccess;
+
+import java.util.List;
+
+import com.google.common.base.Optional;
+
+/**
+ * A page of results of a query ordered by tour ID. The next page is fetched
+ * by repeating the query with {@link #nextAfter} as the ID after which to
+ * start, which is answered from the primary key index regardless of how
+ * many pages precede it.
+ */
+public class Page<T> {
+	public final List<T> items;
+	/**
+	 * The ID of the last tour of this page, or absent if there are no more
+	 * tours.
+	 */
+	public final Optional<Integer> nextAfter;
+
+	Page(List<T> items, Optional<Integer> nextAfter) {
+		this.items = items;
+		this.nextAfter = nextAfter;
+	}
+
+	@Override
+	public String toString() {
+		return "Page [items=" + items + ", nextAfter=" + nextAfter + "]";
+	}
+}
@@ -0,0 +1,230 @@
+package models.dataaccess;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import models.Sport;
+import models.User;
+import play.Configuration;
+import play.Play;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Caches {@link User} and {@link Sport} lookups by name. Names are compared
+ * case-insensitively, in the same way as by the named queries.<br>
+ * Unknown names are cached as well, for a shorter time, so that requests for
+ * a nonexistent user or sport do not reach the database either. The cached
+ * entities are detached copies containing only the ID and the name, so they
+ * can only be used as references, e.g. the user of a new tour.<br>
+ * The caches are configured by the {@code tours.cache.reference.*} keys.
+ */
+public class ReferenceDataCache {
+	private static final String CONFIG_PREFIX = "tours.cache.reference.";
+	private static final String MAX_SIZE_KEY = CONFIG_PREFIX + "maxSize";
+	private static final String EXPIRY_KEY = CONFIG_PREFIX + "expiry";
+	private static final String UNKNOWN_EXPIRY_KEY = CONFIG_PREFIX
+			+ "unknownExpiry";
+
+	private static final long DEFAULT_MAX_SIZE = 10000;
+	private static final long DEFAULT_EXPIRY = TimeUnit.MINUTES.toMillis(10);
+	private static final long DEFAULT_UNKNOWN_EXPIRY = TimeUnit.SECONDS
+			.toMillis(30);
+
+	private static final NameCache<User> USERS = new NameCache<User>() {
+		@Override
+		User load(String username) {
+			User user = User.findByUsername(username);
+			User copy = null;
+			if (user != null) {
+				copy = new User();
+				copy.setId(user.getId());
+				copy.setUsername(user.getUsername());
+			}
+			return copy;
+		}
+	};
+
+	private static final NameCache<Sport> SPORTS = new NameCache<Sport>() {
+		@Override
+		Sport load(String name) {
+			Sport sport = Sport.findByName(name);
+			Sport copy = null;
+			if (sport != null) {
+				copy = new Sport();
+				copy.setId(sport.getId());
+				copy.setName(sport.getName());
+			}
+			return copy;
+		}
+	};
+
+	private ReferenceDataCache() {
+	}
+
+	/**
+	 * Must be called within a JPA transaction, since the user is fetched from
+	 * the database if it is not cached.
+	 *
+	 * @return A detached copy of the user with the given username or
+	 *         {@code null} if not found.
+	 */
+	public static User findUser(String username) {
+		return USERS.find(username);
+	}
+
+	/**
+	 * Must be called within a JPA transaction, since the sport is fetched
+	 * from the database if it is not cached.
+	 *
+	 * @return A detached copy of the sport with the given name or
+	 *         {@code null} if not found.
+	 */
+	public static Sport findSport(String name) {
+		return SPORTS.find(name);
+	}
+
+	/**
+	 * Removes the user with the given username from the cache. Should be
+	 * called whenever such a user is created, renamed or deleted.
+	 */
+	public static void invalidateUser(String username) {
+		USERS.invalidate(username);
+	}
+
+	/**
+	 * Removes the sport with the given name from the cache. Should be called
+	 * whenever such a sport is created, renamed or deleted.
+	 */
+	public static void invalidateSport(String name) {
+		SPORTS.invalidate(name);
+	}
+
+	public static void invalidateAll() {
+		USERS.invalidateAll();
+		SPORTS.invalidateAll();
+	}
+
+	public static Stats userStats() {
+		return USERS.stats();
+	}
+
+	public static Stats sportStats() {
+		return SPORTS.stats();
+	}
+
+	/**
+	 * A snapshot of the counters of a cache.
+	 */
+	public static class Stats {
+		/** Lookups answered from the cache, including unknown names. */
+		@JsonProperty("hits")
+		public final long hits;
+		/** Lookups which went to the database. */
+		@JsonProperty("misses")
+		public final long misses;
+		/** Lookups answered from the cache with "not found". */
+		@JsonProperty("unknownHits")
+		public final long unknownHits;
+		@JsonProperty("evictions")
+		public final long evictions;
+		@JsonProperty("size")
+		public final long size;
+
+		Stats(long hits, long misses, long unknownHits, long evictions,
+				long size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.unknownHits = unknownHits;
+			this.evictions = evictions;
+			this.size = size;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [hits=" + hits + ", misses=" + misses
+					+ ", unknownHits=" + unknownHits + ", evictions="
+					+ evictions + ", size=" + size + "]";
+		}
+	}
+
+	/**
+	 * A cache of entities by case-insensitive name, with a separate cache for
+	 * names which were not found.
+	 */
+	private abstract static class NameCache<T> {
+		private final Cache<String, T> known;
+		private final Cache<String, Boolean> unknown;
+
+		NameCache() {
+			Configuration config = Play.application().configuration();
+			long maxSize = Objects.firstNonNull(config.getLong(MAX_SIZE_KEY),
+					DEFAULT_MAX_SIZE);
+			long expiry = Objects.firstNonNull(
+					config.getMilliseconds(EXPIRY_KEY), DEFAULT_EXPIRY);
+			long unknownExpiry = Objects.firstNonNull(
+					config.getMilliseconds(UNKNOWN_EXPIRY_KEY),
+					DEFAULT_UNKNOWN_EXPIRY);
+
+			known = CacheBuilder.newBuilder().maximumSize(maxSize)
+					.expireAfterWrite(expiry, TimeUnit.MILLISECONDS)
+					.recordStats().<String, T> build();
+			unknown = CacheBuilder.newBuilder().maximumSize(maxSize)
+					.expireAfterWrite(unknownExpiry, TimeUnit.MILLISECONDS)
+					.recordStats().<String, Boolean> build();
+		}
+
+		/**
+		 * @return The entity with the given name or {@code null} if not
+		 *         found.
+		 */
+		abstract T load(String name);
+
+		T find(String name) {
+			String key = key(name);
+			T value = known.getIfPresent(key);
+			if (value == null && unknown.getIfPresent(key) == null) {
+				value = load(name);
+				if (value != null) {
+					known.put(key, value);
+				} else {
+					unknown.put(key, Boolean.TRUE);
+				}
+			}
+			return value;
+		}
+
+		void invalidate(String name) {
+			String key = key(name);
+			known.invalidate(key);
+			unknown.invalidate(key);
+		}
+
+		void invalidateAll() {
+			known.invalidateAll();
+			unknown.invalidateAll();
+		}
+
+		Stats stats() {
+			CacheStats knownStats = known.stats();
+			CacheStats unknownStats = unknown.stats();
+			// Every lookup missing the known entries checks the unknown ones,
+			// so only the misses of the latter go to the database.
+			return new Stats(
+					knownStats.hitCount() + unknownStats.hitCount(),
+					unknownStats.missCount(),
+					unknownStats.hitCount(),
+					knownStats.evictionCount() + unknownStats.evictionCount(),
+					known.size() + unknown.size());
+		}
+
+		private static String key(String name) {
+			return Strings.nullToEmpty(name).toLowerCase(Locale.ROOT);
+		}
+	}
+}
@@ -0,0 +1,493 @@
+package models.dataaccess;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import play.Configuration;
+import play.Logger;
+import play.Logger.ALogger;
+import play.Play;
+import play.db.jpa.JPA;
+import play.libs.F.Function0;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An in-memory index of the start points of all tours, which answers radius
+ * searches with tour IDs without querying the database.<br>
+ * The start points are grouped by the cells of a regular latitude/longitude
+ * grid, {@code tours.index.cellSize} degrees wide, and kept in primitive
+ * arrays. A search only checks the points of the cells overlapping the
+ * bounding box of the search circle, with the same spherical distance as
+ * {@code ST_Distance_Sphere}, and the altitude difference if an altitude is
+ * searched for.<br>
+ * The index is enabled by {@code tours.index.memory}. It is loaded in the
+ * background on startup and updated by {@link TourWriter} whenever a tour is
+ * written, once its transaction commits, and searches go to the database
+ * until it is loaded.
+ */
+public class StartPointIndex {
+	private static final ALogger LOG = Logger.of("application");
+
+	private static final String ENABLED_KEY = "tours.index.memory";
+	private static final String CELL_SIZE_KEY = "tours.index.cellSize";
+	private static final double DEFAULT_CELL_SIZE = 0.1;
+
+	/** The radius of the sphere used by {@code ST_Distance_Sphere}. */
+	static final double EARTH_RADIUS = 6370986;
+
+	private static final String DEFAULT_UNIT = "default";
+	private static final int LOAD_FETCH_SIZE = 10000;
+	// Points without an altitude are indexed at an altitude of 0, like the
+	// two-dimensional points of the summaries.
+	private static final String LOAD = "SELECT tur_id, tur_spt_id, " +
+			"ST_Y(tur_start_point), ST_X(tur_start_point), " +
+			"coalesce(ST_Z(tur_start_point), 0) FROM tour " +
+			"WHERE tur_start_point IS NOT NULL";
+
+	/** The estimated size of a cell in memory, apart from its arrays. */
+	private static final int CELL_OVERHEAD = 150;
+	/**
+	 * The size of an indexed point: the ID, the sport, two doubles and the
+	 * altitude as a float.
+	 */
+	private static final int POINT_BYTES = 4 + 4 + 8 + 8 + 4;
+
+	/** The index being loaded, which already receives new tours. */
+	private static volatile StartPointIndex loading;
+	/** The loaded index. */
+	private static volatile StartPointIndex loaded;
+	private static volatile long loadMillis;
+	private static ExecutorService loader;
+
+	private final double cellSize;
+	private final int lonCells;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<Long, Cell> cells = Maps.newHashMap();
+	private int size;
+
+	StartPointIndex(double cellSize) {
+		this.cellSize = cellSize;
+		this.lonCells = (int) Math.ceil(360 / cellSize);
+	}
+
+	/**
+	 * Starts loading the index in the background if it is enabled in the
+	 * configuration.
+	 */
+	public static synchronized void start() {
+		Configuration config = Play.application().configuration();
+		if (Objects.firstNonNull(config.getBoolean(ENABLED_KEY), false) == false
+				|| loader != null) {
+			return;
+		}
+
+		double cellSize = Objects.firstNonNull(
+				config.getDouble(CELL_SIZE_KEY), DEFAULT_CELL_SIZE);
+		loading = new StartPointIndex(cellSize);
+		loader = Executors.newSingleThreadExecutor();
+		loader.execute(new Runnable() {
+			@Override
+			public void run() {
+				load(loading);
+			}
+		});
+	}
+
+	public static synchronized void stop() {
+		if (loader != null) {
+			loader.shutdownNow();
+			loader = null;
+		}
+		loading = null;
+		loaded = null;
+	}
+
+	/**
+	 * @return The index if it is enabled and loaded, otherwise absent.
+	 */
+	public static Optional<StartPointIndex> current() {
+		return Optional.fromNullable(loaded);
+	}
+
+	/**
+	 * Adds the start point of a new tour to the index, if enabled.
+	 */
+	static void register(int id, int sportId, double lat, double lon,
+			double alt) {
+		StartPointIndex index = loaded != null ? loaded : loading;
+		if (index != null) {
+			index.add(id, sportId, lat, lon, alt);
+		}
+	}
+
+	public static Stats stats() {
+		StartPointIndex index = loaded;
+		if (index == null) {
+			return new Stats(false, 0, 0, 0, 0);
+		}
+		index.lock.readLock().lock();
+		try {
+			return new Stats(true, index.size, index.cells.size(),
+					loadMillis, index.estimatedBytes());
+		} finally {
+			index.lock.readLock().unlock();
+		}
+	}
+
+	private static void load(StartPointIndex index) {
+		long start = System.currentTimeMillis();
+		try {
+			final StartPointIndex target = index;
+			int count = JPA.withTransaction(DEFAULT_UNIT, true,
+					new Function0<Integer>() {
+						@Override
+						public Integer apply() {
+							return loadFrom(JPA.em().unwrap(Session.class),
+									target);
+						}
+					});
+			loadMillis = System.currentTimeMillis() - start;
+
+			synchronized (StartPointIndex.class) {
+				if (loading == index) {
+					loaded = index;
+					loading = null;
+				}
+			}
+			Stats stats = stats();
+			LOG.info("Loaded " + count + " tour start points in "
+					+ loadMillis + " ms, using about "
+					+ stats.estimatedBytes / 1024 + " kB ("
+					+ stats.bytesPerMillionTours / (1024 * 1024)
+					+ " MB per million tours).");
+		} catch (Throwable e) {
+			LOG.error("While loading the start point index.", e);
+		}
+	}
+
+	private static int loadFrom(Session session, StartPointIndex index) {
+		ScrollableResults results = session.createSQLQuery(LOAD)
+				.setFetchSize(LOAD_FETCH_SIZE).setReadOnly(true)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		int count = 0;
+		try {
+			while (results.next()) {
+				Object[] row = results.get();
+				index.add(((Number) row[0]).intValue(),
+						((Number) row[1]).intValue(),
+						((Number) row[2]).doubleValue(),
+						((Number) row[3]).doubleValue(),
+						((Number) row[4]).doubleValue());
+				count++;
+			}
+		} finally {
+			results.close();
+		}
+		return count;
+	}
+
+	void add(int id, int sportId, double lat, double lon, double alt) {
+		long key = key(latCell(lat), lonCell(lon));
+		lock.writeLock().lock();
+		try {
+			Cell cell = cells.get(key);
+			if (cell == null) {
+				cell = new Cell();
+				cells.put(key, cell);
+			}
+			cell.add(id, sportId, lat, lon, alt);
+			size++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the tours with start points within {@code radius} metres of
+	 * ({@code lat, lon, alt}), in the same way as the radius queries.
+	 * 
+	 * @param alt
+	 *            The optional altitude. If absent, only the distance on the
+	 *            sphere counts.
+	 * @param sportId
+	 *            The optional ID of the sport of the tours.
+	 * @param afterId
+	 *            Only tours with a greater ID are returned.
+	 * @param limit
+	 *            The maximum number of tours returned.
+	 * @return A page of tour IDs in ascending order.
+	 */
+	Page<Integer> find(double lat, double lon, Optional<Double> alt,
+			double radius, Optional<Integer> sportId, int afterId, int limit) {
+		final int[][] matches = { new int[16] };
+		final int[] matchCount = { 0 };
+		scan(lat, lon, alt, radius, sportId, afterId, new Visitor() {
+			@Override
+			public void visit(int id, double distance) {
+				if (matchCount[0] == matches[0].length) {
+					matches[0] = Arrays.copyOf(matches[0], matchCount[0] * 2);
+				}
+				matches[0][matchCount[0]++] = id;
+			}
+		});
+
+		int[] ids = matches[0];
+		Arrays.sort(ids, 0, matchCount[0]);
+		List<Integer> page = Lists.newArrayListWithCapacity(Math.min(
+				matchCount[0], limit));
+		Optional<Integer> nextAfter = Optional.absent();
+		for (int i = 0; i < matchCount[0]; i++) {
+			// A tour may be both loaded and added while loading.
+			if (i > 0 && ids[i] == ids[i - 1]) {
+				continue;
+			}
+			if (page.size() == limit) {
+				nextAfter = Optional.of(page.get(limit - 1));
+				break;
+			}
+			page.add(ids[i]);
+		}
+		return new Page<Integer>(page, nextAfter);
+	}
+
+	/**
+	 * Finds the {@code k} tours with the start points closest to (
+	 * {@code lat, lon}). The search radius starts at the size of a cell and is
+	 * doubled until at least {@code k} tours are found.
+	 * 
+	 * @param sportId
+	 *            The optional ID of the sport of the tours.
+	 * @return The tours ordered by distance.
+	 */
+	List<TourDistance> nearest(double lat, double lon,
+			Optional<Integer> sportId, int k) {
+		final List<TourDistance> matches = Lists.newArrayList();
+		double radius = Math.toRadians(cellSize) * EARTH_RADIUS;
+		while (true) {
+			matches.clear();
+			scan(lat, lon, Optional.<Double> absent(), radius, sportId, 0,
+					new Visitor() {
+						@Override
+						public void visit(int id, double distance) {
+							matches.add(new TourDistance(id, distance));
+						}
+					});
+			// No point is further away than half the circumference.
+			if (matches.size() >= k || radius > Math.PI * EARTH_RADIUS) {
+				break;
+			}
+			radius *= 2;
+		}
+
+		List<TourDistance> nearest = Lists.newArrayListWithCapacity(k);
+		for (TourDistance match : TourDistance.BY_DISTANCE.sortedCopy(matches)) {
+			if (nearest.size() == k) {
+				break;
+			}
+			// A tour may be both loaded and added while loading.
+			if (nearest.isEmpty()
+					|| nearest.get(nearest.size() - 1).id != match.id) {
+				nearest.add(match);
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Passes each tour with a start point within {@code radius} metres of (
+	 * {@code lat, lon, alt}) to the visitor, along with the distance on the
+	 * sphere.
+	 */
+	private void scan(double lat, double lon, Optional<Double> alt,
+			double radius, Optional<Integer> sportId, int afterId,
+			Visitor visitor) {
+		double latDelta = Math.toDegrees(radius / EARTH_RADIUS);
+		int minLatCell = latCell(Math.max(lat - latDelta, -90));
+		int maxLatCell = latCell(Math.min(lat + latDelta, 90));
+
+		// The longitude span of the circle is widest at the latitude
+		// closest to a pole.
+		double maxLat = Math.min(Math.abs(lat) + latDelta, 90);
+		double lonDelta = latDelta / Math.cos(Math.toRadians(maxLat));
+		int minLonCell;
+		int lonCellCount;
+		if (maxLat >= 90 || lonDelta >= 180) {
+			minLonCell = 0;
+			lonCellCount = lonCells;
+		} else {
+			minLonCell = lonCell(lon - lonDelta);
+			lonCellCount = Math.min(lonCell(lon + lonDelta) - minLonCell + 1,
+					lonCells);
+		}
+
+		lock.readLock().lock();
+		try {
+			for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+				for (int i = 0; i < lonCellCount; i++) {
+					int lonCell = ((minLonCell + i) % lonCells + lonCells)
+							% lonCells;
+					Cell cell = cells.get(key(latCell, lonCell));
+					if (cell == null) {
+						continue;
+					}
+					for (int p = 0; p < cell.size; p++) {
+						if (cell.ids[p] <= afterId
+								|| (sportId.isPresent() && cell.sportIds[p] != sportId
+										.get())) {
+							continue;
+						}
+						double distance = distance(lat, lon, cell.lats[p],
+								cell.lons[p]);
+						if (distance < radius
+								&& (alt.isPresent() == false || distance3d(distance,
+										alt.get() - cell.alts[p]) < radius)) {
+							visitor.visit(cell.ids[p], distance);
+						}
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Receives the tours found by a scan of the index.
+	 */
+	private interface Visitor {
+		void visit(int id, double distance);
+	}
+
+	/**
+	 * @return The great-circle distance in metres between two points on the
+	 *         sphere used by {@code ST_Distance_Sphere}.
+	 */
+	static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+		double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+		double a = sinLat * sinLat
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+				* sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * @return The distance in metres given the distance on the sphere and the
+	 *         altitude difference, as used by the radius queries.
+	 */
+	static double distance3d(double distance, double altDelta) {
+		return Math.sqrt(distance * distance + altDelta * altDelta);
+	}
+
+	int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock.
+	 */
+	private long estimatedBytes() {
+		long bytes = 0;
+		for (Cell cell : cells.values()) {
+			bytes += CELL_OVERHEAD + (long) cell.ids.length * POINT_BYTES;
+		}
+		return bytes;
+	}
+
+	private int latCell(double lat) {
+		return (int) Math.floor((lat + 90) / cellSize);
+	}
+
+	private int lonCell(double lon) {
+		return (int) Math.floor((lon + 180) / cellSize);
+	}
+
+	private static long key(int latCell, int lonCell) {
+		return ((long) latCell << 32) | (lonCell & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * The start points in a cell of the grid.
+	 */
+	private static class Cell {
+		private int[] ids = new int[4];
+		private int[] sportIds = new int[4];
+		private double[] lats = new double[4];
+		private double[] lons = new double[4];
+		private float[] alts = new float[4];
+		private int size;
+
+		void add(int id, int sportId, double lat, double lon, double alt) {
+			if (size == ids.length) {
+				int capacity = size * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				sportIds = Arrays.copyOf(sportIds, capacity);
+				lats = Arrays.copyOf(lats, capacity);
+				lons = Arrays.copyOf(lons, capacity);
+				alts = Arrays.copyOf(alts, capacity);
+			}
+			ids[size] = id;
+			sportIds[size] = sportId;
+			lats[size] = lat;
+			lons[size] = lon;
+			alts[size] = (float) alt;
+			size++;
+		}
+	}
+
+	/**
+	 * A snapshot of the size of the index.
+	 */
+	public static class Stats {
+		/** Whether the index is loaded and used for radius searches. */
+		@JsonProperty("ready")
+		public final boolean ready;
+		@JsonProperty("size")
+		public final int size;
+		@JsonProperty("cells")
+		public final int cells;
+		@JsonProperty("loadMillis")
+		public final long loadMillis;
+		@JsonProperty("estimatedBytes")
+		public final long estimatedBytes;
+		@JsonProperty("bytesPerMillionTours")
+		public final long bytesPerMillionTours;
+
+		Stats(boolean ready, int size, int cells, long loadMillis,
+				long estimatedBytes) {
+			this.ready = ready;
+			this.size = size;
+			this.cells = cells;
+			this.loadMillis = loadMillis;
+			this.estimatedBytes = estimatedBytes;
+			this.bytesPerMillionTours = size > 0 ? estimatedBytes * 1000000
+					/ size : 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [ready=" + ready + ", size=" + size + ", cells="
+					+ cells + ", loadMillis=" + loadMillis
+					+ ", estimatedBytes=" + estimatedBytes + "]";
+		}
+	}
+}
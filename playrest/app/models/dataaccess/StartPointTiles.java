@@ -0,0 +1,453 @@
+package models.dataaccess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import play.Configuration;
+import play.Logger;
+import play.Logger.ALogger;
+import play.Play;
+import play.db.jpa.JPA;
+import play.libs.F.Function0;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * In-memory counts of the tour start points per cell of the web map tiles,
+ * overall and per sport, for density maps.<br>
+ * Each start point is counted under the Morton code of its pixel at
+ * {@link #BASE_ZOOM} in the web Mercator projection. Since the code of a
+ * pixel starts with the codes of the tiles containing it, the points of any
+ * tile form a range of codes. The codes are kept sorted along with the
+ * cumulative counts, so that the count of a cell takes two binary searches
+ * regardless of the number of tours. New tours are counted in a small sorted
+ * map which is merged into the arrays once it grows.<br>
+ * The counts are enabled by {@code tours.tiles.enabled}. They are loaded in
+ * the background on startup and updated by {@link TourWriter} whenever a
+ * tour is written, once its transaction commits.
+ */
+public class StartPointTiles {
+	private static final ALogger LOG = Logger.of("application");
+
+	private static final String ENABLED_KEY = "tours.tiles.enabled";
+	private static final String GRID_BITS_KEY = "tours.tiles.gridBits";
+	private static final int DEFAULT_GRID_BITS = 5;
+
+	/** The zoom level of the pixels by which the start points are counted. */
+	static final int BASE_ZOOM = 24;
+	/** The latitude limit of the web Mercator projection. */
+	private static final double MAX_LAT = 85.05112878;
+	/** The number of new cells counted before they are merged. */
+	private static final int MERGE_THRESHOLD = 4096;
+
+	private static final String DEFAULT_UNIT = "default";
+	private static final int LOAD_FETCH_SIZE = 10000;
+	private static final String LOAD = "SELECT tur_id, tur_spt_id, " +
+			"ST_Y(tur_start_point), ST_X(tur_start_point) FROM tour " +
+			"WHERE tur_start_point IS NOT NULL";
+
+	private static volatile StartPointTiles loading;
+	private static volatile StartPointTiles loaded;
+	private static ExecutorService loader;
+
+	private final int gridBits;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Counts all = new Counts();
+	private final Map<Integer, Counts> bySport = Maps.newHashMap();
+	/** The tours added while loading, which the loading must skip. */
+	private Set<Integer> added = Sets.newHashSet();
+
+	StartPointTiles(int gridBits) {
+		checkArgument(gridBits >= 0 && gridBits <= BASE_ZOOM,
+				"Invalid grid bits: %s", gridBits);
+		this.gridBits = gridBits;
+	}
+
+	/**
+	 * Starts loading the counts in the background if they are enabled in the
+	 * configuration.
+	 */
+	public static synchronized void start() {
+		Configuration config = Play.application().configuration();
+		if (Objects.firstNonNull(config.getBoolean(ENABLED_KEY), false) == false
+				|| loader != null) {
+			return;
+		}
+
+		loading = new StartPointTiles(Objects.firstNonNull(
+				config.getInt(GRID_BITS_KEY), DEFAULT_GRID_BITS));
+		loader = Executors.newSingleThreadExecutor();
+		loader.execute(new Runnable() {
+			@Override
+			public void run() {
+				load(loading);
+			}
+		});
+	}
+
+	public static synchronized void stop() {
+		if (loader != null) {
+			loader.shutdownNow();
+			loader = null;
+		}
+		loading = null;
+		loaded = null;
+	}
+
+	/**
+	 * @return The counts if they are enabled and loaded, otherwise absent.
+	 */
+	public static Optional<StartPointTiles> current() {
+		return Optional.fromNullable(loaded);
+	}
+
+	/**
+	 * Counts the start point of a new tour, if enabled.
+	 */
+	static void register(int id, int sportId, double lat, double lon) {
+		StartPointTiles tiles = loaded != null ? loaded : loading;
+		if (tiles != null) {
+			tiles.add(id, sportId, lat, lon);
+		}
+	}
+
+	private static void load(StartPointTiles tiles) {
+		long start = System.currentTimeMillis();
+		try {
+			final StartPointTiles target = tiles;
+			int count = JPA.withTransaction(DEFAULT_UNIT, true,
+					new Function0<Integer>() {
+						@Override
+						public Integer apply() {
+							return loadFrom(JPA.em().unwrap(Session.class),
+									target);
+						}
+					});
+
+			synchronized (StartPointTiles.class) {
+				if (loading == tiles) {
+					loaded = tiles;
+					loading = null;
+				}
+			}
+			LOG.info("Counted " + count + " tour start points for tiles in "
+					+ (System.currentTimeMillis() - start) + " ms.");
+		} catch (Throwable e) {
+			LOG.error("While loading the start point tiles.", e);
+		}
+	}
+
+	private static int loadFrom(Session session, StartPointTiles tiles) {
+		ScrollableResults results = session.createSQLQuery(LOAD)
+				.setFetchSize(LOAD_FETCH_SIZE).setReadOnly(true)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		Codes all = new Codes();
+		Map<Integer, Codes> bySport = Maps.newHashMap();
+		try {
+			while (results.next()) {
+				Object[] row = results.get();
+				// A tour committed while loading may be both added and
+				// loaded.
+				if (tiles.wasAdded(((Number) row[0]).intValue())) {
+					continue;
+				}
+				int sportId = ((Number) row[1]).intValue();
+				long code = code(((Number) row[2]).doubleValue(),
+						((Number) row[3]).doubleValue());
+				all.add(code);
+				Codes sportCodes = bySport.get(sportId);
+				if (sportCodes == null) {
+					sportCodes = new Codes();
+					bySport.put(sportId, sportCodes);
+				}
+				sportCodes.add(code);
+			}
+		} finally {
+			results.close();
+		}
+		tiles.addAll(all, bySport);
+		return all.size;
+	}
+
+	void add(int id, int sportId, double lat, double lon) {
+		long code = code(lat, lon);
+		lock.writeLock().lock();
+		try {
+			if (added != null) {
+				added.add(id);
+			}
+			all.add(code);
+			Counts counts = bySport.get(sportId);
+			if (counts == null) {
+				counts = new Counts();
+				bySport.put(sportId, counts);
+			}
+			counts.add(code);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of start points in each cell of the grid of the
+	 *         given tile, with {@code 2^gridBits} rows and columns, row by row
+	 *         from the north-west.
+	 * @throws IllegalArgumentException
+	 *             if the tile does not exist or is too detailed.
+	 */
+	int[] count(int zoom, int x, int y, Optional<Integer> sportId) {
+		checkTile(zoom, x, y);
+
+		int gridSize = 1 << gridBits;
+		int[] counts = new int[gridSize * gridSize];
+		// The number of bits of the codes of the pixels within a cell.
+		int cellBits = 2 * (BASE_ZOOM - zoom - gridBits);
+
+		lock.readLock().lock();
+		try {
+			Counts source = sportId.isPresent() ? bySport.get(sportId.get())
+					: all;
+			if (source == null) {
+				return counts;
+			}
+			long tileCode = interleave(x, y) << 2 * gridBits;
+			if (source.count(tileCode << cellBits,
+					(tileCode + counts.length) << cellBits) == 0) {
+				return counts;
+			}
+
+			for (int row = 0; row < gridSize; row++) {
+				for (int col = 0; col < gridSize; col++) {
+					long cellCode = tileCode | interleave(col, row);
+					counts[row * gridSize + col] = source.count(
+							cellCode << cellBits, (cellCode + 1) << cellBits);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return counts;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the tile does not exist or is too detailed.
+	 */
+	void checkTile(int zoom, int x, int y) {
+		checkArgument(zoom >= 0 && zoom <= maxZoom(),
+				"The zoom must be between 0 and %s.", maxZoom());
+		checkArgument(x >= 0 && x < 1 << zoom && y >= 0 && y < 1 << zoom,
+				"No tile %s/%s/%s.", zoom, x, y);
+	}
+
+	int gridBits() {
+		return gridBits;
+	}
+
+	/**
+	 * @return The greatest zoom level for which tiles can be counted.
+	 */
+	int maxZoom() {
+		return BASE_ZOOM - gridBits;
+	}
+
+	private boolean wasAdded(int id) {
+		lock.readLock().lock();
+		try {
+			return added.contains(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the start points loaded from the database, after which the tours
+	 * added are no longer tracked.
+	 */
+	private void addAll(Codes loadedAll, Map<Integer, Codes> loadedBySport) {
+		lock.writeLock().lock();
+		try {
+			all.addAll(loadedAll);
+			for (Map.Entry<Integer, Codes> entry : loadedBySport.entrySet()) {
+				Counts counts = bySport.get(entry.getKey());
+				if (counts == null) {
+					counts = new Counts();
+					bySport.put(entry.getKey(), counts);
+				}
+				counts.addAll(entry.getValue());
+			}
+			added = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The Morton code of the pixel at {@link #BASE_ZOOM} containing
+	 *         the given point in the web Mercator projection.
+	 */
+	static long code(double lat, double lon) {
+		double clampedLat = Math.max(-MAX_LAT, Math.min(MAX_LAT, lat));
+		double sinLat = Math.sin(Math.toRadians(clampedLat));
+		double x = (lon + 180) / 360;
+		double y = 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+		return interleave(pixel(x), pixel(y));
+	}
+
+	private static int pixel(double position) {
+		int pixels = 1 << BASE_ZOOM;
+		return Math.max(0, Math.min(pixels - 1, (int) Math.floor(position
+				* pixels)));
+	}
+
+	/**
+	 * @return The bits of {@code x} and {@code y} interleaved, with the bits
+	 *         of {@code x} at even positions.
+	 */
+	static long interleave(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	private static long spread(int value) {
+		long v = value & 0xFFFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	/**
+	 * The numbers of start points by code, as sorted arrays of the distinct
+	 * codes and of the cumulative counts, along with the recently added
+	 * codes.
+	 */
+	private static class Counts {
+		private long[] codes = new long[0];
+		/** The number of start points with a code less than each code. */
+		private int[] cumulative = { 0 };
+		private final NavigableMap<Long, Integer> recent = new TreeMap<Long, Integer>();
+
+		void add(long code) {
+			Integer count = recent.get(code);
+			recent.put(code, count == null ? 1 : count + 1);
+			if (recent.size() >= MERGE_THRESHOLD) {
+				long[] recentCodes = new long[recent.size()];
+				int[] recentCounts = new int[recent.size()];
+				int i = 0;
+				for (Map.Entry<Long, Integer> entry : recent.entrySet()) {
+					recentCodes[i] = entry.getKey();
+					recentCounts[i] = entry.getValue();
+					i++;
+				}
+				merge(recentCodes, recentCounts, i);
+				recent.clear();
+			}
+		}
+
+		void addAll(Codes added) {
+			long[] sorted = Arrays.copyOf(added.codes, added.size);
+			Arrays.sort(sorted);
+			// Sorted codes, counted by distinct code in place.
+			int[] counts = new int[sorted.length];
+			int distinct = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				if (distinct > 0 && sorted[distinct - 1] == sorted[i]) {
+					counts[distinct - 1]++;
+				} else {
+					sorted[distinct] = sorted[i];
+					counts[distinct] = 1;
+					distinct++;
+				}
+			}
+			merge(sorted, counts, distinct);
+		}
+
+		/**
+		 * Merges the given distinct codes in ascending order with their
+		 * counts into the arrays.
+		 */
+		private void merge(long[] addedCodes, int[] addedCounts, int length) {
+			long[] mergedCodes = new long[codes.length + length];
+			int[] mergedCumulative = new int[mergedCodes.length + 1];
+			int i = 0;
+			int j = 0;
+			int k = 0;
+			while (i < codes.length || j < length) {
+				long code;
+				int count = 0;
+				if (j == length
+						|| (i < codes.length && codes[i] <= addedCodes[j])) {
+					code = codes[i];
+				} else {
+					code = addedCodes[j];
+				}
+				if (i < codes.length && codes[i] == code) {
+					count += cumulative[i + 1] - cumulative[i];
+					i++;
+				}
+				if (j < length && addedCodes[j] == code) {
+					count += addedCounts[j];
+					j++;
+				}
+				mergedCodes[k] = code;
+				mergedCumulative[k + 1] = mergedCumulative[k] + count;
+				k++;
+			}
+			codes = Arrays.copyOf(mergedCodes, k);
+			cumulative = Arrays.copyOf(mergedCumulative, k + 1);
+		}
+
+		/**
+		 * @return The number of start points with a code from {@code from}
+		 *         (inclusive) to {@code to} (exclusive).
+		 */
+		int count(long from, long to) {
+			int count = cumulative[indexOf(to)] - cumulative[indexOf(from)];
+			for (int recentCount : recent.subMap(from, to).values()) {
+				count += recentCount;
+			}
+			return count;
+		}
+
+		/**
+		 * @return The index of the first code not less than the given one.
+		 */
+		private int indexOf(long code) {
+			int index = Arrays.binarySearch(codes, code);
+			return index >= 0 ? index : -index - 1;
+		}
+	}
+
+	/**
+	 * A growing array of codes.
+	 */
+	private static class Codes {
+		private long[] codes = new long[16];
+		private int size;
+
+		void add(long code) {
+			if (size == codes.length) {
+				codes = Arrays.copyOf(codes, size * 2);
+			}
+			codes[size++] = code;
+		}
+	}
+}
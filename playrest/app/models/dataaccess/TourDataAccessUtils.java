@@ -2,30 +2,60 @@ package models.dataaccess;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-import java.util.Collection;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 import models.Sport;
 import models.TimestampedPoint;
 import models.Tour;
 import models.User;
+import models.dtos.PointSeries;
+import models.dtos.TileDto;
 import models.dtos.TimestampedPointDto;
+import models.dtos.TourCreationResultDto;
 import models.dtos.TourDto;
+import models.dtos.TourStatsDto;
+import models.dtos.TourSummaryDto;
 import play.Logger;
 import play.Logger.ALogger;
+import play.Play;
 import play.db.jpa.JPA;
+import play.libs.F.Callback;
+import play.libs.F.Function;
 import play.libs.F.Function0;
 import play.libs.F.Promise;
+import play.libs.F.Tuple;
+import utils.JsonHelper;
+import utils.JsonHelper.TourHandler;
+import utils.JsonHelper.ToursHandler;
+import utils.WireFormat;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * Provides static data access methods for handling {@link Tour} objects.
@@ -34,143 +64,275 @@ public class TourDataAccessUtils {
 	private static final ALogger LOG = Logger.of("application");
 
 	private static final GeometryFactory GEO_FACTORY = new GeometryFactory();
-	private static final int SRID = 4326;
+
+	static final int SRID = 4326;
+
+	private static final int WKB_POINT = 1;
+	private static final int WKB_LINE_STRING = 2;
 
 	private static final String USER_PARAM = "user";
 	private static final String SPORT_PARAM = "sport";
 
 	private static final String START_POINT_PARAM = "startpoint";
 	private static final String RADIUS_PARAM = "radius";
+	private static final String SEARCH_RADIUS_PARAM = "searchradius";
+	private static final String USE_ALT_PARAM = "usealt";
+	private static final String AREA_PARAM = "area";
+	private static final String USE_STATS_PARAM = "usestats";
+	private static final String MIN_DISTANCE_PARAM = "mindistance";
+	private static final String MAX_DISTANCE_PARAM = "maxdistance";
+	private static final String MIN_DURATION_PARAM = "minduration";
+	private static final String MAX_DURATION_PARAM = "maxduration";
+
+	/**
+	 * The factor by which the radius of the indexed {@code ST_DWithin}
+	 * prefilter exceeds the requested radius. {@code ST_DWithin} measures on
+	 * a sphere of radius 6371008.8 m, while {@code ST_Distance_Sphere} uses
+	 * 6370986 m, so its distances are up to 4e-6 shorter. The margin covers
+	 * that difference and rounding, so that the prefilter never drops a start
+	 * point matched by the exact filter.
+	 */
+	private static final double SEARCH_RADIUS_FACTOR = 1.0001;
+
+	/**
+	 * Added to the distance of the furthest of the nearest tour candidates,
+	 * so that the radius filter, which excludes its radius, includes it.
+	 */
+	private static final double DISTANCE_TOLERANCE = 1e-6;
 
 	// Named queries defined on the Tour entity.
-	private static final String USER_QUERY = "findTourByUsername";
-	private static final String SPORT_QUERY = "findTourBySport";
 	private static final String RADIUS_QUERY = "findTourByRadius";
 	private static final String RADIUS_SPORT_QUERY = "findTourByRadiusAndSport";
+	private static final String AREA_QUERY = "findTourByArea";
+	private static final String AREA_SPORT_QUERY = "findTourByAreaAndSport";
+	private static final String IDS_QUERY = "findTourByIds";
+	private static final String DETAILS_QUERY = "findTourDetails";
+	private static final String USER_IDS_QUERY = "findTourIdsByUsername";
+	private static final String SPORT_IDS_QUERY = "findTourIdsBySport";
+	private static final String NEAREST_QUERY = "findNearestTours";
+	private static final String NEAREST_SPORT_QUERY = "findNearestToursBySport";
+	private static final String DISTANCE_RADIUS_QUERY =
+			"findTourDistancesByRadius";
+	private static final String DISTANCE_RADIUS_SPORT_QUERY =
+			"findTourDistancesByRadiusAndSport";
+	private static final String SUMMARY_ID_QUERY = "findTourSummaryById";
+	private static final String SUMMARY_IDS_QUERY = "findTourSummaryByIds";
+	private static final String SUMMARY_USER_QUERY = "findTourSummaryByUsername";
+	private static final String SUMMARY_SPORT_QUERY = "findTourSummaryBySport";
+	private static final String SUMMARY_RADIUS_QUERY = "findTourSummaryByRadius";
+	private static final String SUMMARY_AREA_QUERY = "findTourSummaryByArea";
+	private static final String SUMMARY_AREA_SPORT_QUERY =
+			"findTourSummaryByAreaAndSport";
+	private static final String SUMMARY_RADIUS_SPORT_QUERY =
+			"findTourSummaryByRadiusAndSport";
+
+	private static final String ID_PARAM = "id";
+	private static final String IDS_PARAM = "ids";
+	private static final String AFTER_PARAM = "after";
+	private static final String TOLERANCE_PARAM = "tolerance";
+
+	private static final String DEFAULT_UNIT = "default";
+
+	private static final String STREAM_GROUP_SIZE_KEY = "tours.stream.groupSize";
+	private static final int DEFAULT_STREAM_GROUP_SIZE = 50;
 
 	/**
-	 * Creates a new tour database entry.
+	 * Creates a new tour database entry from a file in the given format. The
+	 * file is read twice as a stream: first to recognize a duplicate tour
+	 * before anything is written, then to write the points as they are read.
+	 * The points are kept encoded until the tour is finished and then decoded
+	 * at once, as described in {@link TourWriter}, so the memory used grows
+	 * with the number of points and is bounded by the size of the file.
 	 * 
 	 * @return The database ID of the new tour entry.
-	 * @throws IllegalArgumentException
-	 *             if the user or the sport declared in the given DTO were not
-	 *             found.
+	 * @throws DuplicateTourException
+	 *             if the user already has the same tour.
+	 * @see JsonHelper#readTour(InputStream, WireFormat, TourHandler)
 	 */
-	public static Promise<Integer> create(final TourDto tourDto) {
+	public static Promise<Integer> create(final File file,
+			final WireFormat format) {
 		return Promise.promise(new Function0<Integer>() {
 			@Override
 			public Integer apply() throws Throwable {
-				Tour tour = toEntity(tourDto);
-				JPA.em().persist(tour);
-				return tour.getId();
+				final FingerprintingTourHandler first =
+						new FingerprintingTourHandler();
+				InputStream in = new FileInputStream(file);
+				try {
+					JsonHelper.readTour(in, format, first);
+				} finally {
+					in.close();
+				}
+				final PointSeries points = first.points();
+
+				Integer id = JPA.withTransaction(new Function0<Integer>() {
+					@Override
+					public Integer apply() throws Throwable {
+						User user = TourWriter.findUser(first.username);
+						Sport sport = TourWriter.findSport(first.sportName);
+						Optional<Integer> duplicate = TourWriter.findDuplicate(
+								user.getId(), TrackFingerprint.of(points),
+								points.time(0));
+						if (duplicate.isPresent()) {
+							throw new DuplicateTourException(duplicate.get());
+						}
+
+						WritingTourHandler handler = new WritingTourHandler(
+								new TourWriter(user, sport));
+						InputStream in = new FileInputStream(file);
+						try {
+							JsonHelper.readTour(in, format, handler);
+						} finally {
+							in.close();
+						}
+						return handler.writer.finish();
+					}
+				});
+				return id;
 			}
 		});
-
 	}
 
 	/**
-	 * @return A single {@link TourDto} with the provided ID or {@code null} if
-	 *         not found.
+	 * Creates tour database entries from a JSON stream of tours. The tours are
+	 * persisted in batches of {@code batchSize}, each batch in its own
+	 * transaction. Users and sports are fetched through the
+	 * {@link ReferenceDataCache}.
+	 * 
+	 * @return The outcome of creating each tour, in the order of the tours in
+	 *         the stream. A tour which the user already has is not written
+	 *         but reported as a duplicate of the existing tour. If a batch
+	 *         fails as a whole, all of its tours are reported as failed. If
+	 *         the stream is not well-formed, the last element describes the
+	 *         error.
+	 * @see JsonHelper#readTours(InputStream, ToursHandler)
 	 */
-	public static Promise<TourDto> findById(final int id) {
-		return Promise.promise(new Function0<TourDto>() {
+	public static Promise<List<TourCreationResultDto>> createAll(
+			final InputStream json, final int batchSize) {
+		checkArgument(batchSize > 0, "Invalid batch size: %s", batchSize);
+		return Promise.promise(new Function0<List<TourCreationResultDto>>() {
 			@Override
-			public TourDto apply() throws Throwable {
-				Tour tour = JPA.em().find(Tour.class, id);
-				TourDto tourDto;
-				if (tour != null) {
-					tourDto = toDto(tour);
-				} else {
-					tourDto = null;
+			public List<TourCreationResultDto> apply() throws Throwable {
+				BatchTourHandler handler = new BatchTourHandler(batchSize);
+				try {
+					JsonHelper.readTours(json, handler);
+				} catch (JsonProcessingException e) {
+					LOG.info("Error parsing JSON batch.", e);
+					handler.flush();
+					handler.results.add(TourCreationResultDto.failed(e
+							.getOriginalMessage()));
 				}
-				return tourDto;
+				handler.flush();
+				return handler.results;
 			}
 		});
-
 	}
 
 	/**
-	 * @return A list of tours belonging to the user with the specified
-	 *         {@code username}. If none are found, an empty list is returned.
+	 * @return A single {@link TourDto} with the provided ID or {@code null} if
+	 *         not found.
 	 */
-	public static Promise<List<TourDto>> findByUsername(final String username) {
-
-		return Promise.promise(new Function0<List<TourDto>>() {
+	public static Promise<TourDto> findById(final int id) {
+		return findById(id, Optional.<Double> absent());
+	}
 
+	/**
+	 * @param tolerance
+	 *            If present, the points of the tour are those of its stored
+	 *            simplified track with the greatest tolerance not exceeding
+	 *            the given one, in degrees. If there is none, all points are
+	 *            returned.
+	 * @return A single {@link TourDto} with the provided ID or {@code null} if
+	 *         not found.
+	 * @see DetailLevels
+	 */
+	public static Promise<TourDto> findById(final int id,
+			final Optional<Double> tolerance) {
+		return Promise.promise(new Function0<TourDto>() {
 			@Override
-			public List<TourDto> apply() throws Throwable {
-
-				List<TourDto> dtos = JPA
-						.withTransaction(new Function0<List<TourDto>>() {
-
+			public TourDto apply() throws Throwable {
+				return JPA.withTransaction(DEFAULT_UNIT, true,
+						new Function0<TourDto>() {
 							@Override
-							public List<TourDto> apply() throws Throwable {
-								LOG.debug("Fetching tours for username: "
-										+ username);
-								Query q = JPA.em().createNamedQuery(USER_QUERY);
-								q.setParameter(USER_PARAM, username);
-
-								long start = System.currentTimeMillis();
-								@SuppressWarnings("unchecked")
-								List<Tour> tours = q.getResultList();
-								long duration = System.currentTimeMillis()
-										- start;
-								LOG.debug("Fetched " + tours.size()
-										+ " tours in " + duration + " ms.");
-
-								List<TourDto> tourDtos = toDtos(tours);
-								return tourDtos;
+							public TourDto apply() {
+								Tour tour = JPA.em().find(Tour.class, id);
+								TourDto tourDto;
+								if (tour != null) {
+									Map<Integer, byte[]> details = findDetails(
+											Collections.singletonList(id),
+											tolerance);
+									tourDto = toDto(tour, details.get(id));
+								} else {
+									tourDto = null;
+								}
+								return tourDto;
 							}
 						});
-				return dtos;
 			}
-
 		});
 
 	}
 
 	/**
-	 * @return A list of tours created for the specified {@code sport}. If none
-	 *         are found, an empty list is returned.
+	 * @return The summary of the tour with the provided ID or {@code null} if
+	 *         not found.
 	 */
-	public static Promise<List<TourDto>> findBySportName(final String sport) {
-
-		return Promise.promise(new Function0<List<TourDto>>() {
-
+	public static Promise<TourSummaryDto> findSummaryById(final int id) {
+		return Promise.promise(new Function0<TourSummaryDto>() {
 			@Override
-			public List<TourDto> apply() throws Throwable {
-
-				List<TourDto> dtos = JPA
-						.withTransaction(new Function0<List<TourDto>>() {
+			public TourSummaryDto apply() throws Throwable {
+				return JPA.withTransaction(new Function0<TourSummaryDto>() {
+					@Override
+					public TourSummaryDto apply() {
+						Query q = JPA.em().createNamedQuery(SUMMARY_ID_QUERY);
+						q.setParameter(ID_PARAM, id);
 
-							@Override
-							public List<TourDto> apply() throws Throwable {
-								LOG.debug("Fetching tours for sport: " + sport);
-								Query q = JPA.em()
-										.createNamedQuery(SPORT_QUERY);
-								q.setParameter(SPORT_PARAM, sport);
-
-								long start = System.currentTimeMillis();
-								@SuppressWarnings("unchecked")
-								List<Tour> tours = q.getResultList();
-								long duration = System.currentTimeMillis()
-										- start;
-								LOG.debug("Fetched " + tours.size()
-										+ " tours in " + duration + " ms.");
-
-								List<TourDto> tourDtos = toDtos(tours);
-								return tourDtos;
-							}
-						});
-				return dtos;
+						@SuppressWarnings("unchecked")
+						List<Object[]> rows = q.getResultList();
+						TourSummaryDto summary;
+						if (rows.isEmpty() == false) {
+							summary = toSummary(rows.get(0));
+						} else {
+							summary = null;
+						}
+						return summary;
+					}
+				});
 			}
 		});
+	}
+
+	/**
+	 * Finds the summaries of the tours of the user with the given
+	 * {@code username} matching the given filter, without reading their
+	 * points.
+	 * 
+	 * @return A page of summaries ordered by ID.
+	 */
+	public static Promise<Page<TourSummaryDto>> findSummariesByUsername(
+			String username, TourStatsFilter filter, int afterId, int limit) {
+		return findSummaries(SUMMARY_USER_QUERY,
+				ImmutableMap.<String, Object> of(USER_PARAM, username),
+				filter, afterId, limit);
+	}
 
+	/**
+	 * Finds the summaries of the tours created for the given {@code sport}
+	 * matching the given filter, without reading their points.
+	 * 
+	 * @return A page of summaries ordered by ID.
+	 */
+	public static Promise<Page<TourSummaryDto>> findSummariesBySportName(
+			String sport, TourStatsFilter filter, int afterId, int limit) {
+		return findSummaries(SUMMARY_SPORT_QUERY,
+				ImmutableMap.<String, Object> of(SPORT_PARAM, sport), filter,
+				afterId, limit);
 	}
 
 	/**
-	 * Retrieves tour with start points within {@code radius} metres from (
-	 * {@code lat, lon, alt}).
+	 * Finds the summaries of the tours with start points within
+	 * {@code radius} metres from ({@code lat, lon, alt}) matching the given
+	 * filter, without reading their points. The in-memory index is only used
+	 * if the filter is empty.
 	 * 
 	 * @param lat
 	 *            The WGS84 latitude in degrees.
@@ -182,59 +344,684 @@ public class TourDataAccessUtils {
 	 *            The radius in metres.
 	 * @param sport
 	 *            The optional additional sport filter.
+	 * @return A page of summaries ordered by ID.
+	 */
+	public static Promise<Page<TourSummaryDto>> findSummariesByStartPoint(
+			double lat, double lon, Optional<Double> alt, double radius,
+			Optional<String> sport, TourStatsFilter filter, int afterId,
+			int limit) {
+		Optional<StartPointIndex> index = StartPointIndex.current();
+		if (index.isPresent() && filter.isEmpty()) {
+			return findIdsInIndex(index.get(), lat, lon, alt, radius, sport,
+					afterId, limit).flatMap(
+					new Function<Page<Integer>, Promise<Page<TourSummaryDto>>>() {
+						@Override
+						public Promise<Page<TourSummaryDto>> apply(
+								Page<Integer> ids) {
+							return findSummariesByIds(ids);
+						}
+					});
+		}
+
+		ImmutableMap.Builder<String, Object> params = ImmutableMap.builder();
+		params.putAll(radiusParams(lat, lon, alt, radius));
+
+		String queryName;
+		if (sport.isPresent()) {
+			queryName = SUMMARY_RADIUS_SPORT_QUERY;
+			params.put(SPORT_PARAM, sport.get());
+		} else {
+			queryName = SUMMARY_RADIUS_QUERY;
+		}
+		return findSummaries(queryName, params.build(), filter, afterId,
+				limit);
+	}
+
+	/**
+	 * Finds the IDs of the tours of the user with the given {@code username}
+	 * matching the given filter, which can then be read with
+	 * {@link #forEachTour(List, Optional, Callback)}.
+	 * 
+	 * @param afterId
+	 *            Only tours with a greater ID are returned.
+	 * @param limit
+	 *            The maximum number of tours returned.
+	 * @return A page of tour IDs in ascending order.
+	 */
+	public static Promise<Page<Integer>> findIdsByUsername(String username,
+			TourStatsFilter filter, int afterId, int limit) {
+		return findIds(USER_IDS_QUERY,
+				ImmutableMap.<String, Object> of(USER_PARAM, username),
+				filter, afterId, limit);
+	}
+
+	/**
+	 * Finds the IDs of the tours created for the given {@code sport} matching
+	 * the given filter, which can then be read with
+	 * {@link #forEachTour(List, Optional, Callback)}.
+	 * 
+	 * @return A page of tour IDs in ascending order.
+	 */
+	public static Promise<Page<Integer>> findIdsBySportName(String sport,
+			TourStatsFilter filter, int afterId, int limit) {
+		return findIds(SPORT_IDS_QUERY,
+				ImmutableMap.<String, Object> of(SPORT_PARAM, sport), filter,
+				afterId, limit);
+	}
+
+	/**
+	 * Finds the IDs of the tours with start points within {@code radius}
+	 * metres from ({@code lat, lon, alt}) matching the given filter, which
+	 * can then be read with {@link #forEachTour(List, Optional, Callback)}.
+	 * The in-memory index is only used if the filter is empty.
+	 * 
+	 * @return A page of tour IDs in ascending order.
+	 * @see #findSummariesByStartPoint(double, double, Optional, double,
+	 *      Optional, TourStatsFilter, int, int)
+	 */
+	public static Promise<Page<Integer>> findIdsByStartPoint(double lat,
+			double lon, Optional<Double> alt, double radius,
+			Optional<String> sport, TourStatsFilter filter, int afterId,
+			int limit) {
+		Optional<StartPointIndex> index = StartPointIndex.current();
+		if (index.isPresent() && filter.isEmpty()) {
+			return findIdsInIndex(index.get(), lat, lon, alt, radius, sport,
+					afterId, limit);
+		}
+
+		ImmutableMap.Builder<String, Object> params = ImmutableMap.builder();
+		params.putAll(radiusParams(lat, lon, alt, radius));
+
+		String queryName;
+		if (sport.isPresent()) {
+			queryName = RADIUS_SPORT_QUERY;
+			params.put(SPORT_PARAM, sport.get());
+		} else {
+			queryName = RADIUS_QUERY;
+		}
+		return findIds(queryName, params.build(), filter, afterId, limit);
+	}
+
+	/**
+	 * Finds the tours with a track intersecting the given area, using the
+	 * stored paths of the tours. Only the IDs of the tours are selected,
+	 * which can then be read with {@link #forEachTour(List, Callback)}.
+	 * 
+	 * @param area
+	 *            The area, as created by
+	 *            {@link #createEnvelope(double, double, double, double)} or
+	 *            {@link #parseArea(String)}.
+	 * @param sport
+	 *            The optional additional sport filter.
+	 * @param filter
+	 *            The additional statistics filter.
+	 * @return A page of tour IDs in ascending order.
+	 */
+	public static Promise<Page<Integer>> findIdsByArea(Geometry area,
+			Optional<String> sport, TourStatsFilter filter, int afterId,
+			int limit) {
+		String queryName = sport.isPresent() ? AREA_SPORT_QUERY : AREA_QUERY;
+		return findIds(queryName, areaParams(area, sport), filter, afterId,
+				limit);
+	}
+
+	/**
+	 * Like
+	 * {@link #findIdsByArea(Geometry, Optional, TourStatsFilter, int, int)},
+	 * but selects the summaries of the tours.
+	 */
+	public static Promise<Page<TourSummaryDto>> findSummariesByArea(
+			Geometry area, Optional<String> sport, TourStatsFilter filter,
+			int afterId, int limit) {
+		String queryName = sport.isPresent() ? SUMMARY_AREA_SPORT_QUERY
+				: SUMMARY_AREA_QUERY;
+		return findSummaries(queryName, areaParams(area, sport), filter,
+				afterId, limit);
+	}
+
+	private static Map<String, Object> areaParams(Geometry area,
+			Optional<String> sport) {
+		ImmutableMap.Builder<String, Object> params = ImmutableMap.builder();
+		params.put(AREA_PARAM, area);
+		if (sport.isPresent()) {
+			params.put(SPORT_PARAM, sport.get());
+		}
+		return params.build();
+	}
+
+	/**
+	 * Creates the area between the given coordinates in degrees. If the
+	 * minimum longitude is greater than the maximum, the area crosses the
+	 * antimeridian and consists of two rectangles.
 	 * 
-	 * @return A list of tours satisfying the provided criteria. If none are
-	 *         found, an empty list is returned.
+	 * @throws IllegalArgumentException
+	 *             if the coordinates are out of range or the minimum
+	 *             latitude is greater than the maximum.
 	 */
-	public static Promise<List<TourDto>> findByStartPoint(final double lat,
-			final double lon, final Optional<Double> alt, final double radius,
+	public static Geometry createEnvelope(double minLon, double minLat,
+			double maxLon, double maxLat) {
+		checkArgument(minLat >= -90 && maxLat <= 90 && minLat <= maxLat,
+				"Invalid latitude range: %s, %s", minLat, maxLat);
+		checkArgument(minLon >= -180 && minLon <= 180 && maxLon >= -180
+				&& maxLon <= 180, "Invalid longitude range: %s, %s", minLon,
+				maxLon);
+
+		Geometry envelope;
+		if (minLon <= maxLon) {
+			envelope = createRectangle(minLon, minLat, maxLon, maxLat);
+		} else {
+			envelope = GEO_FACTORY.createMultiPolygon(new Polygon[] {
+					createRectangle(minLon, minLat, 180, maxLat),
+					createRectangle(-180, minLat, maxLon, maxLat) });
+		}
+		envelope.setSRID(SRID);
+		return envelope;
+	}
+
+	private static Polygon createRectangle(double minX, double minY,
+			double maxX, double maxY) {
+		return GEO_FACTORY.createPolygon(new Coordinate[] {
+				new Coordinate(minX, minY), new Coordinate(maxX, minY),
+				new Coordinate(maxX, maxY), new Coordinate(minX, maxY),
+				new Coordinate(minX, minY) });
+	}
+
+	/**
+	 * Parses an area given as a WKT polygon or multipolygon with WGS84
+	 * longitudes and latitudes in degrees.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the text is not a valid polygon or multipolygon.
+	 */
+	public static Geometry parseArea(String wkt) {
+		Geometry area;
+		try {
+			area = new WKTReader(GEO_FACTORY).read(wkt);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid polygon: "
+					+ e.getMessage(), e);
+		}
+		checkArgument(area instanceof Polygonal && area.isValid(),
+				"Invalid polygon: %s", wkt);
+		area.setSRID(SRID);
+		return area;
+	}
+
+	/**
+	 * Finds the {@code k} tours with start points closest to (
+	 * {@code lat, lon}), measured like the radius search.<br>
+	 * The database orders the start points by their distance in degrees using
+	 * the spatial index. Since that order differs from the order by distance
+	 * on the sphere, the {@code k} tours found that way only bound the
+	 * distance of the nearest tours, which are then selected with the radius
+	 * filter.
+	 * 
+	 * @param sport
+	 *            The optional additional sport filter.
+	 * @param filter
+	 *            The additional statistics filter. The in-memory index is
+	 *            only used if it is empty.
+	 * @return The tours ordered by distance and then by ID.
+	 */
+	public static Promise<List<TourDistance>> findNearest(final double lat,
+			final double lon, final Optional<String> sport,
+			final TourStatsFilter filter, final int k) {
+		checkArgument(k > 0, "Invalid number of tours: %s", k);
+
+		Optional<StartPointIndex> index = StartPointIndex.current();
+		if (index.isPresent() && filter.isEmpty()) {
+			return findNearestInIndex(index.get(), lat, lon, sport, k);
+		}
+
+		return Promise.promise(new Function0<List<TourDistance>>() {
+			@Override
+			public List<TourDistance> apply() throws Throwable {
+				return JPA.withTransaction(DEFAULT_UNIT, true,
+						new Function0<List<TourDistance>>() {
+							@Override
+							public List<TourDistance> apply() {
+								LOG.debug("Fetching " + k
+										+ " nearest tours: lat=" + lat
+										+ " lon=" + lon + " " + sport.or(""));
+								Query q = JPA.em().createNamedQuery(
+										sport.isPresent() ? NEAREST_SPORT_QUERY
+												: NEAREST_QUERY);
+								q.setParameter(START_POINT_PARAM,
+										createPoint(lon, lat, 0));
+								setSportParam(q, sport);
+								setParams(q, statsParams(filter));
+								q.setMaxResults(k);
+								List<TourDistance> candidates = toDistances(q);
+								if (candidates.size() < k) {
+									return TourDistance.BY_DISTANCE
+											.sortedCopy(candidates);
+								}
+
+								double maxDistance = TourDistance.BY_DISTANCE
+										.max(candidates).distance;
+								q = JPA.em().createNamedQuery(
+										sport.isPresent() ? DISTANCE_RADIUS_SPORT_QUERY
+												: DISTANCE_RADIUS_QUERY);
+								setParams(q, radiusParams(lat, lon,
+										Optional.<Double> absent(),
+										maxDistance + DISTANCE_TOLERANCE));
+								setSportParam(q, sport);
+								setParams(q, statsParams(filter));
+								List<TourDistance> nearest = TourDistance.BY_DISTANCE
+										.sortedCopy(toDistances(q));
+								return nearest.subList(0,
+										Math.min(k, nearest.size()));
+							}
+						});
+			}
+		});
+	}
+
+	/**
+	 * Like
+	 * {@link #findNearest(double, double, Optional, TourStatsFilter, int)},
+	 * but selects only the summaries of the tours, which contain their
+	 * distances.
+	 */
+	public static Promise<List<TourSummaryDto>> findNearestSummaries(
+			double lat, double lon, Optional<String> sport,
+			TourStatsFilter filter, int k) {
+		return findNearest(lat, lon, sport, filter, k).flatMap(
+				new Function<List<TourDistance>, Promise<List<TourSummaryDto>>>() {
+					@Override
+					public Promise<List<TourSummaryDto>> apply(
+							final List<TourDistance> distances) {
+						List<Integer> ids = Lists.newArrayListWithCapacity(
+								distances.size());
+						for (TourDistance distance : distances) {
+							ids.add(distance.id);
+						}
+						Page<Integer> page = new Page<Integer>(ids,
+								Optional.<Integer> absent());
+						return findSummariesByIds(page).map(
+								new Function<Page<TourSummaryDto>, List<TourSummaryDto>>() {
+									@Override
+									public List<TourSummaryDto> apply(
+											Page<TourSummaryDto> page) {
+										return withDistances(page.items,
+												distances);
+									}
+								});
+					}
+				});
+	}
+
+	/**
+	 * @return The given summaries, ordered like the given distances and
+	 *         containing them.
+	 */
+	static List<TourSummaryDto> withDistances(List<TourSummaryDto> summaries,
+			List<TourDistance> distances) {
+		Map<Integer, TourSummaryDto> byId = Maps.newHashMap();
+		for (TourSummaryDto summary : summaries) {
+			byId.put(summary.id, summary);
+		}
+
+		List<TourSummaryDto> result = Lists.newArrayListWithCapacity(Math
+				.min(summaries.size(), distances.size()));
+		for (TourDistance distance : distances) {
+			TourSummaryDto summary = byId.get(distance.id);
+			// Tours in the in-memory index may not have been written.
+			if (summary != null) {
+				result.add(summary.withDistance(distance.distance));
+			}
+		}
+		return result;
+	}
+
+	private static Promise<List<TourDistance>> findNearestInIndex(
+			final StartPointIndex index, final double lat, final double lon,
+			final Optional<String> sport, final int k) {
+		return findSportId(sport).map(
+				new Function<Optional<Optional<Integer>>, List<TourDistance>>() {
+					@Override
+					public List<TourDistance> apply(
+							Optional<Optional<Integer>> sportId) {
+						if (sportId.isPresent() == false) {
+							return Collections.emptyList();
+						}
+						return index.nearest(lat, lon, sportId.get(), k);
+					}
+				});
+	}
+
+	private static List<TourDistance> toDistances(Query q) {
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = q.getResultList();
+		List<TourDistance> distances = Lists.newArrayListWithCapacity(rows
+				.size());
+		for (Object[] row : rows) {
+			distances.add(new TourDistance(((Number) row[0]).intValue(),
+					((Number) row[1]).doubleValue()));
+		}
+		return distances;
+	}
+
+	private static void setParams(Query q, Map<String, Object> params) {
+		for (Map.Entry<String, Object> param : params.entrySet()) {
+			q.setParameter(param.getKey(), param.getValue());
+		}
+	}
+
+	private static void setSportParam(Query q, Optional<String> sport) {
+		if (sport.isPresent()) {
+			q.setParameter(SPORT_PARAM, sport.get());
+		}
+	}
+
+	/**
+	 * Looks up the ID of the sport with the given name for searching the
+	 * in-memory index. The name must match exactly, like in the queries.
+	 * 
+	 * @return The optional ID of the sport to filter by, or absent if there
+	 *         is no such sport, so nothing can match.
+	 */
+	private static Promise<Optional<Optional<Integer>>> findSportId(
 			final Optional<String> sport) {
+		if (sport.isPresent() == false) {
+			return Promise.pure(Optional.of(Optional.<Integer> absent()));
+		}
+
+		return Promise.promise(new Function0<Optional<Optional<Integer>>>() {
+			@Override
+			public Optional<Optional<Integer>> apply() throws Throwable {
+				Sport found = JPA.withTransaction(new Function0<Sport>() {
+					@Override
+					public Sport apply() {
+						return ReferenceDataCache.findSport(sport.get());
+					}
+				});
+				if (found == null
+						|| found.getName().equals(sport.get()) == false) {
+					return Optional.absent();
+				}
+				return Optional.of(Optional.of(found.getId()));
+			}
+		});
+	}
 
-		return Promise.promise(new Function0<List<TourDto>>() {
+	/**
+	 * Counts the tours starting in the cells of the given web map tile.
+	 * 
+	 * @param sport
+	 *            The optional exact name of the sport to count.
+	 * @return The tile, or absent if the counts are not loaded.
+	 * @throws IllegalArgumentException
+	 *             if the tile does not exist or is too detailed.
+	 */
+	public static Promise<Optional<TileDto>> findTile(final int zoom,
+			final int x, final int y, Optional<String> sport) {
+		Optional<StartPointTiles> current = StartPointTiles.current();
+		if (current.isPresent() == false) {
+			return Promise.pure(Optional.<TileDto> absent());
+		}
+		final StartPointTiles tiles = current.get();
+		tiles.checkTile(zoom, x, y);
 
+		return findSportId(sport).map(
+				new Function<Optional<Optional<Integer>>, Optional<TileDto>>() {
+					@Override
+					public Optional<TileDto> apply(
+							Optional<Optional<Integer>> sportId) {
+						int gridSize = 1 << tiles.gridBits();
+						int[] counts = sportId.isPresent() ? tiles.count(zoom,
+								x, y, sportId.get()) : new int[gridSize
+								* gridSize];
+						return Optional.of(toTile(zoom, x, y, gridSize, counts));
+					}
+				});
+	}
+
+	static TileDto toTile(int zoom, int x, int y, int gridSize, int[] counts) {
+		int total = 0;
+		List<int[]> cells = Lists.newArrayList();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				total += counts[i];
+				cells.add(new int[] { i % gridSize, i / gridSize, counts[i] });
+			}
+		}
+		return new TileDto(zoom, x, y, gridSize, total, cells);
+	}
+
+	/**
+	 * Finds a page of tour IDs by start point in the given in-memory index.
+	 * The sport is looked up by its exact name, like in the radius queries.
+	 */
+	private static Promise<Page<Integer>> findIdsInIndex(
+			final StartPointIndex index, final double lat, final double lon,
+			final Optional<Double> alt, final double radius,
+			Optional<String> sport, final int afterId, final int limit) {
+		return findSportId(sport).map(
+				new Function<Optional<Optional<Integer>>, Page<Integer>>() {
+					@Override
+					public Page<Integer> apply(
+							Optional<Optional<Integer>> sportId) {
+						if (sportId.isPresent() == false) {
+							return new Page<Integer>(
+									Collections.<Integer> emptyList(),
+									Optional.<Integer> absent());
+						}
+						return index.find(lat, lon, alt, radius,
+								sportId.get(), afterId, limit);
+					}
+				});
+	}
+
+	/**
+	 * Selects the summaries of the tours of the given page of IDs.
+	 */
+	private static Promise<Page<TourSummaryDto>> findSummariesByIds(
+			final Page<Integer> ids) {
+		return Promise.promise(new Function0<Page<TourSummaryDto>>() {
 			@Override
-			public List<TourDto> apply() throws Throwable {
+			public Page<TourSummaryDto> apply() throws Throwable {
+				List<TourSummaryDto> summaries = Collections.emptyList();
+				if (ids.items.isEmpty() == false) {
+					summaries = JPA.withTransaction(
+							new Function0<List<TourSummaryDto>>() {
+								@Override
+								public List<TourSummaryDto> apply() {
+									Query q = JPA.em().createNamedQuery(
+											SUMMARY_IDS_QUERY);
+									q.setParameter(IDS_PARAM, ids.items);
 
-				List<TourDto> dtos = JPA
-						.withTransaction(new Function0<List<TourDto>>() {
+									@SuppressWarnings("unchecked")
+									List<Object[]> rows = q.getResultList();
+									return toSummaryPage(rows, rows.size()).items;
+								}
+							});
+				}
+				return new Page<TourSummaryDto>(summaries, ids.nextAfter);
+			}
+		});
+	}
+
+	/**
+	 * Reads the tours with the given IDs and passes them to the callback one
+	 * by one along with their IDs, in the given order. Tours which do not
+	 * exist are skipped. The tours are fetched in groups of
+	 * {@code tours.stream.groupSize} and released after each group, so the
+	 * memory used does not depend on the number of tours.
+	 * 
+	 * @param tolerance
+	 *            The optional tolerance of the simplified tracks, as for
+	 *            {@link #findById(int, Optional)}.
+	 */
+	public static Promise<Void> forEachTour(final List<Integer> ids,
+			final Optional<Double> tolerance,
+			final Callback<Tuple<Integer, TourDto>> callback) {
+		final int groupSize = Objects.firstNonNull(Play.application()
+				.configuration().getInt(STREAM_GROUP_SIZE_KEY),
+				DEFAULT_STREAM_GROUP_SIZE);
 
+		return Promise.promise(new Function0<Void>() {
+			@Override
+			public Void apply() throws Throwable {
+				return JPA.withTransaction(DEFAULT_UNIT, true,
+						new Function0<Void>() {
 							@Override
-							public List<TourDto> apply() throws Throwable {
-								LOG.debug("Fetching tours for criteria: lat="
-										+ lat + " lon=" + lon + " alt="
-										+ alt.or(0d) + " radius=" + radius
-										+ " " + sport.or(""));
-
-								Point startpoint = createPoint(lon, lat,
-										alt.or(0d));
-
-								Query q;
-								if (sport.isPresent()) {
-									q = JPA.em().createNamedQuery(
-											RADIUS_SPORT_QUERY);
-									q.setParameter(SPORT_PARAM, sport.get());
-								} else {
-									q = JPA.em().createNamedQuery(RADIUS_QUERY);
+							public Void apply() throws Throwable {
+								for (List<Integer> group : Lists.partition(
+										ids, groupSize)) {
+									Map<Integer, Tour> tours = Maps
+											.newHashMap();
+									for (Tour tour : findByIds(group)) {
+										tours.put(tour.getId(), tour);
+									}
+									Map<Integer, byte[]> details = findDetails(
+											group, tolerance);
+									for (Integer id : group) {
+										Tour tour = tours.get(id);
+										if (tour != null) {
+											callback.invoke(new Tuple<Integer, TourDto>(
+													id, toDto(tour,
+															details.get(id))));
+										}
+									}
+									JPA.em().clear();
 								}
-								q.setParameter(START_POINT_PARAM, startpoint);
-								q.setParameter(RADIUS_PARAM, radius);
-
-								long start = System.currentTimeMillis();
-								@SuppressWarnings("unchecked")
-								List<Tour> results = q.getResultList();
-								long duration = System.currentTimeMillis()
-										- start;
-								LOG.debug("Fetched " + results.size()
-										+ " tours in " + duration + " ms.");
-
-								List<TourDto> tourDtos = toDtos(results);
-								return tourDtos;
+								return null;
 							}
 						});
-				return dtos;
 			}
 		});
+	}
+
+	private static Promise<Page<TourSummaryDto>> findSummaries(
+			String queryName, Map<String, Object> params,
+			TourStatsFilter filter, int afterId, final int limit) {
+		return TourDataAccessUtils.<Object[]> findRows(queryName, params,
+				filter, afterId, limit).map(
+				new Function<List<Object[]>, Page<TourSummaryDto>>() {
+					@Override
+					public Page<TourSummaryDto> apply(List<Object[]> rows) {
+						return toSummaryPage(rows, limit);
+					}
+				});
+	}
+
+	private static Promise<Page<Integer>> findIds(String queryName,
+			Map<String, Object> params, TourStatsFilter filter, int afterId,
+			final int limit) {
+		return TourDataAccessUtils.<Integer> findRows(queryName, params,
+				filter, afterId, limit).map(
+				new Function<List<Integer>, Page<Integer>>() {
+					@Override
+					public Page<Integer> apply(List<Integer> ids) {
+						Optional<Integer> nextAfter = Optional.absent();
+						if (ids.size() > limit) {
+							ids = ids.subList(0, limit);
+							nextAfter = Optional.of(ids.get(limit - 1));
+						}
+						return new Page<Integer>(ids, nextAfter);
+					}
+				});
+	}
 
+	/**
+	 * @return The parameters of the radius filter of the radius queries. The
+	 *         altitude difference only counts if an altitude is given.
+	 */
+	private static Map<String, Object> radiusParams(double lat, double lon,
+			Optional<Double> alt, double radius) {
+		return ImmutableMap.<String, Object> of(
+				START_POINT_PARAM, createPoint(lon, lat, alt.or(0d)),
+				USE_ALT_PARAM, alt.isPresent(),
+				RADIUS_PARAM, radius,
+				SEARCH_RADIUS_PARAM, radius * SEARCH_RADIUS_FACTOR);
+	}
+
+	/**
+	 * @return The parameters of the statistics filter. The bounds are only
+	 *         compared if any are given.
+	 */
+	private static Map<String, Object> statsParams(TourStatsFilter filter) {
+		return ImmutableMap.<String, Object> builder()
+				.put(USE_STATS_PARAM, filter.isEmpty() == false)
+				.put(MIN_DISTANCE_PARAM, filter.minDistance.or(0d))
+				.put(MAX_DISTANCE_PARAM, filter.maxDistance.or(Double.MAX_VALUE))
+				.put(MIN_DURATION_PARAM, filter.minDuration.or(0d))
+				.put(MAX_DURATION_PARAM, filter.maxDuration.or(Double.MAX_VALUE))
+				.build();
+	}
+
+	/**
+	 * Runs the given named query, ordered by tour ID, for the rows following
+	 * {@code afterId} and matching the statistics filter. One row more than
+	 * the limit is fetched to tell whether there is a next page.
+	 */
+	private static <R> Promise<List<R>> findRows(final String queryName,
+			final Map<String, Object> params, final TourStatsFilter filter,
+			final int afterId, final int limit) {
+		return Promise.promise(new Function0<List<R>>() {
+			@Override
+			public List<R> apply() throws Throwable {
+				return JPA.withTransaction(new Function0<List<R>>() {
+					@Override
+					public List<R> apply() {
+						LOG.debug("Fetching tours: " + queryName + " "
+								+ params + " " + filter + " after: "
+								+ afterId);
+						Query q = JPA.em().createNamedQuery(queryName);
+						setParams(q, params);
+						setParams(q, statsParams(filter));
+						q.setParameter(AFTER_PARAM, afterId);
+						q.setMaxResults(limit + 1);
+
+						@SuppressWarnings("unchecked")
+						List<R> rows = q.getResultList();
+						return rows;
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Fetches the tours with the given IDs along with their users and sports
+	 * with a single query. Must be called within a JPA transaction.
+	 * 
+	 * @return The tours ordered by ID.
+	 */
+	static List<Tour> findByIds(List<Integer> ids) {
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		TypedQuery<Tour> q = JPA.em().createNamedQuery(IDS_QUERY, Tour.class);
+		q.setParameter(IDS_PARAM, ids);
+		return q.getResultList();
+	}
+
+	/**
+	 * Fetches the simplified tracks of the given tours with the greatest
+	 * tolerance not exceeding the given one. Must be called within a JPA
+	 * transaction.
+	 * 
+	 * @return The encoded tracks by tour ID. Empty if no tolerance is given.
+	 */
+	static Map<Integer, byte[]> findDetails(List<Integer> ids,
+			Optional<Double> tolerance) {
+		Map<Integer, byte[]> details = Maps.newHashMap();
+		if (tolerance.isPresent() == false || ids.isEmpty()) {
+			return details;
+		}
+
+		Query q = JPA.em().createNamedQuery(DETAILS_QUERY);
+		q.setParameter(IDS_PARAM, ids);
+		q.setParameter(TOLERANCE_PARAM, tolerance.get());
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = q.getResultList();
+		for (Object[] row : rows) {
+			details.put(((Number) row[0]).intValue(), (byte[]) row[1]);
+		}
+		return details;
 	}
 
 	/**
@@ -251,11 +1038,12 @@ public class TourDataAccessUtils {
 		Sport sport = Sport.findByName(tourDto.sportName);
 		checkArgument(sport != null, "Sport %s not found", tourDto.sportName);
 
+		PointSeries points = tourDto.points;
 		List<TimestampedPoint> tsPoints = Lists
-				.newArrayListWithExpectedSize(tourDto.points.size());
-		for (TimestampedPointDto pointDto : tourDto.points) {
-			Point point = createPoint(pointDto.x, pointDto.y, pointDto.z);
-			Date time = pointDto.time;
+				.newArrayListWithExpectedSize(points.size());
+		for (int i = 0; i < points.size(); i++) {
+			Point point = createPoint(points.x(i), points.y(i), points.z(i));
+			Date time = new Date(points.time(i));
 			TimestampedPoint tsPoint = new TimestampedPoint(time, point, tour);
 			tsPoints.add(tsPoint);
 		}
@@ -271,34 +1059,170 @@ public class TourDataAccessUtils {
 		return tour;
 	}
 
+	/**
+	 * Converts the given entity to a DTO. The points are read either from the
+	 * compact track of the tour or from its point entries.
+	 */
 	static TourDto toDto(Tour tour) {
 		String sportName = tour.getSport().getName();
 		String username = tour.getUser().getUsername();
 
-		List<TimestampedPointDto> points = Lists
-				.newArrayListWithExpectedSize(tour.getPoints().size());
-		for (TimestampedPoint tsPoint : tour.getPoints()) {
-			double x = tsPoint.getPoint().getCoordinate().x;
-			double y = tsPoint.getPoint().getCoordinate().y;
-			double z = tsPoint.getPoint().getCoordinate().z;
-
-			Date time = tsPoint.getTime();
-			TimestampedPointDto tsPointDto = new TimestampedPointDto(time, x,
-					y, z);
-			points.add(tsPointDto);
+		PointSeries points;
+		if (tour.getTrack() != null) {
+			// Point entries are ordered by time, so the track should be too.
+			points = TrackCodec.decode(tour.getTrack()).sortedByTime();
+		} else {
+			PointSeries.Builder builder = new PointSeries.Builder(tour
+					.getPoints().size());
+			for (TimestampedPoint tsPoint : tour.getPoints()) {
+				Coordinate coordinate = tsPoint.getPoint().getCoordinate();
+				builder.add(tsPoint.getTime().getTime(), coordinate.x,
+						coordinate.y, coordinate.z);
+			}
+			points = builder.build();
 		}
 
-		TourDto tourDto = new TourDto(username, sportName, points);
+		TourDto tourDto = new TourDto(username, sportName, points)
+				.withStats(toStats(tour));
 		return tourDto;
 	}
 
-	static List<TourDto> toDtos(Collection<Tour> tours) {
-		List<TourDto> dtos = Lists.newArrayListWithExpectedSize(tours.size());
-		for (Tour tour : tours) {
-			TourDto dto = toDto(tour);
-			dtos.add(dto);
+	/**
+	 * Like {@link #toDto(Tour)}, but with the points of the given simplified
+	 * track, if not {@code null}, so that the points of the tour are not
+	 * read.
+	 */
+	static TourDto toDto(Tour tour, byte[] detail) {
+		if (detail == null) {
+			return toDto(tour);
+		}
+		return new TourDto(tour.getUser().getUsername(), tour.getSport()
+				.getName(), TrackCodec.decode(detail))
+				.withStats(toStats(tour));
+	}
+
+	/**
+	 * @return The statistics stored on the given tour, or {@code null} if
+	 *         there are none.
+	 */
+	static TourStatsDto toStats(Tour tour) {
+		if (tour.getDistance() == null) {
+			return null;
+		}
+		return new TourStatsDto(tour.getDistance(), tour.getDuration(),
+				tour.getElevationGain(), tour.getAverageSpeed(),
+				tour.getMaxSpeed());
+	}
+
+	/**
+	 * Converts a row selected by one of the summary queries to a DTO.
+	 * 
+	 * @param row
+	 *            The values of the columns listed in
+	 *            {@code Tour.SUMMARY_COLUMNS}.
+	 */
+	static TourSummaryDto toSummary(Object[] row) {
+		int id = ((Number) row[0]).intValue();
+		String username = (String) row[1];
+		String sportName = (String) row[2];
+
+		TimestampedPointDto startPoint = null;
+		if (row[3] != null) {
+			Date time = new Date(((Date) row[3]).getTime());
+			startPoint = new TimestampedPointDto(time, toDouble(row[4]),
+					toDouble(row[5]), toDouble(row[6]));
+		}
+
+		Integer pointCount = null;
+		if (row[7] != null) {
+			pointCount = ((Number) row[7]).intValue();
+		}
+
+		TourStatsDto stats = null;
+		if (row[8] != null) {
+			Double averageSpeed = row[11] != null ? toDouble(row[11]) : null;
+			stats = new TourStatsDto(toDouble(row[8]), toDouble(row[9]),
+					toDouble(row[10]), averageSpeed, toDouble(row[12]));
+		}
+		return new TourSummaryDto(id, username, sportName, startPoint,
+				pointCount, stats);
+	}
+
+	/**
+	 * @return The given number or 0 if {@code null}, e.g. the missing
+	 *         coordinate of a two-dimensional point.
+	 */
+	private static double toDouble(Object number) {
+		return number != null ? ((Number) number).doubleValue() : 0;
+	}
+
+	/**
+	 * Converts the rows selected by one of the summary queries, ordered by
+	 * ID, to a page of at most {@code limit} summaries. The query should fetch
+	 * one row more than the limit to tell whether there is a next page.
+	 */
+	static Page<TourSummaryDto> toSummaryPage(List<Object[]> rows, int limit) {
+		List<TourSummaryDto> summaries = Lists.newArrayListWithCapacity(Math
+				.min(rows.size(), limit));
+		for (Object[] row : rows.subList(0, Math.min(rows.size(), limit))) {
+			summaries.add(toSummary(row));
+		}
+
+		Optional<Integer> nextAfter = Optional.absent();
+		if (rows.size() > limit) {
+			nextAfter = Optional.of(summaries.get(limit - 1).id);
 		}
-		return dtos;
+		return new Page<TourSummaryDto>(summaries, nextAfter);
+	}
+
+	/**
+	 * Sets the denormalized location, time and geohash of the start point of
+	 * the given tour.
+	 */
+	static void setStart(Tour tour, Date time, double x, double y, double z) {
+		tour.setStartLocation(createPoint(x, y, z));
+		tour.setStartTime(time);
+		tour.setStartGeohash(Geohash.encode(y, x, Geohash.PRECISION));
+	}
+
+	/**
+	 * Sets the statistics of the given tour.
+	 */
+	static void setStats(Tour tour, TourStats stats) {
+		tour.setDistance(stats.distance());
+		tour.setDuration(stats.duration());
+		tour.setElevationGain(stats.elevationGain());
+		tour.setAverageSpeed(stats.averageSpeed());
+		tour.setMaxSpeed(stats.maxSpeed());
+	}
+
+	/**
+	 * @return The two-dimensional line of the given points as well-known
+	 *         binary, or a point if there is only one, written directly
+	 *         without building the geometry. Stored with
+	 *         {@code ST_GeomFromWKB}.
+	 * @see Tour#getPath()
+	 *
+	 * @param points
+	 *            The points ordered by time.
+	 */
+	static byte[] createPathWkb(PointSeries points) {
+		// The byte order, the type and the number of points of a line.
+		int header = points.size() == 1 ? 1 + 4 : 1 + 4 + 4;
+		ByteBuffer wkb = ByteBuffer.allocate(header + points.size() * 16)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		wkb.put((byte) 1);
+		if (points.size() == 1) {
+			wkb.putInt(WKB_POINT);
+		} else {
+			wkb.putInt(WKB_LINE_STRING);
+			wkb.putInt(points.size());
+		}
+		for (int i = 0; i < points.size(); i++) {
+			wkb.putDouble(points.x(i));
+			wkb.putDouble(points.y(i));
+		}
+		return wkb.array();
 	}
 
 	static Point createPoint(double x, double y, double z) {
@@ -307,4 +1231,169 @@ public class TourDataAccessUtils {
 		return point;
 	}
 
+	/**
+	 * Collects tours read from JSON and persists them in batches.
+	 */
+	private static class BatchTourHandler implements ToursHandler {
+		private final int batchSize;
+		private final List<TourCreationResultDto> results = Lists
+				.newArrayList();
+
+		/**
+		 * Tours waiting to be persisted. Invalid tours are kept as
+		 * {@code null} so that the results retain the order of the input.
+		 */
+		private final List<TourDto> pending;
+		private final List<String> pendingErrors;
+
+		BatchTourHandler(int batchSize) {
+			this.batchSize = batchSize;
+			this.pending = Lists.newArrayListWithCapacity(batchSize);
+			this.pendingErrors = Lists.newArrayListWithCapacity(batchSize);
+		}
+
+		@Override
+		public void onTour(TourDto tour) {
+			addPending(tour, null);
+		}
+
+		@Override
+		public void onInvalidTour(String message) {
+			addPending(null, message);
+		}
+
+		private void addPending(TourDto tour, String error) {
+			pending.add(tour);
+			pendingErrors.add(error);
+			if (pending.size() >= batchSize) {
+				flush();
+			}
+		}
+
+		/**
+		 * Persists all pending tours in a single transaction.
+		 */
+		void flush() {
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			List<TourCreationResultDto> batchResults;
+			try {
+				batchResults = JPA.withTransaction(
+						new Function0<List<TourCreationResultDto>>() {
+							@Override
+							public List<TourCreationResultDto> apply() {
+								return persistPending();
+							}
+						});
+			} catch (Throwable e) {
+				LOG.error("While creating a batch of tours.", e);
+				String message = Strings.nullToEmpty(Throwables
+						.getRootCause(e).getMessage());
+				batchResults = Lists.newArrayListWithCapacity(pending.size());
+				for (String error : pendingErrors) {
+					batchResults.add(TourCreationResultDto.failed(Objects
+							.firstNonNull(error, message)));
+				}
+			}
+
+			results.addAll(batchResults);
+			pending.clear();
+			pendingErrors.clear();
+		}
+
+		private List<TourCreationResultDto> persistPending() {
+			List<TourCreationResultDto> batchResults = Lists
+					.newArrayListWithCapacity(pending.size());
+			for (int i = 0; i < pending.size(); i++) {
+				TourDto tourDto = pending.get(i);
+				TourCreationResultDto result;
+				if (tourDto == null) {
+					result = TourCreationResultDto.failed(pendingErrors.get(i));
+				} else {
+					try {
+						// Validate before writing anything, so an invalid
+						// tour does not leave a partial entry in the batch.
+						User user = TourWriter.findUser(tourDto.username);
+						Sport sport = TourWriter.findSport(tourDto.sportName);
+						TourWriter.checkPoints(tourDto.points);
+
+						Optional<Integer> duplicate = TourWriter
+								.findDuplicate(user, tourDto.points);
+						if (duplicate.isPresent()) {
+							result = TourCreationResultDto.duplicate(duplicate
+									.get());
+						} else {
+							TourWriter writer = new TourWriter(user, sport);
+							writer.addAll(tourDto.points);
+							result = TourCreationResultDto.created(writer
+									.finish());
+						}
+					} catch (IllegalArgumentException e) {
+						pendingErrors.set(i, e.getMessage());
+						result = TourCreationResultDto.failed(e.getMessage());
+					}
+				}
+				batchResults.add(result);
+			}
+			return batchResults;
+		}
+	}
+
+	/**
+	 * Collects the user, the sport and the encoded points of a tour read from
+	 * JSON, without writing anything.
+	 */
+	private static class FingerprintingTourHandler implements TourHandler {
+		private final TrackCodec.Encoder encoder = new TrackCodec.Encoder(0);
+		private String username;
+		private String sportName;
+		private int pointCount;
+
+		@Override
+		public void onHeader(String username, String sportName) {
+			this.username = username;
+			this.sportName = sportName;
+		}
+
+		@Override
+		public void onPoint(TimestampedPointDto point) {
+			checkArgument(point.time != null, "Point without time");
+			encoder.add(point.time.getTime(), point.x, point.y, point.z);
+			pointCount++;
+		}
+
+		/**
+		 * @return The points read, ordered by time.
+		 * @throws IllegalArgumentException
+		 *             if no points were read.
+		 */
+		PointSeries points() {
+			checkArgument(pointCount > 0, "Tour contains no points");
+			return TrackCodec.decode(encoder.toByteArray()).sortedByTime();
+		}
+	}
+
+	/**
+	 * Passes the points of a tour read from JSON on to a {@link TourWriter}.
+	 * The user and the sport were already read.
+	 */
+	private static class WritingTourHandler implements TourHandler {
+		private final TourWriter writer;
+
+		WritingTourHandler(TourWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void onHeader(String username, String sportName) {
+		}
+
+		@Override
+		public void onPoint(TimestampedPointDto point) {
+			writer.add(point);
+		}
+	}
+
 }
@@ -0,0 +1,36 @@
+package models.dataaccess;
+
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
+
+/**
+ * The distance of the start point of a tour from a searched location.
+ */
+public class TourDistance {
+	/** Orders by distance and then by tour ID. */
+	static final Ordering<TourDistance> BY_DISTANCE = new Ordering<TourDistance>() {
+		@Override
+		public int compare(TourDistance left, TourDistance right) {
+			int result = Doubles.compare(left.distance, right.distance);
+			if (result == 0) {
+				result = Ints.compare(left.id, right.id);
+			}
+			return result;
+		}
+	};
+
+	public final int id;
+	/** The distance in metres. */
+	public final double distance;
+
+	TourDistance(int id, double distance) {
+		this.id = id;
+		this.distance = distance;
+	}
+
+	@Override
+	public String toString() {
+		return "TourDistance [id=" + id + ", distance=" + distance + "]";
+	}
+}
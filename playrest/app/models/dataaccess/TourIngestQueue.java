@@ -0,0 +1,481 @@
+package models.dataaccess;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.Query;
+
+import models.Sport;
+import models.User;
+import models.dtos.PointSeries;
+import models.dtos.TourDto;
+import play.Configuration;
+import play.Logger;
+import play.Logger.ALogger;
+import play.Play;
+import play.db.jpa.JPA;
+import play.libs.F.Function0;
+import play.libs.F.Promise;
+import utils.JsonHelper;
+import utils.WireFormat;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A bounded in-process queue for creating tours asynchronously.<br>
+ * A submitted tour is validated and assigned a reserved ID right away, but
+ * written to the database later by a pool of background writers, which take
+ * tours from the queue in batches. The queue is bounded by the total number
+ * of points of the tours which are queued or being written, since each of
+ * them is held in memory until written. If the queue is full, new tours are
+ * rejected. On {@link #stop()}, the tours remaining in the queue are written
+ * before the writers terminate, unless that takes longer than the drain
+ * timeout, in which case the writers are interrupted.<br>
+ * The queue is enabled and configured by the {@code tours.ingest.async} and
+ * {@code tours.ingest.queue.*} keys.
+ */
+public class TourIngestQueue {
+	private static final ALogger LOG = Logger.of("application");
+
+	private static final String ENABLED_KEY = "tours.ingest.async";
+	private static final String CONFIG_PREFIX = "tours.ingest.queue.";
+	private static final String MAX_POINTS_KEY = CONFIG_PREFIX + "maxPoints";
+	private static final String WRITERS_KEY = CONFIG_PREFIX + "writers";
+	private static final String TOURS_PER_TRANSACTION_KEY = CONFIG_PREFIX
+			+ "toursPerTransaction";
+	private static final String DRAIN_TIMEOUT_KEY = CONFIG_PREFIX
+			+ "drainTimeout";
+	private static final String ID_BLOCK_SIZE_KEY = CONFIG_PREFIX
+			+ "idBlockSize";
+
+	/** About 64 MB of points in a {@link PointSeries}. */
+	private static final long DEFAULT_MAX_POINTS = 2000000;
+	private static final int DEFAULT_WRITERS = 2;
+	private static final int DEFAULT_TOURS_PER_TRANSACTION = 20;
+	private static final long DEFAULT_DRAIN_TIMEOUT = TimeUnit.MINUTES
+			.toMillis(1);
+	private static final int DEFAULT_ID_BLOCK_SIZE = 50;
+
+	/** The number of failed tours kept for the status. */
+	private static final int MAX_FAILURES = 1000;
+
+	/** The sequence backing the serial ID column of the tour table. */
+	private static final String RESERVE_IDS =
+			"SELECT nextval('tour_tur_id_seq') FROM generate_series(1, ?)";
+
+	/** Writes a batch of tours in a single transaction. */
+	private static final Sink TRANSACTION_SINK = new Sink() {
+		@Override
+		public void write(final List<PendingTour> batch) throws Throwable {
+			JPA.withTransaction(new Function0<Void>() {
+				@Override
+				public Void apply() {
+					for (PendingTour tour : batch) {
+						tour.write();
+					}
+					return null;
+				}
+			});
+		}
+	};
+
+	private static volatile TourIngestQueue instance;
+	private static int idBlockSize;
+	private static long drainTimeout;
+	private static final Queue<Integer> reservedIds = new ArrayDeque<>();
+
+	private final BlockingQueue<PendingTour> queue =
+			new LinkedBlockingQueue<>();
+	private final long maxPoints;
+	private final int toursPerTransaction;
+	private final Sink sink;
+	/** The points of the tours in the queue or being written. */
+	private long pendingPoints;
+	/** The IDs of the tours in the queue or being written. */
+	private final Set<Integer> pendingIds = Sets.newConcurrentHashSet();
+	private final Cache<Integer, String> failures = CacheBuilder
+			.newBuilder().maximumSize(MAX_FAILURES).build();
+	private ExecutorService writers;
+	private volatile boolean running = true;
+
+	/**
+	 * Writes a batch of tours, failing as a whole.
+	 */
+	interface Sink {
+		void write(List<PendingTour> batch) throws Throwable;
+	}
+
+	/**
+	 * Creates a running queue, the tours of which are written once the
+	 * writers are started.
+	 *
+	 * @param maxPoints
+	 *            The maximum number of points of the tours in the queue or
+	 *            being written. A larger tour is only accepted if there are
+	 *            no other tours.
+	 * @param toursPerTransaction
+	 *            The maximum number of tours passed to the sink at once.
+	 */
+	TourIngestQueue(long maxPoints, int toursPerTransaction, Sink sink) {
+		this.maxPoints = maxPoints;
+		this.toursPerTransaction = toursPerTransaction;
+		this.sink = sink;
+	}
+
+	/**
+	 * Starts the background writers if asynchronous ingestion is enabled in
+	 * the configuration.
+	 */
+	public static synchronized void start() {
+		Configuration config = Play.application().configuration();
+		if (Objects.firstNonNull(config.getBoolean(ENABLED_KEY), false) == false
+				|| isEnabled()) {
+			return;
+		}
+
+		long maxPoints = Objects.firstNonNull(config.getLong(MAX_POINTS_KEY),
+				DEFAULT_MAX_POINTS);
+		int writerCount = Objects.firstNonNull(config.getInt(WRITERS_KEY),
+				DEFAULT_WRITERS);
+		int toursPerTransaction = Objects.firstNonNull(
+				config.getInt(TOURS_PER_TRANSACTION_KEY),
+				DEFAULT_TOURS_PER_TRANSACTION);
+		idBlockSize = Objects.firstNonNull(config.getInt(ID_BLOCK_SIZE_KEY),
+				DEFAULT_ID_BLOCK_SIZE);
+		drainTimeout = Objects.firstNonNull(
+				config.getMilliseconds(DRAIN_TIMEOUT_KEY),
+				DEFAULT_DRAIN_TIMEOUT);
+
+		TourIngestQueue started = new TourIngestQueue(maxPoints,
+				toursPerTransaction, TRANSACTION_SINK);
+		started.startWriters(writerCount);
+		instance = started;
+		LOG.info("Started " + writerCount + " tour writers, queue capacity: "
+				+ maxPoints + " points");
+	}
+
+	/**
+	 * Stops accepting new tours and waits until the queued tours are written
+	 * or until {@code tours.ingest.queue.drainTimeout} elapses.
+	 */
+	public static synchronized void stop() {
+		if (isEnabled()) {
+			instance.stopWriters(drainTimeout);
+		}
+	}
+
+	public static boolean isEnabled() {
+		TourIngestQueue current = instance;
+		return current != null && current.running;
+	}
+
+	/**
+	 * Reads a tour in the given format from a stream, validates it and adds
+	 * it to the queue.
+	 *
+	 * @return The reserved ID of the tour, under which it will be available
+	 *         once written, or an absent value if the queue is full. The
+	 *         stream is closed in any case.
+	 * @throws IllegalArgumentException
+	 *             if the user or the sport of the tour were not found or if
+	 *             the tour contains no valid points.
+	 * @throws DuplicateTourException
+	 *             if the user already has the same tour. Repeated tours which
+	 *             are both queued are only recognized when written, and the
+	 *             later one is then reported as failed.
+	 * @throws IllegalStateException
+	 *             if the queue is not running.
+	 * @see JsonHelper#readTour(InputStream, WireFormat)
+	 */
+	public static Promise<Optional<Integer>> submit(final InputStream in,
+			final WireFormat format) {
+		return Promise.promise(new Function0<Optional<Integer>>() {
+			@Override
+			public Optional<Integer> apply() throws Throwable {
+				final TourIngestQueue current = instance;
+				final TourDto tourDto;
+				// Rejected uploads are not read, but their stream must still be
+				// closed, since it holds the buffered request body open.
+				try {
+					if (current == null || current.running == false) {
+						throw new IllegalStateException("Tour queue not running");
+					}
+					if (current.isFull()) {
+						return Optional.absent();
+					}
+					tourDto = JsonHelper.readTour(in, format);
+				} finally {
+					in.close();
+				}
+				TourWriter.checkPoints(tourDto.points);
+
+				PendingTour tour = JPA.withTransaction(
+						new Function0<PendingTour>() {
+							@Override
+							public PendingTour apply() {
+								User user = TourWriter
+										.findUser(tourDto.username);
+								Sport sport = TourWriter
+										.findSport(tourDto.sportName);
+								Optional<Integer> duplicate = TourWriter
+										.findDuplicate(user, tourDto.points);
+								if (duplicate.isPresent()) {
+									throw new DuplicateTourException(
+											duplicate.get());
+								}
+								return new PendingTour(reserveId(), user,
+										sport, tourDto.points);
+							}
+						});
+
+				if (current.offer(tour) == false) {
+					return Optional.absent();
+				}
+				return Optional.of(tour.id);
+			}
+		});
+	}
+
+	public static Status status() {
+		TourIngestQueue current = instance;
+		if (current == null) {
+			return new Status(false, 0, 0, 0,
+					ImmutableSet.<Integer> of(),
+					ImmutableMap.<Integer, String> of());
+		}
+		return current.currentStatus();
+	}
+
+	/**
+	 * Takes a tour ID from a block of IDs reserved from the database
+	 * sequence, reserving a new block if needed. Must be called within a JPA
+	 * transaction.
+	 */
+	private static int reserveId() {
+		synchronized (reservedIds) {
+			if (reservedIds.isEmpty()) {
+				Query q = JPA.em().createNativeQuery(RESERVE_IDS);
+				q.setParameter(1, idBlockSize);
+				@SuppressWarnings("unchecked")
+				List<BigInteger> ids = q.getResultList();
+				for (BigInteger id : ids) {
+					reservedIds.add(id.intValue());
+				}
+			}
+			return reservedIds.remove();
+		}
+	}
+
+	synchronized boolean isFull() {
+		return pendingPoints >= maxPoints;
+	}
+
+	/**
+	 * Adds a tour to the queue, if its points fit.
+	 *
+	 * @return {@code false} if the queue is full.
+	 * @throws IllegalStateException
+	 *             if the queue is not running.
+	 */
+	synchronized boolean offer(PendingTour tour) {
+		if (running == false) {
+			throw new IllegalStateException("Tour queue not running");
+		}
+		int points = tour.points.size();
+		if (pendingPoints > 0 && pendingPoints + points > maxPoints) {
+			return false;
+		}
+		pendingPoints += points;
+		pendingIds.add(tour.id);
+		queue.add(tour);
+		return true;
+	}
+
+	/**
+	 * Releases the points of written or failed tours.
+	 */
+	private synchronized void release(List<PendingTour> batch) {
+		for (PendingTour tour : batch) {
+			pendingPoints -= tour.points.size();
+			pendingIds.remove(tour.id);
+		}
+	}
+
+	void startWriters(int writerCount) {
+		writers = Executors.newFixedThreadPool(writerCount);
+		for (int i = 0; i < writerCount; i++) {
+			writers.execute(new Writer());
+		}
+	}
+
+	/**
+	 * Stops accepting new tours and waits until the queued tours are
+	 * written. If that takes longer than the timeout, the writers are
+	 * interrupted.
+	 *
+	 * @return {@code true} if all queued tours were written.
+	 */
+	boolean stopWriters(long timeoutMillis) {
+		running = false;
+		if (writers == null) {
+			return queue.isEmpty();
+		}
+		writers.shutdown();
+		try {
+			if (writers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				LOG.info("Tour writers stopped.");
+				return true;
+			}
+			LOG.error("Tour writers did not finish in time, " + queue.size()
+					+ " queued tours were not written.");
+			writers.shutdownNow();
+		} catch (InterruptedException e) {
+			writers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	Status currentStatus() {
+		long points;
+		synchronized (this) {
+			points = pendingPoints;
+		}
+		return new Status(running, queue.size(), points,
+				Math.max(maxPoints - points, 0),
+				ImmutableSet.copyOf(pendingIds),
+				ImmutableMap.copyOf(failures.asMap()));
+	}
+
+	/**
+	 * Writes the given tours in a single transaction. If that fails, the
+	 * tours are retried one by one, so that a single failing tour does not
+	 * prevent the others from being written.
+	 */
+	void write(List<PendingTour> batch) {
+		try {
+			sink.write(batch);
+		} catch (Throwable e) {
+			if (batch.size() > 1) {
+				LOG.warn("Batch of " + batch.size()
+						+ " tours failed, retrying one by one.", e);
+				for (PendingTour tour : batch) {
+					write(Lists.newArrayList(tour));
+				}
+				return;
+			}
+
+			PendingTour tour = batch.get(0);
+			LOG.error("While writing tour " + tour.id + ".", e);
+			failures.put(tour.id, Strings.nullToEmpty(Throwables
+					.getRootCause(e).getMessage()));
+		}
+		release(batch);
+	}
+
+	/**
+	 * Takes tours from the queue and writes them until the queue is stopped
+	 * and empty, or until the writer is interrupted.
+	 */
+	private class Writer implements Runnable {
+		@Override
+		public void run() {
+			List<PendingTour> batch = Lists
+					.newArrayListWithCapacity(toursPerTransaction);
+			while ((running || queue.isEmpty() == false)
+					&& Thread.currentThread().isInterrupted() == false) {
+				try {
+					PendingTour tour = queue.poll(1, TimeUnit.SECONDS);
+					if (tour == null) {
+						continue;
+					}
+					batch.add(tour);
+					queue.drainTo(batch, toursPerTransaction - 1);
+					write(batch);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (RuntimeException e) {
+					LOG.error("While writing queued tours.", e);
+				} finally {
+					batch.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A validated tour waiting to be written.
+	 */
+	static class PendingTour {
+		final int id;
+		private final User user;
+		private final Sport sport;
+		final PointSeries points;
+
+		PendingTour(int id, User user, Sport sport, PointSeries points) {
+			this.id = id;
+			this.user = user;
+			this.sport = sport;
+			this.points = points;
+		}
+
+		void write() {
+			TourWriter writer = new TourWriter(user, sport, id);
+			writer.addAll(points);
+			writer.finish();
+		}
+	}
+
+	/**
+	 * A snapshot of the state of the queue.
+	 */
+	public static class Status {
+		@JsonProperty("running")
+		public final boolean running;
+		@JsonProperty("queued")
+		public final int queued;
+		/** The points of the tours in the queue or being written. */
+		@JsonProperty("pendingPoints")
+		public final long pendingPoints;
+		@JsonProperty("remainingPoints")
+		public final long remainingPoints;
+		/** The IDs of the tours in the queue or being written. */
+		@JsonProperty("pending")
+		public final Set<Integer> pending;
+		/** The reasons for failing to write tours, by ID. */
+		@JsonProperty("failed")
+		public final Map<Integer, String> failed;
+
+		Status(boolean running, int queued, long pendingPoints,
+				long remainingPoints, Set<Integer> pending,
+				Map<Integer, String> failed) {
+			this.running = running;
+			this.queued = queued;
+			this.pendingPoints = pendingPoints;
+			this.remainingPoints = remainingPoints;
+			this.pending = pending;
+			this.failed = failed;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package models.dataaccess;
+
+import java.util.List;
+
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
+
+/**
+ * Computes the distance, duration, elevation gain and speeds of a tour in a
+ * single pass over its points ordered by time. {@link #add} keeps only the
+ * previous point, so it allocates nothing per point, while {@link #of}
+ * first copies the points into a {@link PointSeries} unless they already
+ * are one.<br>
+ * The distance is measured on the sphere used by the radius searches,
+ * ignoring altitudes. The elevation gain is the sum of all climbs between
+ * consecutive points, and the maximum speed is the greatest speed between
+ * two consecutive points with different times.
+ */
+class TourStats {
+	private int count;
+	private long startTime;
+	private long lastTime;
+	private double lastX;
+	private double lastY;
+	private double lastZ;
+
+	private double distance;
+	private double elevationGain;
+	private double maxSpeed;
+
+	/**
+	 * @param points
+	 *            The points of a tour ordered by time.
+	 */
+	static TourStats of(List<TimestampedPointDto> points) {
+		PointSeries series = PointSeries.copyOf(points);
+		TourStats stats = new TourStats();
+		for (int i = 0; i < series.size(); i++) {
+			stats.add(series.time(i), series.x(i), series.y(i), series.z(i));
+		}
+		return stats;
+	}
+
+	/**
+	 * Adds the next point of the tour, no earlier than the previous one.
+	 */
+	void add(long time, double x, double y, double z) {
+		if (count == 0) {
+			startTime = time;
+		} else {
+			double length = StartPointIndex.distance(lastY, lastX, y, x);
+			distance += length;
+			if (z > lastZ) {
+				elevationGain += z - lastZ;
+			}
+			if (time > lastTime) {
+				maxSpeed = Math.max(maxSpeed, length * 1000
+						/ (time - lastTime));
+			}
+		}
+		lastTime = time;
+		lastX = x;
+		lastY = y;
+		lastZ = z;
+		count++;
+	}
+
+	/**
+	 * @return The length of the track in metres.
+	 */
+	double distance() {
+		return distance;
+	}
+
+	/**
+	 * @return The time between the first and the last point in seconds.
+	 */
+	double duration() {
+		return count > 0 ? (lastTime - startTime) / 1000d : 0;
+	}
+
+	/**
+	 * @return The sum of the climbs in metres.
+	 */
+	double elevationGain() {
+		return elevationGain;
+	}
+
+	/**
+	 * @return The distance divided by the duration in metres per second, or
+	 *         {@code null} if the duration is zero.
+	 */
+	Double averageSpeed() {
+		double duration = duration();
+		return duration > 0 ? distance / duration : null;
+	}
+
+	/**
+	 * @return The greatest speed between two points in metres per second.
+	 */
+	double maxSpeed() {
+		return maxSpeed;
+	}
+}
@@ -0,0 +1,58 @@
+package models.dataaccess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Optional;
+
+/**
+ * Optional bounds of the distance and the duration of the tours searched,
+ * matched against the statistics stored on the tour entries. Tours without
+ * statistics do not match any bounds.
+ */
+public class TourStatsFilter {
+	/** Matches all tours. */
+	public static final TourStatsFilter NONE = new TourStatsFilter(
+			Optional.<Double> absent(), Optional.<Double> absent(),
+			Optional.<Double> absent(), Optional.<Double> absent());
+
+	/** The bounds of the distance in metres. */
+	final Optional<Double> minDistance;
+	final Optional<Double> maxDistance;
+	/** The bounds of the duration in seconds. */
+	final Optional<Double> minDuration;
+	final Optional<Double> maxDuration;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a bound is negative.
+	 */
+	public TourStatsFilter(Optional<Double> minDistance,
+			Optional<Double> maxDistance, Optional<Double> minDuration,
+			Optional<Double> maxDuration) {
+		checkArgument(minDistance.or(0d) >= 0 && maxDistance.or(0d) >= 0,
+				"The distance cannot be negative.");
+		checkArgument(minDuration.or(0d) >= 0 && maxDuration.or(0d) >= 0,
+				"The duration cannot be negative.");
+		this.minDistance = minDistance;
+		this.maxDistance = maxDistance;
+		this.minDuration = minDuration;
+		this.maxDuration = maxDuration;
+	}
+
+	/**
+	 * @return Whether no bounds are given, so that all tours match.
+	 */
+	public boolean isEmpty() {
+		return minDistance.isPresent() == false
+				&& maxDistance.isPresent() == false
+				&& minDuration.isPresent() == false
+				&& maxDuration.isPresent() == false;
+	}
+
+	@Override
+	public String toString() {
+		return "TourStatsFilter [minDistance=" + minDistance
+				+ ", maxDistance=" + maxDistance + ", minDuration="
+				+ minDuration + ", maxDuration=" + maxDuration + "]";
+	}
+}
@@ -0,0 +1,512 @@
+package models.dataaccess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import models.Sport;
+import models.TimestampedPoint;
+import models.Tour;
+import models.User;
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+
+import play.Configuration;
+import play.Play;
+import play.db.jpa.JPA;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+
+/**
+ * Writes a single tour to the database point by point, so that no object is
+ * created per point. Added points are kept in the compact form of
+ * {@link TrackCodec} and, until they are inserted, in primitive arrays.<br>
+ * The tour entry is created when the writer is constructed. Added points are
+ * buffered and inserted with a single JDBC batch for every
+ * {@code tours.ingest.pointsPerBatch} points, so that writing a tour takes a
+ * roughly constant number of database round trips. The start point of the
+ * tour is set by {@link #finish()}.<br>
+ * If {@code tours.storage} is set to {@code compact}, the encoded points are
+ * instead stored on the tour entry itself. Only the start point is then
+ * inserted as a separate row, since it is referenced by the tour.<br>
+ * Once all points are added, the encoded points are decoded once into a
+ * {@link PointSeries} ordered by time, from which the simplified tracks of
+ * the {@link DetailLevels} are computed and stored. The whole track is thus
+ * held in memory while the tour is finished, in primitive arrays of about 32
+ * bytes per point.<br>
+ * The number of points, the location and time of the start point, the path
+ * and the {@link TourStats} of the tour are stored on the tour entry, so
+ * that tours can be searched and summarized without reading their points.
+ * The path is built by the database from the point entries, or written as
+ * well-known binary for compact tours. Once the transaction commits, the
+ * start point is also added to the {@link StartPointIndex} and the
+ * {@link StartPointTiles}.<br>
+ * Unless disabled by {@code tours.duplicates.enabled}, a tour is not
+ * finished if the same user already has a tour with the same
+ * {@link TrackFingerprint} starting within
+ * {@code tours.duplicates.window} of it. Callers should check
+ * {@link #findDuplicate(User, List)} before writing anything, reading
+ * streamed tours twice if need be. The check takes a lock on the user and
+ * the fingerprint until the end of the transaction, so that the same tour
+ * uploaded twice at once is only written once.<br>
+ * Must be used within a JPA transaction.
+ */
+public class TourWriter {
+	private static final String BATCH_SIZE_KEY =
+			"tours.ingest.pointsPerBatch";
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	// The number of points the encoded track is sized for before it grows,
+	// unless the points are added at once.
+	private static final int EXPECTED_POINTS = 1000;
+	private static final String STORAGE_KEY = "tours.storage";
+	private static final String COMPACT_STORAGE = "compact";
+	private static final String DUPLICATES_KEY = "tours.duplicates.enabled";
+	private static final String DUPLICATE_WINDOW_KEY =
+			"tours.duplicates.window";
+	private static final long DEFAULT_DUPLICATE_WINDOW = TimeUnit.MINUTES
+			.toMillis(1);
+
+	private static final String INSERT_TOUR =
+			"INSERT INTO tour (tur_id, tur_usr_id, tur_spt_id) VALUES (?, ?, ?)";
+	private static final String INSERT_POINT =
+			"INSERT INTO timestamped_point (tsp_time, tsp_point, tsp_tur_id) " +
+			"VALUES (?, ST_SetSRID(ST_MakePoint(?, ?, ?), ?), ?)";
+
+	private static final String INSERT_DETAIL =
+			"INSERT INTO tour_detail " +
+			"(tdl_tur_id, tdl_tolerance, tdl_point_count, tdl_track) " +
+			"VALUES (?, ?, ?, ?)";
+	private static final String UPDATE_PATH_FROM_POINTS =
+			"UPDATE tour SET tur_path = (" +
+				"SELECT CASE WHEN count(*) > 1 " +
+					"THEN ST_MakeLine(ST_Force_2D(tsp_point) ORDER BY tsp_time) " +
+					"ELSE ST_Force_2D((array_agg(tsp_point))[1]) END " +
+				"FROM timestamped_point WHERE tsp_tur_id = tur_id) " +
+			"WHERE tur_id = :id";
+	static final String UPDATE_PATH =
+			"UPDATE tour SET tur_path = ST_GeomFromWKB(:path, " +
+				TourDataAccessUtils.SRID + ") WHERE tur_id = :id";
+	static final String ID_PARAM = "id";
+	static final String PATH_PARAM = "path";
+
+	// Named query defined on the TimestampedPoint entity.
+	private static final String START_POINT_QUERY = "findStartPointId";
+	private static final String TOUR_PARAM = "tour";
+
+	// Named query defined on the Tour entity.
+	private static final String DUPLICATE_QUERY = "findDuplicateTour";
+	private static final String USER_PARAM = "user";
+	private static final String FINGERPRINT_PARAM = "fingerprint";
+	private static final String FROM_PARAM = "from";
+	private static final String TO_PARAM = "to";
+
+	// Held until the end of the transaction, so that concurrent checks of the
+	// same tour wait until the first one is written or rolled back.
+	private static final String LOCK_DUPLICATES =
+			"SELECT count(*) FROM pg_advisory_xact_lock(?, ?)";
+
+	private final EntityManager em;
+	private final Tour tour;
+	private final int userId;
+	private final int sportId;
+
+	// The buffered points of the next batch.
+	private final long[] times;
+	private final double[] xs;
+	private final double[] ys;
+	private final double[] zs;
+	private int buffered;
+
+	private final TrackCodec.Encoder encoder;
+	private final boolean compact;
+
+	// The first point ordered by time.
+	private long startTime;
+	private double startX;
+	private double startY;
+	private double startZ;
+
+	private int pointCount;
+
+	/**
+	 * Creates the tour database entry for an already fetched user and sport.
+	 */
+	TourWriter(User user, Sport sport) {
+		this(persist(user, sport), user, sport);
+	}
+
+	/**
+	 * Creates the tour database entry with an ID reserved in advance.
+	 *
+	 * @see TourIngestQueue
+	 */
+	TourWriter(User user, Sport sport, int id) {
+		this(insert(user, sport, id), user, sport);
+	}
+
+	private TourWriter(Tour tour, User user, Sport sport) {
+		this.tour = tour;
+		this.userId = user.getId();
+		this.sportId = sport.getId();
+		em = JPA.em();
+
+		Configuration config = Play.application().configuration();
+		encoder = new TrackCodec.Encoder(EXPECTED_POINTS);
+		compact = COMPACT_STORAGE.equals(config.getString(STORAGE_KEY));
+		int batchSize;
+		if (compact) {
+			batchSize = 1;
+		} else {
+			batchSize = Objects.firstNonNull(config.getInt(BATCH_SIZE_KEY),
+					DEFAULT_BATCH_SIZE);
+		}
+		times = new long[batchSize];
+		xs = new double[batchSize];
+		ys = new double[batchSize];
+		zs = new double[batchSize];
+	}
+
+	private static Tour persist(User user, Sport sport) {
+		Tour tour = new Tour();
+		tour.setUser(user);
+		tour.setSport(sport);
+		JPA.em().persist(tour);
+		return tour;
+	}
+
+	private static Tour insert(User user, Sport sport, int id) {
+		// Persisting an entity with a preset generated ID is not possible, so
+		// the entry is inserted directly and then fetched as an entity.
+		Query q = JPA.em().createNativeQuery(INSERT_TOUR);
+		q.setParameter(1, id);
+		q.setParameter(2, user.getId());
+		q.setParameter(3, sport.getId());
+		q.executeUpdate();
+		return JPA.em().find(Tour.class, id);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the user was not found.
+	 */
+	static User findUser(String username) {
+		User user = ReferenceDataCache.findUser(username);
+		checkArgument(user != null, "User %s not found", username);
+		return user;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the sport was not found.
+	 */
+	static Sport findSport(String sportName) {
+		Sport sport = ReferenceDataCache.findSport(sportName);
+		checkArgument(sport != null, "Sport %s not found", sportName);
+		return sport;
+	}
+
+	/**
+	 * Checks whether the given points can be added to a tour.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if there are no points or if a point has no time.
+	 */
+	static void checkPoints(Collection<TimestampedPointDto> points) {
+		checkArgument(points != null && points.isEmpty() == false,
+				"Tour contains no points");
+		if (points instanceof PointSeries) {
+			// A series cannot contain points without time.
+			return;
+		}
+		for (TimestampedPointDto point : points) {
+			checkArgument(point.time != null, "Point without time");
+		}
+	}
+
+	/**
+	 * Looks for an existing tour of the given user which the tour with the
+	 * given points repeats. Must be called within a JPA transaction.
+	 * 
+	 * @return The ID of the existing tour, or absent if there is none or if
+	 *         duplicates are not detected.
+	 */
+	static Optional<Integer> findDuplicate(User user,
+			List<TimestampedPointDto> points) {
+		PointSeries series = PointSeries.copyOf(points).sortedByTime();
+		return findDuplicate(user.getId(), TrackFingerprint.of(series),
+				series.time(0));
+	}
+
+	/**
+	 * Looks for an existing tour of the given user with the given fingerprint
+	 * starting around the given time. Until the end of the transaction, other
+	 * checks of the same user and fingerprint wait for this one, so the
+	 * transaction should also write the tour if there is none.
+	 * 
+	 * @return The ID of the existing tour, or absent if there is none or if
+	 *         duplicates are not detected.
+	 * @see TrackFingerprint
+	 */
+	static Optional<Integer> findDuplicate(int userId, long fingerprint,
+			long startTime) {
+		Configuration config = Play.application().configuration();
+		if (Objects.firstNonNull(config.getBoolean(DUPLICATES_KEY), true) == false) {
+			return Optional.absent();
+		}
+		long window = Objects.firstNonNull(
+				config.getMilliseconds(DUPLICATE_WINDOW_KEY),
+				DEFAULT_DUPLICATE_WINDOW);
+
+		// Advisory locks take two integer keys, so the fingerprint is folded.
+		Query lock = JPA.em().createNativeQuery(LOCK_DUPLICATES);
+		lock.setParameter(1, userId);
+		lock.setParameter(2, (int) (fingerprint ^ (fingerprint >>> 32)));
+		lock.getSingleResult();
+
+		Query q = JPA.em().createNamedQuery(DUPLICATE_QUERY);
+		q.setParameter(USER_PARAM, userId);
+		q.setParameter(FINGERPRINT_PARAM, fingerprint);
+		q.setParameter(FROM_PARAM, new Timestamp(startTime - window));
+		q.setParameter(TO_PARAM, new Timestamp(startTime + window));
+		q.setMaxResults(1);
+		@SuppressWarnings("unchecked")
+		List<Number> ids = q.getResultList();
+		if (ids.isEmpty()) {
+			return Optional.absent();
+		}
+		return Optional.of(ids.get(0).intValue());
+	}
+
+	/**
+	 * Adds a point of the tour. The point is inserted with the next batch or
+	 * added to the compact track.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the point has no time.
+	 */
+	public void add(TimestampedPointDto pointDto) {
+		checkArgument(pointDto.time != null, "Point without time");
+		add(pointDto.time.getTime(), pointDto.x, pointDto.y, pointDto.z);
+	}
+
+	/**
+	 * Adds all points of the series, in their order.
+	 */
+	public void addAll(PointSeries points) {
+		encoder.ensureCapacity(pointCount + points.size());
+		for (int i = 0; i < points.size(); i++) {
+			add(points.time(i), points.x(i), points.y(i), points.z(i));
+		}
+	}
+
+	private void add(long time, double x, double y, double z) {
+		if (pointCount == 0 || time < startTime) {
+			startTime = time;
+			startX = x;
+			startY = y;
+			startZ = z;
+		}
+
+		encoder.add(time, x, y, z);
+		if (compact == false) {
+			buffer(time, x, y, z);
+		}
+		pointCount++;
+	}
+
+	private void buffer(long time, double x, double y, double z) {
+		times[buffered] = time;
+		xs[buffered] = x;
+		ys[buffered] = y;
+		zs[buffered] = z;
+		buffered++;
+
+		if (buffered == times.length) {
+			flush();
+		}
+	}
+
+	/**
+	 * Inserts the remaining points and completes the tour entry.
+	 *
+	 * @return The database ID of the new tour entry.
+	 * @throws IllegalArgumentException
+	 *             if no points were added to the tour.
+	 * @throws DuplicateTourException
+	 *             if the tour repeats an existing tour, in which case the
+	 *             transaction must be rolled back.
+	 */
+	public int finish() {
+		checkArgument(pointCount > 0, "Tour contains no points");
+		byte[] track = encoder.toByteArray();
+		if (compact) {
+			tour.setTrack(track);
+			buffer(startTime, startX, startY, startZ);
+		}
+		flush();
+
+		PointSeries points = TrackCodec.decode(track).sortedByTime();
+		setDerived(tour, points);
+
+		Optional<Integer> duplicate = findDuplicate(userId,
+				tour.getFingerprint(), startTime);
+		if (duplicate.isPresent()) {
+			throw new DuplicateTourException(duplicate.get());
+		}
+		registerAfterCommit();
+
+		TypedQuery<Integer> q = em.createNamedQuery(START_POINT_QUERY,
+				Integer.class);
+		q.setParameter(TOUR_PARAM, tour);
+		q.setMaxResults(1);
+		Integer startPointId = q.getSingleResult();
+
+		tour.setStartPoint(em.getReference(TimestampedPoint.class,
+				startPointId));
+		em.flush();
+
+		writePath(points);
+		writeDetails(points);
+		return tour.getId();
+	}
+
+	/**
+	 * Sets the columns of the tour derived from its points: the number of
+	 * points, the start point, the {@link TourStats} and the
+	 * {@link TrackFingerprint}.
+	 * 
+	 * @param points
+	 *            The points of the tour ordered by time, at least one.
+	 */
+	static void setDerived(Tour tour, PointSeries points) {
+		tour.setPointCount(points.size());
+		TourDataAccessUtils.setStart(tour, new Date(points.time(0)),
+				points.x(0), points.y(0), points.z(0));
+		TourDataAccessUtils.setStats(tour, TourStats.of(points));
+		tour.setFingerprint(TrackFingerprint.of(points));
+	}
+
+	/**
+	 * Adds the start point of the tour to the in-memory indexes once the
+	 * transaction commits, so that tours which are rolled back, e.g. the
+	 * first attempt of a batch which is retried tour by tour, are not added.
+	 */
+	private void registerAfterCommit() {
+		final int id = tour.getId();
+		final int sport = sportId;
+		final double lat = startY;
+		final double lon = startX;
+		final double alt = startZ;
+		em.unwrap(Session.class).getTransaction()
+				.registerSynchronization(new Synchronization() {
+					@Override
+					public void beforeCompletion() {
+					}
+
+					@Override
+					public void afterCompletion(int status) {
+						if (status == Status.STATUS_COMMITTED) {
+							StartPointIndex.register(id, sport, lat, lon, alt);
+							StartPointTiles.register(id, sport, lat, lon);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Stores the path of the tour, which is not updated along with the
+	 * entity.
+	 * 
+	 * @param points
+	 *            The points of the tour ordered by time.
+	 * @see Tour#getPath()
+	 */
+	private void writePath(PointSeries points) {
+		Query q;
+		if (compact) {
+			q = em.createNativeQuery(UPDATE_PATH);
+			q.setParameter(PATH_PARAM,
+					TourDataAccessUtils.createPathWkb(points));
+		} else {
+			q = em.createNativeQuery(UPDATE_PATH_FROM_POINTS);
+		}
+		q.setParameter(ID_PARAM, tour.getId());
+		q.executeUpdate();
+	}
+
+	/**
+	 * Stores the simplified tracks of the tour, from the finest to the
+	 * coarsest. A level is skipped if it has as many points as the previous
+	 * one, which is then used instead.
+	 * 
+	 * @param points
+	 *            The points of the tour ordered by time.
+	 */
+	private void writeDetails(PointSeries points) {
+		PointSeries previous = points;
+		for (double tolerance : DetailLevels.tolerances()) {
+			PointSeries simplified = DetailLevels.simplify(
+					points, tolerance);
+			if (simplified.size() == previous.size()) {
+				continue;
+			}
+
+			Query q = em.createNativeQuery(INSERT_DETAIL);
+			q.setParameter(1, tour.getId());
+			q.setParameter(2, tolerance);
+			q.setParameter(3, simplified.size());
+			q.setParameter(4, TrackCodec.encode(simplified));
+			q.executeUpdate();
+			previous = simplified;
+		}
+	}
+
+	/**
+	 * Inserts the buffered points with a single JDBC batch.
+	 */
+	private void flush() {
+		if (buffered == 0) {
+			return;
+		}
+
+		em.unwrap(Session.class).doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection
+						.prepareStatement(INSERT_POINT);
+				try {
+					for (int i = 0; i < buffered; i++) {
+						statement.setTimestamp(1, new Timestamp(times[i]));
+						statement.setDouble(2, xs[i]);
+						statement.setDouble(3, ys[i]);
+						statement.setDouble(4, zs[i]);
+						statement.setInt(5, TourDataAccessUtils.SRID);
+						statement.setInt(6, tour.getId());
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				} finally {
+					statement.close();
+				}
+			}
+		});
+		buffered = 0;
+	}
+}
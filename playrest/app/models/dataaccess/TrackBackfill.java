@@ -0,0 +1,219 @@
+package models.dataaccess;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import models.Tour;
+import models.dtos.PointSeries;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import play.Configuration;
+import play.Logger;
+import play.Logger.ALogger;
+import play.Play;
+import play.db.jpa.JPA;
+import play.libs.F.Function0;
+import utils.TourResponseCache;
+
+import com.google.common.base.Objects;
+
+/**
+ * Fills in the columns derived from the points of the tours stored in
+ * compact form before the columns were added to the tour entry: the path,
+ * the number of points and the {@link TourStats}. The evolutions which
+ * added the columns computed them from the point entries, but the points of
+ * compact tours are only stored in their encoded track, which cannot be
+ * read by the database.<br>
+ * The tracks are decoded in the background in batches, each in its own
+ * transaction, so that the table is not locked as a whole. Compact tours are
+ * only found by area searches and by the statistics filters once they are
+ * updated.<br>
+ * The {@link TrackFingerprint} of every tour written before fingerprints
+ * were stored is filled in as well, from its track or from its point
+ * entries, so that repeated uploads of older tours are recognized too.<br>
+ * The job is started unless disabled by
+ * {@code tours.backfill.tracks} and stops by itself once there are no tours
+ * left to update. The {@link TourResponseCache} is then cleared.
+ */
+public class TrackBackfill {
+	private static final ALogger LOG = Logger.of("application");
+
+	private static final String ENABLED_KEY = "tours.backfill.tracks";
+	private static final String BATCH_SIZE_KEY = "tours.backfill.batchSize";
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	// Tours are read in the order of their IDs, so that a track which cannot
+	// be decoded is skipped instead of being read again.
+	private static final String SELECT_TOURS =
+			"SELECT tur_id FROM tour WHERE (tur_fingerprint IS NULL " +
+				"OR tur_track IS NOT NULL " +
+				"AND (tur_path IS NULL OR tur_distance IS NULL)) " +
+			"AND tur_id > ? ORDER BY tur_id LIMIT ?";
+	private static final String SELECT_POINTS =
+			"SELECT ST_Y(tsp_point), ST_X(tsp_point) FROM timestamped_point " +
+			"WHERE tsp_tur_id = ? ORDER BY tsp_time";
+	private static final int POINTS_FETCH_SIZE = 1000;
+
+	private static ExecutorService executor;
+	private static volatile boolean running;
+
+	private TrackBackfill() {
+	}
+
+	/**
+	 * Starts the backfill in the background unless it is disabled in the
+	 * configuration.
+	 */
+	public static synchronized void start() {
+		Configuration config = Play.application().configuration();
+		if (Objects.firstNonNull(config.getBoolean(ENABLED_KEY), true) == false
+				|| running) {
+			return;
+		}
+
+		final int batchSize = Objects.firstNonNull(
+				config.getInt(BATCH_SIZE_KEY), DEFAULT_BATCH_SIZE);
+		running = true;
+		executor = Executors.newSingleThreadExecutor();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				backfill(batchSize);
+			}
+		});
+	}
+
+	/**
+	 * Stops the backfill after the current batch.
+	 */
+	public static synchronized void stop() {
+		if (running == false) {
+			return;
+		}
+
+		running = false;
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void backfill(int batchSize) {
+		LOG.info("Backfilling the tracks of compact tours.");
+		long start = System.currentTimeMillis();
+		int[] lastId = { 0 };
+		int total = 0;
+		try {
+			int read;
+			do {
+				read = backfillBatch(lastId, batchSize);
+				total += read;
+			} while (running && read > 0);
+			LOG.info("Backfilled the tracks of " + total + " tours in "
+					+ (System.currentTimeMillis() - start) + " ms.");
+		} catch (Throwable e) {
+			LOG.error("While backfilling the tracks of compact tours, after "
+					+ total + " tours.", e);
+		} finally {
+			running = false;
+			if (total > 0) {
+				// Cached responses may lack the filled in statistics.
+				TourResponseCache.instance().invalidateAll();
+			}
+		}
+	}
+
+	/**
+	 * Updates the next tours after the ID at {@code lastId[0]} and advances
+	 * it to the ID of the last tour read.
+	 *
+	 * @return The number of tours read.
+	 */
+	private static int backfillBatch(final int[] lastId, final int batchSize)
+			throws Throwable {
+		return JPA.withTransaction(new Function0<Integer>() {
+			@Override
+			public Integer apply() {
+				EntityManager em = JPA.em();
+				Query select = em.createNativeQuery(SELECT_TOURS);
+				select.setParameter(1, lastId[0]);
+				select.setParameter(2, batchSize);
+				@SuppressWarnings("unchecked")
+				List<Number> ids = select.getResultList();
+
+				for (Number row : ids) {
+					int id = row.intValue();
+					lastId[0] = id;
+					Tour tour = em.find(Tour.class, id);
+					try {
+						if (tour.getTrack() != null) {
+							backfillTrack(em, tour);
+						} else {
+							tour.setFingerprint(fingerprintPoints(em, id));
+						}
+					} catch (IllegalArgumentException e) {
+						LOG.warn("Skipping the unreadable track of tour " + id
+								+ ".", e);
+					}
+				}
+				return ids.size();
+			}
+		});
+	}
+
+	/**
+	 * Fills in the columns of a compact tour from its decoded track.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the track cannot be decoded.
+	 */
+	private static void backfillTrack(EntityManager em, Tour tour) {
+		PointSeries points = TrackCodec.decode(tour.getTrack())
+				.sortedByTime();
+		if (tour.getPointCount() == null) {
+			tour.setPointCount(points.size());
+		}
+		TourDataAccessUtils.setStats(tour, TourStats.of(points));
+		if (tour.getFingerprint() == null) {
+			tour.setFingerprint(TrackFingerprint.of(points));
+		}
+
+		Query update = em.createNativeQuery(TourWriter.UPDATE_PATH);
+		update.setParameter(TourWriter.PATH_PARAM,
+				TourDataAccessUtils.createPathWkb(points));
+		update.setParameter(TourWriter.ID_PARAM, tour.getId());
+		update.executeUpdate();
+	}
+
+	/**
+	 * @return The fingerprint of the point entries of the given tour, read
+	 *         one by one in the order of their times.
+	 */
+	private static long fingerprintPoints(EntityManager em, int id) {
+		ScrollableResults results = em.unwrap(Session.class)
+				.createSQLQuery(SELECT_POINTS).setParameter(0, id)
+				.setFetchSize(POINTS_FETCH_SIZE).setReadOnly(true)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		TrackFingerprint fingerprint = new TrackFingerprint();
+		try {
+			while (results.next()) {
+				Object[] row = results.get();
+				fingerprint.add(((Number) row[0]).doubleValue(),
+						((Number) row[1]).doubleValue());
+			}
+		} finally {
+			results.close();
+		}
+		return fingerprint.value();
+	}
+}
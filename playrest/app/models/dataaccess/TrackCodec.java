@@ -0,0 +1,183 @@
+package models.dataaccess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.List;
+
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
+
+/**
+ * Encodes the points of a tour into a compact binary track, stored in a
+ * single column of the tour entry instead of a row per point.<br>
+ * The coordinates are converted to fixed-point numbers (1e-7 degrees for
+ * {@code x} and {@code y}, 1 millimetre for {@code z}) and each value is
+ * stored as the difference to the previous point, written as a zigzag
+ * variable-length integer. Consecutive GPS samples are close to each other,
+ * so a point usually takes less than 10 bytes.<br>
+ * The header holds the number of points, so that the decoded points are
+ * read into arrays of their exact size. Tracks of the first version have no
+ * count and are still decoded.
+ */
+class TrackCodec {
+	private static final byte VERSION = 2;
+	/** The version of the tracks without a point count. */
+	private static final byte VERSION_WITHOUT_COUNT = 1;
+	/** A variable-length long takes at most 10 bytes. */
+	private static final int MAX_VAR_LONG_BYTES = 10;
+
+	private static final double XY_SCALE = 1e7;
+	private static final double Z_SCALE = 1e3;
+
+	private TrackCodec() {
+	}
+
+	static byte[] encode(List<TimestampedPointDto> points) {
+		PointSeries series = PointSeries.copyOf(points);
+		Encoder encoder = new Encoder(series.size());
+		for (int i = 0; i < series.size(); i++) {
+			encoder.add(series.time(i), series.x(i), series.y(i), series.z(i));
+		}
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Decodes the points in the order in which they were encoded.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the track was not created by this codec.
+	 */
+	static PointSeries decode(byte[] track) {
+		checkArgument(track.length > 0
+				&& (track[0] == VERSION || track[0] == VERSION_WITHOUT_COUNT),
+				"Unknown track format");
+
+		int[] position = { 1 };
+		int expectedPoints;
+		if (track[0] == VERSION) {
+			long count = readVarLong(track, position);
+			// A point takes at least four bytes.
+			checkArgument(count >= 0 && count <= track.length / 4,
+					"Invalid point count");
+			expectedPoints = (int) count;
+		} else {
+			// An upper bound, so the arrays are copied by build().
+			expectedPoints = (track.length - 1) / 4;
+		}
+		PointSeries.Builder points = new PointSeries.Builder(expectedPoints);
+		long time = 0;
+		long x = 0;
+		long y = 0;
+		long z = 0;
+		while (position[0] < track.length) {
+			time += readVarLong(track, position);
+			x += readVarLong(track, position);
+			y += readVarLong(track, position);
+			z += readVarLong(track, position);
+			points.add(time, x / XY_SCALE, y / XY_SCALE, z / Z_SCALE);
+		}
+		return points.build();
+	}
+
+	/**
+	 * Builds an encoded track one point at a time. The header is written by
+	 * {@link #toByteArray()}, once the number of points is known.
+	 */
+	static class Encoder {
+		private byte[] buffer;
+		private int length;
+		private int count;
+
+		private long time;
+		private long x;
+		private long y;
+		private long z;
+
+		/**
+		 * @param expectedPoints
+		 *            The expected number of points, used to size the buffer.
+		 */
+		Encoder(int expectedPoints) {
+			buffer = new byte[Math.max(expectedPoints, 16) * 8];
+		}
+
+		/**
+		 * Grows the buffer for the given number of points in total, so that
+		 * points added at once do not grow it repeatedly.
+		 */
+		void ensureCapacity(int expectedPoints) {
+			if (expectedPoints * 8 > buffer.length) {
+				buffer = Arrays.copyOf(buffer, expectedPoints * 8);
+			}
+		}
+
+		void add(long time, double x, double y, double z) {
+			long fixedX = Math.round(x * XY_SCALE);
+			long fixedY = Math.round(y * XY_SCALE);
+			long fixedZ = Math.round(z * Z_SCALE);
+
+			writeVarLong(time - this.time);
+			writeVarLong(fixedX - this.x);
+			writeVarLong(fixedY - this.y);
+			writeVarLong(fixedZ - this.z);
+
+			this.time = time;
+			this.x = fixedX;
+			this.y = fixedY;
+			this.z = fixedZ;
+			count++;
+		}
+
+		byte[] toByteArray() {
+			byte[] header = new byte[1 + MAX_VAR_LONG_BYTES];
+			header[0] = VERSION;
+			int headerLength = TrackCodec.writeVarLong(header, 1, count);
+
+			byte[] track = Arrays.copyOf(header, headerLength + length);
+			System.arraycopy(buffer, 0, track, headerLength, length);
+			return track;
+		}
+
+		private void writeVarLong(long value) {
+			if (length + MAX_VAR_LONG_BYTES > buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			length = TrackCodec.writeVarLong(buffer, length, value);
+		}
+	}
+
+	/**
+	 * Writes a zigzag variable-length long at the given position.
+	 *
+	 * @return The position after the written long.
+	 */
+	private static int writeVarLong(byte[] buffer, int position, long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		buffer[position++] = (byte) zigzag;
+		return position;
+	}
+
+	/**
+	 * Reads a zigzag variable-length long at {@code position[0]} and advances
+	 * the position past it.
+	 */
+	private static long readVarLong(byte[] track, int[] position) {
+		long zigzag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			checkArgument(position[0] < track.length && shift < 64,
+					"Truncated track");
+			b = track[position[0]++];
+			zigzag |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+}
@@ -0,0 +1,64 @@
+package models.dataaccess;
+
+import java.util.List;
+
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
+
+/**
+ * A compact fingerprint of a track, for recognizing exact re-uploads of the
+ * same recording. It is an exact hash, not a similarity measure: two
+ * recordings of the same route, or a recording which was trimmed, resampled
+ * or merged, generally have different fingerprints and are not recognized
+ * as duplicates.<br>
+ * The track is reduced to the sequence of geohash cells of
+ * {@link #CELL_BITS} bits it passes through, about 1.2 by 0.6 km, ignoring
+ * consecutive points in the same cell. The sequence is hashed with 64-bit
+ * FNV-1a. The fingerprint thus stays the same if the coordinates were
+ * rounded, if points were repeated or if times and altitudes differ, unless
+ * a point moves across the border of a cell. Since the times are ignored,
+ * the same route recorded twice has the same fingerprint, so the start
+ * times must be compared as well.
+ */
+class TrackFingerprint {
+	/** The number of bits of the geohash cells. */
+	static final int CELL_BITS = 30;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long hash = FNV_OFFSET_BASIS;
+	private long lastCell = -1;
+
+	/**
+	 * @param points
+	 *            The points of a track ordered by time.
+	 */
+	static long of(List<TimestampedPointDto> points) {
+		PointSeries series = PointSeries.copyOf(points);
+		TrackFingerprint fingerprint = new TrackFingerprint();
+		for (int i = 0; i < series.size(); i++) {
+			fingerprint.add(series.y(i), series.x(i));
+		}
+		return fingerprint.value();
+	}
+
+	/**
+	 * Adds the next point of the track.
+	 */
+	void add(double lat, double lon) {
+		long cell = Geohash.encodeBits(lat, lon, CELL_BITS);
+		if (cell == lastCell) {
+			return;
+		}
+		for (int shift = 0; shift < CELL_BITS; shift += 8) {
+			hash ^= (cell >>> shift) & 0xFF;
+			hash *= FNV_PRIME;
+		}
+		lastCell = cell;
+	}
+
+	long value() {
+		return hash;
+	}
+}
@@ -0,0 +1,172 @@
+package models.dtos;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.TimeZone;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+
+/**
+ * Reads the point objects of a geometry array one at a time, without creating
+ * an object per point.<br>
+ * The time of a point is either given by {@code time}, as a string in the
+ * pattern {@value TimestampedPointDto#TIME_PATTERN} or in milliseconds since
+ * the epoch, or by {@code dt}, in milliseconds since the previous point.
+ * Unknown fields are ignored.
+ */
+public class PointParser {
+	static final String TIME_FIELD = "time";
+	static final String DELTA_FIELD = "dt";
+	static final String X_FIELD = "x";
+	static final String Y_FIELD = "y";
+	static final String Z_FIELD = "z";
+
+	private final TimeZone tz;
+
+	private boolean read;
+	private long time;
+	private double x;
+	private double y;
+	private double z;
+
+	/**
+	 * @param tz
+	 *            The time zone of times which are not in the exact pattern.
+	 */
+	public PointParser(TimeZone tz) {
+		this.tz = tz;
+	}
+
+	/**
+	 * Reads the next point of the array the parser is in.
+	 *
+	 * @return {@code false} if the end of the array was reached instead.
+	 * @throws JsonMappingException
+	 *             if the next value is not a valid point.
+	 */
+	public boolean next(JsonParser jp) throws IOException {
+		JsonToken token = jp.nextToken();
+		if (token == JsonToken.END_ARRAY) {
+			return false;
+		}
+		if (token != JsonToken.START_OBJECT) {
+			throw new JsonMappingException("Expected a point object",
+					jp.getCurrentLocation());
+		}
+
+		boolean hasTime = false;
+		boolean hasDelta = false;
+		long parsedTime = 0;
+		long delta = 0;
+		x = 0;
+		y = 0;
+		z = 0;
+		while (jp.nextToken() == JsonToken.FIELD_NAME) {
+			String field = jp.getCurrentName();
+			JsonToken value = jp.nextToken();
+			if (TIME_FIELD.equals(field)) {
+				hasTime = value != JsonToken.VALUE_NULL
+						&& (value != JsonToken.VALUE_STRING || jp
+								.getTextLength() > 0);
+				if (hasTime) {
+					parsedTime = parseTime(jp);
+				}
+			} else if (DELTA_FIELD.equals(field)) {
+				hasDelta = value != JsonToken.VALUE_NULL;
+				if (hasDelta) {
+					delta = parseDelta(jp);
+				}
+			} else if (X_FIELD.equals(field)) {
+				x = parseCoordinate(jp);
+			} else if (Y_FIELD.equals(field)) {
+				y = parseCoordinate(jp);
+			} else if (Z_FIELD.equals(field)) {
+				z = parseCoordinate(jp);
+			} else {
+				jp.skipChildren();
+			}
+		}
+
+		if (hasTime) {
+			time = parsedTime;
+		} else if (hasDelta && read) {
+			time += delta;
+		} else {
+			throw new JsonMappingException("Point without time",
+					jp.getCurrentLocation());
+		}
+		read = true;
+		return true;
+	}
+
+	/**
+	 * @return The time of the last point in milliseconds since the epoch.
+	 */
+	public long time() {
+		return time;
+	}
+
+	public double x() {
+		return x;
+	}
+
+	public double y() {
+		return y;
+	}
+
+	public double z() {
+		return z;
+	}
+
+	private long parseTime(JsonParser jp) throws IOException {
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.VALUE_NUMBER_INT) {
+			return jp.getLongValue();
+		}
+		if (token != JsonToken.VALUE_STRING) {
+			throw new JsonMappingException("Expected a time",
+					jp.getCurrentLocation());
+		}
+
+		try {
+			return TimestampCodec.parse(jp.getTextCharacters(),
+					jp.getTextOffset(), jp.getTextLength(), tz);
+		} catch (ParseException e) {
+			throw new JsonMappingException("Invalid time '" + jp.getText()
+					+ "', expected format \""
+					+ TimestampedPointDto.TIME_PATTERN + "\"",
+					jp.getCurrentLocation(), e);
+		}
+	}
+
+	private static long parseDelta(JsonParser jp) throws IOException {
+		if (jp.getCurrentToken() != JsonToken.VALUE_NUMBER_INT) {
+			throw new JsonMappingException(
+					"Expected a time difference in milliseconds",
+					jp.getCurrentLocation());
+		}
+		return jp.getLongValue();
+	}
+
+	private static double parseCoordinate(JsonParser jp) throws IOException {
+		switch (jp.getCurrentToken()) {
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return jp.getDoubleValue();
+		case VALUE_NULL:
+			return 0;
+		case VALUE_STRING:
+			try {
+				return Double.parseDouble(jp.getText().trim());
+			} catch (NumberFormatException e) {
+				throw new JsonMappingException("Invalid coordinate '"
+						+ jp.getText() + "'", jp.getCurrentLocation(), e);
+			}
+		default:
+			throw new JsonMappingException("Expected a coordinate",
+					jp.getCurrentLocation());
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package models.dtos;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable series of timestamped points stored in primitive arrays, one
+ * per coordinate, instead of an object per point.<br>
+ * The series is a {@link List} of {@link TimestampedPointDto}s, but each
+ * {@link #get(int)} creates a new point, so code handling many points should
+ * use the primitive accessors instead.
+ */
+public final class PointSeries extends AbstractList<TimestampedPointDto>
+		implements RandomAccess {
+	private static final PointSeries EMPTY = new Builder(0).build();
+
+	private final long[] times;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final int size;
+
+	private PointSeries(long[] times, double[] x, double[] y, double[] z,
+			int size) {
+		this.times = times;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.size = size;
+	}
+
+	public static PointSeries of() {
+		return EMPTY;
+	}
+
+	/**
+	 * @return The given points if they already are a series, otherwise a
+	 *         series of their copies.
+	 * @throws IllegalArgumentException
+	 *             if a point has no time.
+	 */
+	public static PointSeries copyOf(List<TimestampedPointDto> points) {
+		if (points instanceof PointSeries) {
+			return (PointSeries) points;
+		}
+		Builder builder = new Builder(points.size());
+		for (TimestampedPointDto point : points) {
+			builder.add(point);
+		}
+		return builder.build();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public TimestampedPointDto get(int index) {
+		checkElementIndex(index, size);
+		return new TimestampedPointDto(new Date(times[index]), x[index],
+				y[index], z[index]);
+	}
+
+	/**
+	 * @return The time of the point in milliseconds since the epoch.
+	 */
+	public long time(int index) {
+		checkElementIndex(index, size);
+		return times[index];
+	}
+
+	public double x(int index) {
+		checkElementIndex(index, size);
+		return x[index];
+	}
+
+	public double y(int index) {
+		checkElementIndex(index, size);
+		return y[index];
+	}
+
+	public double z(int index) {
+		checkElementIndex(index, size);
+		return z[index];
+	}
+
+	public boolean isOrderedByTime() {
+		for (int i = 1; i < size; i++) {
+			if (times[i] < times[i - 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return This series if it is ordered by time, otherwise a copy ordered
+	 *         by time. Points with the same time keep their order.
+	 */
+	public PointSeries sortedByTime() {
+		if (isOrderedByTime()) {
+			return this;
+		}
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		sortByTime(order, new int[size], 0, size);
+
+		Builder builder = new Builder(size);
+		for (int i : order) {
+			builder.add(times[i], x[i], y[i], z[i]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Sorts the point indices between {@code from} and {@code to} by the
+	 * times of the points with a merge sort, which is stable, unlike the sort
+	 * of primitive arrays.
+	 *
+	 * @param buffer
+	 *            An array as long as {@code order}, for merging.
+	 */
+	private void sortByTime(int[] order, int[] buffer, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sortByTime(order, buffer, from, middle);
+		sortByTime(order, buffer, middle, to);
+		if (times[order[middle - 1]] <= times[order[middle]]) {
+			return;
+		}
+
+		System.arraycopy(order, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			// Equal times are taken from the left first.
+			if (right == to || left < middle
+					&& times[buffer[left]] <= times[buffer[right]]) {
+				order[i] = buffer[left++];
+			} else {
+				order[i] = buffer[right++];
+			}
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		// As specified by List, without creating the points.
+		int result = 1;
+		for (int i = 0; i < size; i++) {
+			result = 31 * result
+					+ TimestampedPointDto.hashCode(times[i], x[i], y[i], z[i]);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof PointSeries == false) {
+			return super.equals(obj);
+		}
+		PointSeries other = (PointSeries) obj;
+		if (size != other.size) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			// Compared like the coordinates of points.
+			if (times[i] != other.times[i]
+					|| Double.doubleToLongBits(x[i]) != Double
+							.doubleToLongBits(other.x[i])
+					|| Double.doubleToLongBits(y[i]) != Double
+							.doubleToLongBits(other.y[i])
+					|| Double.doubleToLongBits(z[i]) != Double
+							.doubleToLongBits(other.z[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a series one point at a time.
+	 */
+	public static class Builder {
+		private long[] times;
+		private double[] x;
+		private double[] y;
+		private double[] z;
+		private int size;
+
+		/**
+		 * @param expectedSize
+		 *            The expected number of points, used to size the arrays.
+		 */
+		public Builder(int expectedSize) {
+			int capacity = Math.max(expectedSize, 0);
+			times = new long[capacity];
+			x = new double[capacity];
+			y = new double[capacity];
+			z = new double[capacity];
+		}
+
+		public Builder add(long time, double x, double y, double z) {
+			if (size == times.length) {
+				int capacity = Math.max(size * 2, 16);
+				times = Arrays.copyOf(times, capacity);
+				this.x = Arrays.copyOf(this.x, capacity);
+				this.y = Arrays.copyOf(this.y, capacity);
+				this.z = Arrays.copyOf(this.z, capacity);
+			}
+			times[size] = time;
+			this.x[size] = x;
+			this.y[size] = y;
+			this.z[size] = z;
+			size++;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalArgumentException
+		 *             if the point has no time.
+		 */
+		public Builder add(TimestampedPointDto point) {
+			checkArgument(point.time != null, "Point without time");
+			return add(point.time.getTime(), point.x, point.y, point.z);
+		}
+
+		public PointSeries build() {
+			if (size == times.length) {
+				return new PointSeries(times, x, y, z, size);
+			}
+			return new PointSeries(Arrays.copyOf(times, size), Arrays.copyOf(
+					x, size), Arrays.copyOf(y, size), Arrays.copyOf(z, size),
+					size);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package models.dtos;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Reads a JSON array of point objects into a {@link PointSeries} without
+ * creating an object per point.
+ *
+ * @see PointParser
+ */
+public class PointSeriesDeserializer extends StdDeserializer<PointSeries> {
+	private static final long serialVersionUID = 1L;
+
+	public PointSeriesDeserializer() {
+		super(PointSeries.class);
+	}
+
+	@Override
+	public PointSeries deserialize(JsonParser jp, DeserializationContext ctxt)
+			throws IOException {
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw ctxt.mappingException("Expected an array of points");
+		}
+
+		PointParser points = new PointParser(ctxt.getConfig().getTimeZone());
+		PointSeries.Builder builder = new PointSeries.Builder(0);
+		while (points.next(jp)) {
+			builder.add(points.time(), points.x(), points.y(), points.z());
+		}
+		return builder.build();
+	}
+}
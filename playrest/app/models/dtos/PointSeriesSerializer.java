@@ -0,0 +1,59 @@
+package models.dtos;
+
+import static models.dtos.PointParser.DELTA_FIELD;
+import static models.dtos.PointParser.TIME_FIELD;
+import static models.dtos.PointParser.X_FIELD;
+import static models.dtos.PointParser.Y_FIELD;
+import static models.dtos.PointParser.Z_FIELD;
+
+import java.io.IOException;
+import java.util.TimeZone;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Writes a {@link PointSeries} as a JSON array of point objects, in the same
+ * format as a list of {@link TimestampedPointDto}s, directly from the arrays
+ * of the series.<br>
+ * If {@link SerializationFeature#WRITE_DATES_AS_TIMESTAMPS} is enabled, the
+ * first point has its {@code time} in milliseconds since the epoch and each
+ * following point the milliseconds since the previous point as {@code dt},
+ * which {@link PointParser} reads back.
+ */
+public class PointSeriesSerializer extends StdSerializer<PointSeries> {
+	public PointSeriesSerializer() {
+		super(PointSeries.class);
+	}
+
+	@Override
+	public void serialize(PointSeries value, JsonGenerator jgen,
+			SerializerProvider provider) throws IOException {
+		boolean millis = provider
+				.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		TimeZone tz = provider.getConfig().getTimeZone();
+		char[] buffer = new char[TimestampCodec.MAX_LENGTH];
+
+		jgen.writeStartArray();
+		for (int i = 0; i < value.size(); i++) {
+			jgen.writeStartObject();
+			if (millis == false) {
+				int length = TimestampCodec.format(value.time(i), tz, buffer);
+				jgen.writeFieldName(TIME_FIELD);
+				jgen.writeString(buffer, 0, length);
+			} else if (i == 0) {
+				jgen.writeNumberField(TIME_FIELD, value.time(i));
+			} else {
+				jgen.writeNumberField(DELTA_FIELD,
+						value.time(i) - value.time(i - 1));
+			}
+			jgen.writeNumberField(X_FIELD, value.x(i));
+			jgen.writeNumberField(Y_FIELD, value.y(i));
+			jgen.writeNumberField(Z_FIELD, value.z(i));
+			jgen.writeEndObject();
+		}
+		jgen.writeEndArray();
+	}
+}
@@ -0,0 +1,46 @@
+package models.dtos;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A JSON-annotated web map tile with the number of tours starting in each
+ * cell of a grid dividing the tile.
+ */
+public class TileDto {
+	@JsonProperty("zoom")
+	public final int zoom;
+	@JsonProperty("x")
+	public final int x;
+	@JsonProperty("y")
+	public final int y;
+	/** The number of rows and columns of the grid. */
+	@JsonProperty("gridSize")
+	public final int gridSize;
+	@JsonProperty("total")
+	public final int total;
+	/**
+	 * The cells containing start points as {@code [column, row, count]},
+	 * counted from the north-west corner of the tile.
+	 */
+	@JsonProperty("cells")
+	public final List<int[]> cells;
+
+	public TileDto(int zoom, int x, int y, int gridSize, int total,
+			List<int[]> cells) {
+		this.zoom = zoom;
+		this.x = x;
+		this.y = y;
+		this.gridSize = gridSize;
+		this.total = total;
+		this.cells = ImmutableList.copyOf(cells);
+	}
+
+	@Override
+	public String toString() {
+		return "TileDto [zoom=" + zoom + ", x=" + x + ", y=" + y
+				+ ", gridSize=" + gridSize + ", total=" + total + "]";
+	}
+}
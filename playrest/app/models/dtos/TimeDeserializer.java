@@ -0,0 +1,48 @@
+package models.dtos;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Date;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Reads the time of a single point in the pattern
+ * {@value TimestampedPointDto#TIME_PATTERN} with the {@link TimestampCodec},
+ * or in milliseconds since the epoch.
+ */
+public class TimeDeserializer extends StdDeserializer<Date> {
+	private static final long serialVersionUID = 1L;
+
+	public TimeDeserializer() {
+		super(Date.class);
+	}
+
+	@Override
+	public Date deserialize(JsonParser jp, DeserializationContext ctxt)
+			throws IOException {
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.VALUE_NUMBER_INT) {
+			return new Date(jp.getLongValue());
+		}
+		if (token != JsonToken.VALUE_STRING) {
+			throw ctxt.mappingException(Date.class, token);
+		}
+
+		String text = jp.getText().trim();
+		if (text.isEmpty()) {
+			return null;
+		}
+		try {
+			return new Date(TimestampCodec.parse(text, ctxt.getConfig()
+					.getTimeZone()));
+		} catch (ParseException e) {
+			throw ctxt.weirdStringException(text, Date.class,
+					"expected format \"" + TimestampedPointDto.TIME_PATTERN
+							+ "\"");
+		}
+	}
+}
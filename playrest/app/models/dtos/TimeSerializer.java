@@ -0,0 +1,34 @@
+package models.dtos;
+
+import java.io.IOException;
+import java.util.Date;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Writes the time of a single point in the pattern
+ * {@value TimestampedPointDto#TIME_PATTERN} with the {@link TimestampCodec},
+ * or in milliseconds since the epoch if
+ * {@link SerializationFeature#WRITE_DATES_AS_TIMESTAMPS} is enabled.
+ */
+public class TimeSerializer extends StdSerializer<Date> {
+	public TimeSerializer() {
+		super(Date.class);
+	}
+
+	@Override
+	public void serialize(Date value, JsonGenerator jgen,
+			SerializerProvider provider) throws IOException {
+		if (provider.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)) {
+			jgen.writeNumber(value.getTime());
+		} else {
+			char[] buffer = new char[TimestampCodec.MAX_LENGTH];
+			int length = TimestampCodec.format(value.getTime(), provider
+					.getConfig().getTimeZone(), buffer);
+			jgen.writeString(buffer, 0, length);
+		}
+	}
+}
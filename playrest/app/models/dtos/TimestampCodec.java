@@ -0,0 +1,237 @@
+package models.dtos;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats and parses the times of points in the pattern
+ * {@value TimestampedPointDto#TIME_PATTERN}, e.g.
+ * {@code 2009-07-10 14:56:10 +0200}, with plain arithmetic instead of a
+ * {@link SimpleDateFormat}. The methods are thread-safe and, apart from
+ * looking up the offset of the time zone, do not allocate.<br>
+ * The arithmetic uses the Gregorian calendar, so times before 1583 and after
+ * 9999, as well as times which are not in the exact pattern but are accepted
+ * by the lenient {@link SimpleDateFormat}, are handled by a
+ * {@link SimpleDateFormat} as before.
+ */
+public final class TimestampCodec {
+	/** The length of a formatted time between 1583 and 9999. */
+	public static final int LENGTH = 25;
+	/** The size of a buffer which fits any formatted time. */
+	public static final int MAX_LENGTH = 32;
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+	/** 1583-01-01 00:00:00, the first full year of the Gregorian calendar. */
+	private static final long MIN_LOCAL_MILLIS = -12212553600000L;
+	/** 9999-12-31 23:59:59.999, the last time with a four-digit year. */
+	private static final long MAX_LOCAL_MILLIS = 253402300799999L;
+	private static final int MIN_YEAR = 1583;
+
+	/** The days from 0000-03-01 to 1970-01-01. */
+	private static final long EPOCH_SHIFT = 719468;
+	private static final long DAYS_PER_ERA = 146097;
+
+	private TimestampCodec() {
+	}
+
+	/**
+	 * Formats the given time into the given buffer.
+	 *
+	 * @param buffer
+	 *            A buffer of at least {@link #MAX_LENGTH} characters.
+	 * @return The number of characters written.
+	 */
+	public static int format(long millis, TimeZone tz, char[] buffer) {
+		int offset = tz.getOffset(millis);
+		long local = millis + offset;
+		if (local < MIN_LOCAL_MILLIS || local > MAX_LOCAL_MILLIS) {
+			String formatted = fallbackFormat(tz).format(new Date(millis));
+			formatted.getChars(0, formatted.length(), buffer, 0);
+			return formatted.length();
+		}
+
+		long days = floorDiv(local, MILLIS_PER_DAY);
+		int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+
+		// The civil date of a day count, with years starting in March so
+		// that the leap day is the last day of a year.
+		long z = days + EPOCH_SHIFT;
+		long era = floorDiv(z, DAYS_PER_ERA);
+		long dayOfEra = z - era * DAYS_PER_ERA;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+				- dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra
+				- (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+		int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3
+				: shiftedMonth - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+		int seconds = millisOfDay / 1000;
+		write(buffer, 0, year, 4);
+		buffer[4] = '-';
+		write(buffer, 5, month, 2);
+		buffer[7] = '-';
+		write(buffer, 8, day, 2);
+		buffer[10] = ' ';
+		write(buffer, 11, seconds / 3600, 2);
+		buffer[13] = ':';
+		write(buffer, 14, seconds / 60 % 60, 2);
+		buffer[16] = ':';
+		write(buffer, 17, seconds % 60, 2);
+		buffer[19] = ' ';
+		// As SimpleDateFormat, the offset is truncated to minutes.
+		int offsetMinutes = offset / 60000;
+		buffer[20] = offsetMinutes < 0 ? '-' : '+';
+		offsetMinutes = Math.abs(offsetMinutes);
+		write(buffer, 21, offsetMinutes / 60 * 100 + offsetMinutes % 60, 4);
+		return LENGTH;
+	}
+
+	public static String format(long millis, TimeZone tz) {
+		char[] buffer = new char[MAX_LENGTH];
+		return new String(buffer, 0, format(millis, tz, buffer));
+	}
+
+	/**
+	 * Parses a time from the given characters. The zone offset is part of the
+	 * pattern, so the time zone is only used by the lenient fallback.
+	 *
+	 * @return The time in milliseconds since the epoch.
+	 * @throws ParseException
+	 *             if the characters are not a time.
+	 */
+	public static long parse(char[] text, int offset, int length,
+			TimeZone tz) throws ParseException {
+		if (length == LENGTH && isExact(text, offset)) {
+			int year = read(text, offset, 4);
+			int month = read(text, offset + 5, 2);
+			int day = read(text, offset + 8, 2);
+			int hour = read(text, offset + 11, 2);
+			int minute = read(text, offset + 14, 2);
+			int second = read(text, offset + 17, 2);
+			int zone = read(text, offset + 21, 4);
+			int zoneHours = zone / 100;
+			int zoneMinutes = zone % 100;
+			if (year >= MIN_YEAR && month >= 1 && month <= 12 && day >= 1
+					&& day <= daysInMonth(year, month) && hour <= 23
+					&& minute <= 59 && second <= 59 && zoneHours <= 23
+					&& zoneMinutes <= 59) {
+				long zoneMillis = (zoneHours * 60 + zoneMinutes) * 60000L;
+				if (text[offset + 20] == '-') {
+					zoneMillis = -zoneMillis;
+				}
+				return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+						+ ((hour * 60 + minute) * 60 + second) * 1000L
+						- zoneMillis;
+			}
+		}
+
+		return fallbackFormat(tz).parse(new String(text, offset, length))
+				.getTime();
+	}
+
+	public static long parse(String text, TimeZone tz) throws ParseException {
+		return parse(text.toCharArray(), 0, text.length(), tz);
+	}
+
+	/**
+	 * @return {@code true} if the characters have the layout of the pattern.
+	 */
+	private static boolean isExact(char[] text, int offset) {
+		for (int i = 0; i < LENGTH; i++) {
+			char c = text[offset + i];
+			boolean valid;
+			switch (i) {
+			case 4:
+			case 7:
+				valid = c == '-';
+				break;
+			case 10:
+			case 19:
+				valid = c == ' ';
+				break;
+			case 13:
+			case 16:
+				valid = c == ':';
+				break;
+			case 20:
+				valid = c == '+' || c == '-';
+				break;
+			default:
+				valid = c >= '0' && c <= '9';
+			}
+			if (valid == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The days from 1970-01-01 to the given date.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		// Years start in March, see format().
+		long y = month <= 2 ? year - 1 : year;
+		long era = floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * DAYS_PER_ERA + dayOfEra - EPOCH_SHIFT;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			boolean leap = year % 4 == 0
+					&& (year % 100 != 0 || year % 400 == 0);
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	private static void write(char[] buffer, int offset, int value,
+			int digits) {
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private static int read(char[] text, int offset, int digits) {
+		int value = 0;
+		for (int i = offset; i < offset + digits; i++) {
+			value = value * 10 + text[i] - '0';
+		}
+		return value;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long quotient = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			quotient--;
+		}
+		return quotient;
+	}
+
+	private static DateFormat fallbackFormat(TimeZone tz) {
+		DateFormat format = new SimpleDateFormat(
+				TimestampedPointDto.TIME_PATTERN, Locale.ROOT);
+		format.setTimeZone(tz);
+		return format;
+	}
+}
@@ -5,16 +5,20 @@ import java.util.Date;
 import models.TimestampedPoint;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * A JSON-annotated DTO representation of the {@link TimestampedPoint} entity.
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class TimestampedPointDto {
+	/** The format of the times of points in JSON. */
+	public static final String TIME_PATTERN = "yyyy-MM-dd HH:mm:ss Z";
 	
+	@JsonSerialize(using = TimeSerializer.class)
 	public final Date time;
 	public final double x;
 	public final double y;
@@ -23,10 +27,7 @@ public class TimestampedPointDto {
 	@JsonCreator
 	public TimestampedPointDto(
 			@JsonProperty("time")
-			@JsonFormat(
-				shape = JsonFormat.Shape.STRING,
-				pattern="yyyy-MM-dd HH:mm:ss Z"
-			)
+			@JsonDeserialize(using = TimeDeserializer.class)
 			Date timestamp,
 			@JsonProperty("x") double x,
 			@JsonProperty("y") double y,
@@ -40,10 +41,22 @@ public class TimestampedPointDto {
 	
 	@Override
 	public int hashCode() {
+		return hash((time == null) ? 0 : time.hashCode(), x, y, z);
+	}
+	
+	/**
+	 * @return The hash code of a point with the given time in milliseconds
+	 *         and coordinates, as used by {@link PointSeries}.
+	 */
+	static int hashCode(long time, double x, double y, double z) {
+		// As Date#hashCode()
+		return hash((int) (time ^ (time >>> 32)), x, y, z);
+	}
+	
+	private static int hash(int timeHash, double x, double y, double z) {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result
-				+ ((time == null) ? 0 : time.hashCode());
+		result = prime * result + timeHash;
 		long temp;
 		temp = Double.doubleToLongBits(x);
 		result = prime * result + (int) (temp ^ (temp >>> 32));
@@ -0,0 +1,45 @@
+package models.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A JSON-annotated outcome of creating a single tour in a batch. Holds either
+ * the ID of the created tour, the ID of the existing tour which it
+ * duplicates, or the reason why it was not created.
+ */
+@JsonInclude(Include.NON_NULL)
+public class TourCreationResultDto {
+	@JsonProperty("id")
+	public final Integer id;
+	/** {@code true} if the tour was not created since it already exists. */
+	@JsonProperty("duplicate")
+	public final Boolean duplicate;
+	@JsonProperty("error")
+	public final String error;
+
+	private TourCreationResultDto(Integer id, Boolean duplicate, String error) {
+		this.id = id;
+		this.duplicate = duplicate;
+		this.error = error;
+	}
+
+	public static TourCreationResultDto created(int id) {
+		return new TourCreationResultDto(id, null, null);
+	}
+
+	public static TourCreationResultDto duplicate(int existingId) {
+		return new TourCreationResultDto(existingId, true, null);
+	}
+
+	public static TourCreationResultDto failed(String error) {
+		return new TourCreationResultDto(null, null, error);
+	}
+
+	@Override
+	public String toString() {
+		return "TourCreationResultDto [id=" + id + ", duplicate=" + duplicate
+				+ ", error=" + error + "]";
+	}
+}
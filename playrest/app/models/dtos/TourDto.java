@@ -6,8 +6,11 @@ import models.Tour;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.collect.ImmutableList;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * A JSON-annotated DTO representation of the {@link Tour} entity.
@@ -18,28 +21,73 @@ public class TourDto {
 	public final String username;
 	@JsonProperty("sport")
 	public final String sportName;
+	/**
+	 * The points of the tour, held in primitive arrays and written to and
+	 * read from JSON without an object per point.
+	 */
 	@JsonProperty("geometry")
-	public final List<TimestampedPointDto> points;
+	@JsonSerialize(using = PointSeriesSerializer.class)
+	public final PointSeries points;
+	/**
+	 * The distance in metres of the start point from a searched location.
+	 * Only set in the results of nearest tour searches.
+	 */
+	@JsonProperty("distance")
+	@JsonInclude(Include.NON_NULL)
+	public final Double distance;
+	/**
+	 * The statistics computed when the tour was written. Only set for stored
+	 * tours, ignored when a tour is created.
+	 */
+	@JsonProperty("stats")
+	@JsonInclude(Include.NON_NULL)
+	public final TourStatsDto stats;
 	
 	@JsonCreator
 	public TourDto(
 			@JsonProperty("creator") String username,
 			@JsonProperty("sport") String sportName,
-			@JsonProperty("geometry") List<TimestampedPointDto> points
+			@JsonProperty("geometry")
+			@JsonDeserialize(using = PointSeriesDeserializer.class)
+			List<TimestampedPointDto> points
 			) {
+		this(username, sportName, points, null, null);
+	}
+
+	private TourDto(String username, String sportName,
+			List<TimestampedPointDto> points, TourStatsDto stats,
+			Double distance) {
 		this.username = username;
 		this.sportName = sportName;
-		this.points = ImmutableList.<TimestampedPointDto>builder()
-				.addAll(points).build();
+		this.points = PointSeries.copyOf(points);
+		this.stats = stats;
+		this.distance = distance;
+	}
+
+	/**
+	 * @return A copy of this tour with the given distance.
+	 */
+	public TourDto withDistance(double distance) {
+		return new TourDto(username, sportName, points, stats, distance);
+	}
+
+	/**
+	 * @return A copy of this tour with the given statistics.
+	 */
+	public TourDto withStats(TourStatsDto stats) {
+		return new TourDto(username, sportName, points, stats, distance);
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		result = prime * result
+				+ ((distance == null) ? 0 : distance.hashCode());
 		result = prime * result + ((points == null) ? 0 : points.hashCode());
 		result = prime * result
 				+ ((sportName == null) ? 0 : sportName.hashCode());
+		result = prime * result + ((stats == null) ? 0 : stats.hashCode());
 		result = prime * result
 				+ ((username == null) ? 0 : username.hashCode());
 		return result;
@@ -54,6 +102,11 @@ public class TourDto {
 		if (getClass() != obj.getClass())
 			return false;
 		TourDto other = (TourDto) obj;
+		if (distance == null) {
+			if (other.distance != null)
+				return false;
+		} else if (!distance.equals(other.distance))
+			return false;
 		if (points == null) {
 			if (other.points != null)
 				return false;
@@ -64,6 +117,11 @@ public class TourDto {
 				return false;
 		} else if (!sportName.equals(other.sportName))
 			return false;
+		if (stats == null) {
+			if (other.stats != null)
+				return false;
+		} else if (!stats.equals(other.stats))
+			return false;
 		if (username == null) {
 			if (other.username != null)
 				return false;
@@ -75,6 +133,7 @@ public class TourDto {
 	@Override
 	public String toString() {
 		return "TourDto [username=" + username + ", sportName=" + sportName
-				+ ", points=" + points + "]";
+				+ ", points=" + points + ", stats=" + stats + ", distance="
+				+ distance + "]";
 	}
 }
@@ -0,0 +1,88 @@
+package models.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A JSON-annotated representation of the statistics computed for a tour when
+ * it is written. Distances are in metres, durations in seconds and speeds in
+ * metres per second.
+ */
+@JsonInclude(Include.NON_NULL)
+public class TourStatsDto {
+	@JsonProperty("distance")
+	public final double distance;
+	@JsonProperty("duration")
+	public final double duration;
+	@JsonProperty("elevationGain")
+	public final double elevationGain;
+	/** {@code null} if the tour has no duration. */
+	@JsonProperty("averageSpeed")
+	public final Double averageSpeed;
+	@JsonProperty("maxSpeed")
+	public final double maxSpeed;
+
+	public TourStatsDto(double distance, double duration,
+			double elevationGain, Double averageSpeed, double maxSpeed) {
+		this.distance = distance;
+		this.duration = duration;
+		this.elevationGain = elevationGain;
+		this.averageSpeed = averageSpeed;
+		this.maxSpeed = maxSpeed;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((averageSpeed == null) ? 0 : averageSpeed.hashCode());
+		long temp;
+		temp = Double.doubleToLongBits(distance);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(duration);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(elevationGain);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(maxSpeed);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		TourStatsDto other = (TourStatsDto) obj;
+		if (averageSpeed == null) {
+			if (other.averageSpeed != null)
+				return false;
+		} else if (!averageSpeed.equals(other.averageSpeed))
+			return false;
+		if (Double.doubleToLongBits(distance) != Double
+				.doubleToLongBits(other.distance))
+			return false;
+		if (Double.doubleToLongBits(duration) != Double
+				.doubleToLongBits(other.duration))
+			return false;
+		if (Double.doubleToLongBits(elevationGain) != Double
+				.doubleToLongBits(other.elevationGain))
+			return false;
+		if (Double.doubleToLongBits(maxSpeed) != Double
+				.doubleToLongBits(other.maxSpeed))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "TourStatsDto [distance=" + distance + ", duration=" + duration
+				+ ", elevationGain=" + elevationGain + ", averageSpeed="
+				+ averageSpeed + ", maxSpeed=" + maxSpeed + "]";
+	}
+}
@@ -0,0 +1,73 @@
+package models.dtos;
+
+import models.Tour;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A JSON-annotated summary of a {@link Tour}, containing its start point, the
+ * number of its points and its statistics instead of the whole geometry.
+ */
+@JsonInclude(Include.NON_NULL)
+public class TourSummaryDto {
+	@JsonProperty("id")
+	public final int id;
+	@JsonProperty("creator")
+	public final String username;
+	@JsonProperty("sport")
+	public final String sportName;
+	@JsonProperty("start")
+	public final TimestampedPointDto startPoint;
+	@JsonProperty("pointCount")
+	public final Integer pointCount;
+	/** {@code null} for tours stored before statistics were computed. */
+	@JsonProperty("stats")
+	public final TourStatsDto stats;
+	/**
+	 * The distance in metres of the start point from a searched location.
+	 * Only set in the results of nearest tour searches.
+	 */
+	@JsonProperty("distance")
+	public final Double distance;
+
+	public TourSummaryDto(int id, String username, String sportName,
+			TimestampedPointDto startPoint, Integer pointCount) {
+		this(id, username, sportName, startPoint, pointCount, null);
+	}
+
+	public TourSummaryDto(int id, String username, String sportName,
+			TimestampedPointDto startPoint, Integer pointCount,
+			TourStatsDto stats) {
+		this(id, username, sportName, startPoint, pointCount, stats, null);
+	}
+
+	private TourSummaryDto(int id, String username, String sportName,
+			TimestampedPointDto startPoint, Integer pointCount,
+			TourStatsDto stats, Double distance) {
+		this.id = id;
+		this.username = username;
+		this.sportName = sportName;
+		this.startPoint = startPoint;
+		this.pointCount = pointCount;
+		this.stats = stats;
+		this.distance = distance;
+	}
+
+	/**
+	 * @return A copy of this summary with the given distance.
+	 */
+	public TourSummaryDto withDistance(double distance) {
+		return new TourSummaryDto(id, username, sportName, startPoint,
+				pointCount, stats, distance);
+	}
+
+	@Override
+	public String toString() {
+		return "TourSummaryDto [id=" + id + ", username=" + username
+				+ ", sportName=" + sportName + ", startPoint=" + startPoint
+				+ ", pointCount=" + pointCount + ", stats=" + stats
+				+ ", distance=" + distance + "]";
+	}
+}
@@ -0,0 +1,95 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import play.libs.F.Callback0;
+import play.mvc.Results.Chunks;
+
+/**
+ * An output stream writing to a chunked response. The written bytes are
+ * buffered and sent as a chunk whenever the buffer is full.<br>
+ * {@link Chunks.Out} has no backpressure: writing never blocks, and chunks
+ * which the client has not received yet are queued in memory. The response
+ * is only released gradually if the client reads as fast as it is written,
+ * while for a slow client the whole response may end up in memory.<br>
+ * Once the client disconnects, writing fails with an {@link IOException}, so
+ * that whoever produces the content can stop.
+ */
+public class ChunkOutputStream extends OutputStream {
+	private final Chunks.Out<byte[]> out;
+	private final byte[] buffer;
+	private int length;
+	private volatile boolean disconnected;
+	private boolean closed;
+
+	/**
+	 * @param chunkSize
+	 *            The size of the sent chunks in bytes.
+	 */
+	public ChunkOutputStream(Chunks.Out<byte[]> out, int chunkSize) {
+		this.out = out;
+		this.buffer = new byte[chunkSize];
+		out.onDisconnected(new Callback0() {
+			@Override
+			public void invoke() {
+				disconnected = true;
+			}
+		});
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (length == buffer.length) {
+			flush();
+		}
+		buffer[length++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (length == buffer.length) {
+				flush();
+			}
+			int count = Math.min(len, buffer.length - length);
+			System.arraycopy(b, off, buffer, length, count);
+			length += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Sends the buffered bytes as a chunk.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (disconnected) {
+			throw new IOException("Client disconnected");
+		}
+		if (length > 0) {
+			out.write(Arrays.copyOf(buffer, length));
+			length = 0;
+		}
+	}
+
+	/**
+	 * Sends the buffered bytes and ends the response.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (disconnected == false) {
+				flush();
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
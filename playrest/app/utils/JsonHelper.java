@@ -1,21 +1,111 @@
 package utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
+import models.dtos.PointParser;
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
 import models.dtos.TourDto;
+import models.dtos.TourSummaryDto;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Provides static methods for conversion between DTOs and their JSON representations.
+ * <br>
+ * The mappers are never reconfigured once created. Time zones and other
+ * per-request settings are applied through immutable {@link ObjectWriter}s,
+ * which are cached per time zone, so that concurrent requests can be
+ * serialized without locking.
  */
-public class JsonHelper {	
-	static final ObjectMapper MAPPER = new ObjectMapper();
-	
+public class JsonHelper {
+	// Times are written as text unless TimeFormat.MILLIS is requested.
+	static final ObjectMapper MAPPER = new ObjectMapper()
+			.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+	private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(
+			new SmileFactory())
+			.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+	/**
+	 * The time zone of the lenient parsing of times, as in the readers of the
+	 * mappers.
+	 */
+	private static final TimeZone READ_TIME_ZONE = TimeZone.getTimeZone("GMT");
+	private static final ObjectReader TOUR_READER =
+			MAPPER.reader(TourDto.class);
+
+	/**
+	 * The maximum number of cached writers. There is a writer per format,
+	 * time format and time zone, and only a few time zones are in use.
+	 */
+	private static final int MAX_WRITERS = 1024;
+	private static final Cache<String, ObjectWriter> WRITERS = CacheBuilder
+			.newBuilder().maximumSize(MAX_WRITERS).build();
+
+	private static final String CREATOR_FIELD = "creator";
+	private static final String SPORT_FIELD = "sport";
+	private static final String GEOMETRY_FIELD = "geometry";
+	private static final String DISTANCE_FIELD = "distance";
+	private static final String STATS_FIELD = "stats";
+
+	/**
+	 * Receives the contents of a tour as they are read by
+	 * {@link JsonHelper#readTour(InputStream, TourHandler)}.
+	 */
+	public interface TourHandler {
+		/**
+		 * Called once, before the first point is received.
+		 */
+		void onHeader(String username, String sportName);
+
+		/**
+		 * Called for each point of the tour geometry in the order of
+		 * appearance.
+		 */
+		void onPoint(TimestampedPointDto point);
+	}
+
+	/**
+	 * Receives the tours read by
+	 * {@link JsonHelper#readTours(InputStream, ToursHandler)}.
+	 */
+	public interface ToursHandler {
+		/**
+		 * Called for each successfully read tour.
+		 */
+		void onTour(TourDto tour);
+
+		/**
+		 * Called for each well-formed JSON value which could not be
+		 * interpreted as a tour.
+		 */
+		void onInvalidTour(String message);
+	}
+
 	public static TourDto jsonToTour(JsonNode json) throws JsonProcessingException {
 		TourDto tourDto;
 		if (json.isArray()) {
@@ -29,15 +119,397 @@ public class JsonHelper {
 		}
 		return tourDto;
 	}
-	
+
+	/**
+	 * Reads a single tour from the given stream without building the whole
+	 * tour in memory. Points are passed on to the {@code handler} one by one
+	 * as they are parsed.<br>
+	 * Since the user and the sport of the tour are needed before any of the
+	 * points can be handled, the {@code creator} and {@code sport} fields must
+	 * precede the {@code geometry} field. The stream may contain a JSON array
+	 * with a single tour.<br>
+	 * The stream is closed when this method returns.
+	 *
+	 * @throws JsonProcessingException
+	 *             if the content is not a valid tour.
+	 */
+	public static void readTour(InputStream in, TourHandler handler)
+			throws IOException {
+		readTour(in, WireFormat.JSON, handler);
+	}
+
+	/**
+	 * Reads a single tour in the given format from the given stream.
+	 *
+	 * @see #readTour(InputStream, TourHandler)
+	 */
+	public static void readTour(InputStream in, WireFormat format,
+			TourHandler handler) throws IOException {
+		JsonParser parser = mapper(format).getFactory().createParser(in);
+		try {
+			JsonToken token = parser.nextToken();
+			boolean array = token == JsonToken.START_ARRAY;
+			if (array) {
+				token = parser.nextToken();
+				if (token == JsonToken.END_ARRAY) {
+					throw new JsonParseException("Empty JSON array",
+							parser.getCurrentLocation());
+				}
+			}
+			readTour(parser, format, handler);
+			if (array && parser.nextToken() != JsonToken.END_ARRAY) {
+				throw new JsonMappingException(
+						"Multiple tours received, use /tours/batch",
+						parser.getCurrentLocation());
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Reads a single tour from the given stream into a DTO.
+	 *
+	 * @see #readTour(InputStream, TourHandler)
+	 */
+	public static TourDto readTour(InputStream in) throws IOException {
+		return readTour(in, WireFormat.JSON);
+	}
+
+	/**
+	 * Reads a single tour in the given format from the given stream into a
+	 * DTO.
+	 *
+	 * @see #readTour(InputStream, TourHandler)
+	 */
+	public static TourDto readTour(InputStream in, WireFormat format)
+			throws IOException {
+		final String[] header = new String[2];
+		final PointSeries.Builder points = new PointSeries.Builder(0);
+		readTour(in, format, new TourHandler() {
+			@Override
+			public void onHeader(String username, String sportName) {
+				header[0] = username;
+				header[1] = sportName;
+			}
+
+			@Override
+			public void onPoint(TimestampedPointDto point) {
+				points.add(point);
+			}
+		});
+		return new TourDto(header[0], header[1], points.build());
+	}
+
+	/**
+	 * Reads a sequence of tours from the given stream, one at a time. The
+	 * stream may contain either a JSON array of tours or tours separated by
+	 * whitespace, e.g. newline-delimited JSON.<br>
+	 * A value which is not a valid tour is reported to the {@code handler}
+	 * and reading continues with the next value.<br>
+	 * The stream is closed when this method returns.
+	 *
+	 * @throws JsonParseException
+	 *             if the content is not well-formed JSON. All tours before
+	 *             the error have already been passed to the {@code handler}.
+	 */
+	public static void readTours(InputStream in, ToursHandler handler)
+			throws IOException {
+		JsonParser parser = MAPPER.getFactory().createParser(in);
+		try {
+			JsonToken token = parser.nextToken();
+			JsonToken end = null;
+			if (token == JsonToken.START_ARRAY) {
+				end = JsonToken.END_ARRAY;
+				token = parser.nextToken();
+			}
+			while (token != end) {
+				if (token == null) {
+					throw new JsonParseException("Unexpected end of input",
+							parser.getCurrentLocation());
+				}
+				// Read the value as a tree first, so that the parser stays
+				// positioned at the end of it even if the mapping fails.
+				JsonNode node = parser.readValueAsTree();
+				try {
+					handler.onTour(TOUR_READER.<TourDto> readValue(node));
+				} catch (JsonMappingException e) {
+					handler.onInvalidTour(e.getOriginalMessage());
+				}
+				token = parser.nextToken();
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Reads the tour object at the current token of the {@code parser}. When
+	 * this method returns, the parser is positioned at the end of the object.
+	 * In the {@link WireFormat#POLYLINE} format the geometry is a string
+	 * instead of an array of points.
+	 */
+	private static void readTour(JsonParser parser, WireFormat format,
+			TourHandler handler) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw new JsonMappingException("Expected a tour object",
+					parser.getCurrentLocation());
+		}
+
+		String username = null;
+		String sportName = null;
+		boolean geometryRead = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if (CREATOR_FIELD.equals(field)) {
+				username = parser.getValueAsString();
+			} else if (SPORT_FIELD.equals(field)) {
+				sportName = parser.getValueAsString();
+			} else if (GEOMETRY_FIELD.equals(field)) {
+				if (username == null || sportName == null) {
+					throw new JsonMappingException(
+							"'creator' and 'sport' must precede 'geometry'",
+							parser.getCurrentLocation());
+				}
+				if (format == WireFormat.POLYLINE) {
+					readPolyline(parser, username, sportName, handler);
+				} else {
+					readPoints(parser, username, sportName, handler);
+				}
+				geometryRead = true;
+			} else {
+				parser.skipChildren();
+			}
+		}
+
+		if (geometryRead == false) {
+			throw new JsonMappingException("Missing 'geometry'",
+					parser.getCurrentLocation());
+		}
+	}
+
+	private static void readPoints(JsonParser parser, String username,
+			String sportName, TourHandler handler) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw new JsonMappingException("Expected an array of points",
+					parser.getCurrentLocation());
+		}
+		handler.onHeader(username, sportName);
+		PointParser points = new PointParser(READ_TIME_ZONE);
+		while (points.next(parser)) {
+			handler.onPoint(new TimestampedPointDto(new Date(points.time()),
+					points.x(), points.y(), points.z()));
+		}
+	}
+
+	private static void readPolyline(JsonParser parser, String username,
+			String sportName, TourHandler handler) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+			throw new JsonMappingException("Expected an encoded polyline",
+					parser.getCurrentLocation());
+		}
+		List<TimestampedPointDto> points;
+		try {
+			points = Polyline.decode(parser.getText());
+		} catch (IllegalArgumentException e) {
+			throw new JsonMappingException(e.getMessage(),
+					parser.getCurrentLocation(), e);
+		}
+		handler.onHeader(username, sportName);
+		for (TimestampedPointDto point : points) {
+			handler.onPoint(point);
+		}
+	}
+
+	/**
+	 * Writes a JSON array of tours to a stream one tour at a time, without
+	 * holding the whole array in memory. The array is ended by
+	 * {@link #close()}.
+	 */
+	public static class TourArrayWriter implements Closeable {
+		private final JsonGenerator generator;
+		private final ObjectWriter writer;
+
+		private TourArrayWriter(OutputStream out, TimeZone tz,
+				TimeFormat times) throws IOException {
+			generator = MAPPER.getFactory().createGenerator(out);
+			// The generator and the stream buffer the output themselves.
+			writer = writer(WireFormat.JSON, tz, times).without(
+					SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+			generator.writeStartArray();
+		}
+
+		public void write(TourDto tourDto) throws IOException {
+			writer.writeValue(generator, tourDto);
+		}
+
+		/**
+		 * Ends the array and closes the underlying stream.
+		 */
+		@Override
+		public void close() throws IOException {
+			generator.writeEndArray();
+			generator.close();
+		}
+	}
+
+	public static TourArrayWriter tourArrayWriter(OutputStream out,
+			TimeZone tz) throws IOException {
+		return tourArrayWriter(out, tz, TimeFormat.TEXT);
+	}
+
+	public static TourArrayWriter tourArrayWriter(OutputStream out,
+			TimeZone tz, TimeFormat times) throws IOException {
+		return new TourArrayWriter(out, tz, times);
+	}
+
 	public static JsonNode tourToJson(TourDto tourDto, TimeZone tz) {
-		JsonNode json = MAPPER.setTimeZone(tz).valueToTree(tourDto);
-		return json;
+		return toTree(writer(WireFormat.JSON, tz, TimeFormat.TEXT), tourDto);
+	}
+
+	/**
+	 * @return The tour encoded in the given format, as it is sent in a
+	 *         response. Text formats are encoded in UTF-8.
+	 */
+	public static byte[] tourToBytes(TourDto tourDto, TimeZone tz,
+			WireFormat format) throws JsonProcessingException {
+		return tourToBytes(tourDto, tz, format, TimeFormat.TEXT);
+	}
+
+	/**
+	 * @return The tour encoded in the given format with times in the given
+	 *         format. The {@link WireFormat#POLYLINE} format has its own
+	 *         times in the geometry.
+	 */
+	public static byte[] tourToBytes(TourDto tourDto, TimeZone tz,
+			WireFormat format, TimeFormat times)
+			throws JsonProcessingException {
+		ObjectWriter writer = writer(format, tz, times);
+		if (format == WireFormat.POLYLINE) {
+			return polylineTourToBytes(writer, tourDto);
+		}
+		return writer.writeValueAsBytes(tourDto);
+	}
+
+	/**
+	 * Writes the fields of the tour one by one, in the order of
+	 * {@link TourDto}, with the geometry encoded as a {@link Polyline}, so
+	 * that the points are not serialized first.
+	 */
+	private static byte[] polylineTourToBytes(ObjectWriter writer,
+			TourDto tourDto) throws JsonProcessingException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+			generator.writeStartObject();
+			generator.writeStringField(CREATOR_FIELD, tourDto.username);
+			generator.writeStringField(SPORT_FIELD, tourDto.sportName);
+			generator.writeStringField(GEOMETRY_FIELD,
+					Polyline.encode(tourDto.points));
+			if (tourDto.distance != null) {
+				generator.writeNumberField(DISTANCE_FIELD, tourDto.distance);
+			}
+			if (tourDto.stats != null) {
+				generator.writeFieldName(STATS_FIELD);
+				writer.writeValue(generator, tourDto.stats);
+			}
+			generator.writeEndObject();
+			generator.close();
+		} catch (JsonProcessingException e) {
+			throw e;
+		} catch (IOException e) {
+			// Not thrown by a ByteArrayOutputStream.
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
 	}
-	
+
 	public static JsonNode toursToJson(List<TourDto> tourDtos, TimeZone tz) {
-		JsonNode json = MAPPER.setTimeZone(tz).valueToTree(tourDtos);
-		return json;
+		return toTree(writer(WireFormat.JSON, tz, TimeFormat.TEXT), tourDtos);
+	}
+
+	public static JsonNode summaryToJson(TourSummaryDto summary, TimeZone tz) {
+		return toTree(writer(WireFormat.JSON, tz, TimeFormat.TEXT), summary);
+	}
+
+	/**
+	 * @return The summary encoded in the given format. Summaries have no
+	 *         geometry, so they are the same in the {@link WireFormat#POLYLINE}
+	 *         and the {@link WireFormat#JSON} format.
+	 */
+	public static byte[] summaryToBytes(TourSummaryDto summary, TimeZone tz,
+			WireFormat format) throws JsonProcessingException {
+		return summaryToBytes(summary, tz, format, TimeFormat.TEXT);
+	}
+
+	public static byte[] summaryToBytes(TourSummaryDto summary, TimeZone tz,
+			WireFormat format, TimeFormat times)
+			throws JsonProcessingException {
+		return writer(format, tz, times).writeValueAsBytes(summary);
+	}
+
+	public static JsonNode summariesToJson(List<TourSummaryDto> summaries,
+			TimeZone tz) {
+		return summariesToJson(summaries, tz, TimeFormat.TEXT);
+	}
+
+	public static JsonNode summariesToJson(List<TourSummaryDto> summaries,
+			TimeZone tz, TimeFormat times) {
+		return toTree(writer(WireFormat.JSON, tz, times), summaries);
+	}
+
+	private static ObjectMapper mapper(WireFormat format) {
+		return format == WireFormat.SMILE ? SMILE_MAPPER : MAPPER;
+	}
+
+	/**
+	 * @return The cached writer for the given settings. Time zones are
+	 *         identified by their ID. With {@link TimeFormat#MILLIS} the
+	 *         times do not depend on the time zone, so it is ignored and all
+	 *         time zones share a writer.
+	 */
+	static ObjectWriter writer(final WireFormat format, final TimeZone tz,
+			final TimeFormat times) {
+		String key = format + "/" + times;
+		if (times != TimeFormat.MILLIS) {
+			key += "/" + tz.getID();
+		}
+		try {
+			return WRITERS.get(key, new Callable<ObjectWriter>() {
+				@Override
+				public ObjectWriter call() {
+					ObjectWriter writer = mapper(format).writer();
+					if (times == TimeFormat.MILLIS) {
+						return writer
+								.with(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+					}
+					// A copy, which cannot be changed by the caller.
+					return writer.with((TimeZone) tz.clone());
+				}
+			});
+		} catch (ExecutionException e) {
+			// Not thrown, creating a writer does not fail.
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Converts a value to a tree with the given writer, as
+	 * {@link ObjectMapper#valueToTree(Object)} does with the configuration of
+	 * the mapper.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value cannot be serialized.
+	 */
+	private static JsonNode toTree(ObjectWriter writer, Object value) {
+		TokenBuffer buffer = new TokenBuffer(MAPPER);
+		try {
+			writer.writeValue(buffer, value);
+			return MAPPER.readTree(buffer.asParser());
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
 	}
 
 }
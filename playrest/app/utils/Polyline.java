@@ -0,0 +1,107 @@
+package utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
+
+/**
+ * Encodes the geometry of a tour into a string in the encoded polyline format
+ * of map services, extended with the altitude and the time of each point.<br>
+ * Each point is written as four values: the latitude ({@code y}) and the
+ * longitude ({@code x}) in 1e-6 degrees, as in the polyline6 variant of the
+ * format, the altitude ({@code z}) in decimetres and the time in seconds. Each
+ * value is the difference to the previous point, written as a sequence of
+ * printable characters carrying five bits each. A point usually takes about a
+ * dozen characters, compared to some hundred in plain JSON.<br>
+ * The encoding is lossy within the stated precisions. Times are truncated to
+ * seconds, like in plain JSON.
+ */
+public class Polyline {
+	private static final double XY_SCALE = 1e6;
+	private static final double Z_SCALE = 1e1;
+
+	private static final int VALUES_PER_POINT = 4;
+	/** Added to each five bits to make them a printable character. */
+	private static final int CHAR_OFFSET = 63;
+	/** Marks a chunk which is followed by further chunks of the value. */
+	private static final int CONTINUATION = 0x20;
+	private static final int CHUNK_MASK = 0x1F;
+	private static final int CHUNK_BITS = 5;
+
+	private Polyline() {
+	}
+
+	public static String encode(List<TimestampedPointDto> points) {
+		PointSeries series = PointSeries.copyOf(points);
+		StringBuilder encoded = new StringBuilder(series.size() * 16);
+		long[] previous = new long[VALUES_PER_POINT];
+		long[] current = new long[VALUES_PER_POINT];
+		for (int p = 0; p < series.size(); p++) {
+			current[0] = Math.round(series.y(p) * XY_SCALE);
+			current[1] = Math.round(series.x(p) * XY_SCALE);
+			current[2] = Math.round(series.z(p) * Z_SCALE);
+			current[3] = TimeUnit.MILLISECONDS.toSeconds(series.time(p));
+			for (int i = 0; i < VALUES_PER_POINT; i++) {
+				writeValue(encoded, current[i] - previous[i]);
+				previous[i] = current[i];
+			}
+		}
+		return encoded.toString();
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the string is not an encoded geometry.
+	 */
+	public static PointSeries decode(String encoded) {
+		PointSeries.Builder points = new PointSeries.Builder(
+				encoded.length() / 8);
+		int[] position = { 0 };
+		long[] values = new long[VALUES_PER_POINT];
+		while (position[0] < encoded.length()) {
+			for (int i = 0; i < VALUES_PER_POINT; i++) {
+				values[i] += readValue(encoded, position);
+			}
+			points.add(TimeUnit.SECONDS.toMillis(values[3]), values[1]
+					/ XY_SCALE, values[0] / XY_SCALE, values[2] / Z_SCALE);
+		}
+		return points.build();
+	}
+
+	private static void writeValue(StringBuilder encoded, long value) {
+		// The sign is moved to the lowest bit, so small negative values are
+		// short as well.
+		long shifted = value < 0 ? ~(value << 1) : value << 1;
+		while (shifted >= CONTINUATION) {
+			encoded.append((char) ((CONTINUATION | (shifted & CHUNK_MASK))
+					+ CHAR_OFFSET));
+			shifted >>>= CHUNK_BITS;
+		}
+		encoded.append((char) (shifted + CHAR_OFFSET));
+	}
+
+	/**
+	 * Reads a value at {@code position[0]} and advances the position past
+	 * it.
+	 */
+	private static long readValue(String encoded, int[] position) {
+		long shifted = 0;
+		int shift = 0;
+		int chunk;
+		do {
+			checkArgument(position[0] < encoded.length() && shift < 64,
+					"Truncated polyline");
+			chunk = encoded.charAt(position[0]++) - CHAR_OFFSET;
+			checkArgument(chunk >= 0 && chunk < 2 * CONTINUATION,
+					"Invalid polyline character at %s", position[0] - 1);
+			shifted |= (long) (chunk & CHUNK_MASK) << shift;
+			shift += CHUNK_BITS;
+		} while ((chunk & CONTINUATION) != 0);
+
+		return (shifted & 1) != 0 ? ~(shifted >>> 1) : shifted >>> 1;
+	}
+}
@@ -0,0 +1,46 @@
+package utils;
+
+/**
+ * The representations of the times of points in responses, selected by the
+ * {@code times} query parameter or the {@code X-Time-Format} request header.
+ */
+public enum TimeFormat {
+	/**
+	 * Times as strings in the pattern
+	 * {@value models.dtos.TimestampedPointDto#TIME_PATTERN}, the default.
+	 */
+	TEXT("text"),
+	/**
+	 * Times in milliseconds since the epoch. In the geometry of a tour only
+	 * the first point has a {@code time}, each following point has the
+	 * milliseconds since the previous point as {@code dt}.
+	 */
+	MILLIS("millis");
+
+	/** The name of the format in requests. */
+	public final String value;
+
+	private TimeFormat(String value) {
+		this.value = value;
+	}
+
+	/**
+	 * @param value
+	 *            The requested format, may be {@code null}.
+	 * @return The format with the given name, or {@link #TEXT} if none was
+	 *         requested.
+	 * @throws IllegalArgumentException
+	 *             if the format is unknown.
+	 */
+	public static TimeFormat parse(String value) {
+		if (value == null) {
+			return TEXT;
+		}
+		for (TimeFormat format : values()) {
+			if (format.value.equalsIgnoreCase(value.trim())) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unknown time format: " + value);
+	}
+}
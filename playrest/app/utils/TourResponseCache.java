@@ -0,0 +1,243 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+import play.Configuration;
+import play.Play;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Caches the serialized responses of single tours by tour ID, format, time
+ * zone, time format and view, so that requests for popular tours are
+ * answered without reaching the database or the serializer. Tours are never
+ * modified once written, so entries are only evicted when the total size of
+ * the cached bodies exceeds {@code tours.cache.responses.maxBytes}, or all
+ * at once after the {@code TrackBackfill} filled in older tours. A size of 0
+ * disables the cache.<br>
+ * Each entry carries a strong ETag computed from its body and, if
+ * {@code tours.cache.responses.gzip} is enabled, a gzipped copy of the body.
+ */
+public class TourResponseCache {
+	private static final String CONFIG_PREFIX = "tours.cache.responses.";
+	private static final String MAX_BYTES_KEY = CONFIG_PREFIX + "maxBytes";
+	private static final String GZIP_KEY = CONFIG_PREFIX + "gzip";
+
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	private static final boolean DEFAULT_GZIP = true;
+
+	/** The suffix of the ETag of a gzipped body. */
+	private static final String GZIP_ETAG_SUFFIX = "-gzip";
+	private static final String ANY_ETAG = "*";
+	private static final String WEAK_ETAG_PREFIX = "W/";
+
+	private final Cache<String, Entry> cache;
+	private final boolean gzip;
+
+	private static class Holder {
+		private static final TourResponseCache INSTANCE = create();
+	}
+
+	TourResponseCache(long maxBytes, boolean gzip) {
+		this.cache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+				.weigher(new Weigher<String, Entry>() {
+					@Override
+					public int weigh(String key, Entry value) {
+						return value.size();
+					}
+				}).recordStats().build();
+		this.gzip = gzip;
+	}
+
+	private static TourResponseCache create() {
+		Configuration config = Play.application().configuration();
+		long maxBytes = Objects.firstNonNull(config.getBytes(MAX_BYTES_KEY),
+				DEFAULT_MAX_BYTES);
+		boolean gzip = Objects.firstNonNull(config.getBoolean(GZIP_KEY),
+				DEFAULT_GZIP);
+		return new TourResponseCache(maxBytes, gzip);
+	}
+
+	/**
+	 * @return The cache configured by {@code tours.cache.responses.*}.
+	 */
+	public static TourResponseCache instance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * @param tolerance
+	 *            The level of detail of the geometry, ignored for summaries.
+	 *            Should be one of the configured levels, as returned by
+	 *            {@code DetailLevels.level}, so that the number of keys per
+	 *            tour is bounded.
+	 * @return The key of the response for the given tour, format, time zone,
+	 *         time format and view. The time zone is left out for
+	 *         {@link TimeFormat#MILLIS}, whose times do not depend on it.
+	 */
+	public static String key(int id, WireFormat format, TimeZone tz,
+			TimeFormat times, boolean summary, Optional<Double> tolerance) {
+		String view;
+		if (summary) {
+			view = "summary";
+		} else if (tolerance.isPresent()) {
+			view = "full@" + tolerance.get();
+		} else {
+			view = "full";
+		}
+		String zone = times == TimeFormat.MILLIS ? "" : tz.getID() + "/";
+		return id + "/" + format + "/" + zone + times + "/" + view;
+	}
+
+	public Optional<Entry> find(String key) {
+		return Optional.fromNullable(cache.getIfPresent(key));
+	}
+
+	/**
+	 * Stores the serialized body of a response, gzipping it if configured.
+	 *
+	 * @return The stored entry.
+	 */
+	public Entry put(String key, byte[] body) {
+		Entry entry = new Entry(body, gzip ? gzip(body) : null);
+		cache.put(key, entry);
+		return entry;
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public Stats stats() {
+		long bytes = 0;
+		for (Entry entry : cache.asMap().values()) {
+			bytes += entry.size();
+		}
+		CacheStats stats = cache.stats();
+		return new Stats(stats.hitCount(), stats.missCount(),
+				stats.evictionCount(), cache.size(), bytes);
+	}
+
+	static byte[] gzip(byte[] body) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				body.length / 4 + 64);
+		try {
+			GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+			gzipOut.write(body);
+			gzipOut.close();
+		} catch (IOException e) {
+			// Not thrown by a ByteArrayOutputStream.
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * A serialized response body with its ETags.
+	 */
+	public static class Entry {
+		private final byte[] body;
+		private final byte[] gzipped;
+		private final String etag;
+
+		Entry(byte[] body, byte[] gzipped) {
+			this.body = body;
+			this.gzipped = gzipped;
+			this.etag = Hashing.murmur3_128().hashBytes(body).toString();
+		}
+
+		public byte[] body() {
+			return body;
+		}
+
+		/**
+		 * @return The gzipped body, if gzipping is enabled.
+		 */
+		public Optional<byte[]> gzipped() {
+			return Optional.fromNullable(gzipped);
+		}
+
+		/**
+		 * @param gzipped
+		 *            Whether the ETag is for the gzipped body, which must
+		 *            differ from that of the plain body.
+		 * @return The quoted strong ETag of the body.
+		 */
+		public String etag(boolean gzipped) {
+			return '"' + etag + (gzipped ? GZIP_ETAG_SUFFIX : "") + '"';
+		}
+
+		/**
+		 * @param ifNoneMatch
+		 *            The value of an {@code If-None-Match} request header,
+		 *            may be {@code null}.
+		 * @return {@code true} if the header matches either ETag of the
+		 *         body, in which case the client already has it.
+		 */
+		public boolean matches(String ifNoneMatch) {
+			if (ifNoneMatch == null) {
+				return false;
+			}
+			for (String tag : Splitter.on(',').trimResults()
+					.omitEmptyStrings().split(ifNoneMatch)) {
+				// If-None-Match uses the weak comparison.
+				if (tag.startsWith(WEAK_ETAG_PREFIX)) {
+					tag = tag.substring(WEAK_ETAG_PREFIX.length());
+				}
+				if (tag.equals(ANY_ETAG) || tag.equals(etag(false))
+						|| tag.equals(etag(true))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		int size() {
+			return body.length + (gzipped != null ? gzipped.length : 0);
+		}
+	}
+
+	/**
+	 * A snapshot of the counters of the cache.
+	 */
+	public static class Stats {
+		@JsonProperty("hits")
+		public final long hits;
+		/** Lookups which had to serialize the response. */
+		@JsonProperty("misses")
+		public final long misses;
+		@JsonProperty("evictions")
+		public final long evictions;
+		@JsonProperty("size")
+		public final long size;
+		/** The total size of the cached bodies, as weighed by the cache. */
+		@JsonProperty("bytes")
+		public final long bytes;
+
+		Stats(long hits, long misses, long evictions, long size, long bytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.size = size;
+			this.bytes = bytes;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [hits=" + hits + ", misses=" + misses
+					+ ", evictions=" + evictions + ", size=" + size
+					+ ", bytes=" + bytes + "]";
+		}
+	}
+}
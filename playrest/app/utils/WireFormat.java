@@ -0,0 +1,163 @@
+package utils;
+
+import java.util.List;
+import java.util.Locale;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+/**
+ * The encodings in which tours are sent and received, selected by the
+ * {@code Accept} and {@code Content-Type} request headers.
+ */
+public enum WireFormat {
+	/** Plain JSON, the default. */
+	JSON("application/json", "application/json; charset=utf-8"),
+	/** The binary JSON of Jackson, with the same structure as plain JSON. */
+	SMILE("application/x-jackson-smile", "application/x-jackson-smile"),
+	/**
+	 * JSON with the geometry of a tour encoded as a single string.
+	 *
+	 * @see Polyline
+	 */
+	POLYLINE("application/vnd.playrest.polyline+json",
+			"application/vnd.playrest.polyline+json; charset=utf-8");
+
+	private static final String ANY_TYPE = "*/*";
+	private static final String ANY_APPLICATION_TYPE = "application/*";
+	private static final String QUALITY_PARAM = "q=";
+
+	/** The media type, without parameters. */
+	public final String mediaType;
+	/** The value of the {@code Content-Type} header of a response. */
+	public final String contentType;
+
+	private WireFormat(String mediaType, String contentType) {
+		this.mediaType = mediaType;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Selects the format of a response. Each format takes the quality of the
+	 * most specific media range matching it, so that a format excluded with
+	 * {@code q=0} is not selected by a wildcard. The format with the highest
+	 * quality is selected, equally preferred formats in the order of their
+	 * media ranges and wildcards in the order of the formats, {@link #JSON}
+	 * first.
+	 *
+	 * @param accept
+	 *            The value of an {@code Accept} request header, may be
+	 *            {@code null}.
+	 * @return The format preferred by the client, or an absent value if none
+	 *         of the accepted media types is supported.
+	 */
+	public static Optional<WireFormat> negotiate(String accept) {
+		if (accept == null) {
+			return Optional.of(JSON);
+		}
+
+		List<MediaRange> ranges = Lists.newArrayList();
+		for (String range : Splitter.on(',').trimResults().omitEmptyStrings()
+				.split(accept)) {
+			ranges.add(MediaRange.parse(range));
+		}
+
+		WireFormat selected = null;
+		double selectedQuality = 0;
+		int selectedIndex = 0;
+		for (WireFormat format : values()) {
+			// The index of the most specific range matching the format.
+			int index = -1;
+			int specificity = -1;
+			for (int i = 0; i < ranges.size(); i++) {
+				int rangeSpecificity = ranges.get(i).specificity(format);
+				if (rangeSpecificity > specificity) {
+					index = i;
+					specificity = rangeSpecificity;
+				}
+			}
+			if (index < 0) {
+				continue;
+			}
+
+			double quality = ranges.get(index).quality;
+			if (quality > 0 && (selected == null
+					|| quality > selectedQuality
+					|| quality == selectedQuality && index < selectedIndex)) {
+				selected = format;
+				selectedQuality = quality;
+				selectedIndex = index;
+			}
+		}
+		return Optional.fromNullable(selected);
+	}
+
+	/**
+	 * Selects the format of a request body. Unknown content types are read
+	 * as {@link #JSON}, which was the only format before.
+	 *
+	 * @param contentType
+	 *            The value of a {@code Content-Type} request header, may be
+	 *            {@code null}.
+	 */
+	public static WireFormat ofContentType(String contentType) {
+		if (contentType != null) {
+			String type = MediaRange.parse(contentType).type;
+			for (WireFormat format : values()) {
+				if (type.equals(format.mediaType)) {
+					return format;
+				}
+			}
+		}
+		return JSON;
+	}
+
+	/**
+	 * A media type or range of an {@code Accept} header with its quality.
+	 */
+	private static class MediaRange {
+		final String type;
+		final double quality;
+
+		MediaRange(String type, double quality) {
+			this.type = type;
+			this.quality = quality;
+		}
+
+		/**
+		 * @return 2 if the range is the media type of the given format, 1
+		 *         or 0 if it is a wildcard including it, from the more
+		 *         specific, or -1 if it does not match it.
+		 */
+		int specificity(WireFormat format) {
+			if (type.equals(format.mediaType)) {
+				return 2;
+			} else if (type.equals(ANY_APPLICATION_TYPE)) {
+				return 1;
+			} else if (type.equals(ANY_TYPE)) {
+				return 0;
+			}
+			return -1;
+		}
+
+		static MediaRange parse(String range) {
+			List<String> parts = Splitter.on(';').trimResults()
+					.splitToList(range);
+			double quality = 1;
+			for (String param : parts.subList(1, parts.size())) {
+				String normalized = param.replace(" ", "");
+				if (normalized.startsWith(QUALITY_PARAM)) {
+					try {
+						quality = Double.parseDouble(normalized
+								.substring(QUALITY_PARAM.length()));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			return new MediaRange(parts.get(0).toLowerCase(Locale.ROOT),
+					quality);
+		}
+	}
+}
@@ -0,0 +1,9 @@
+# Compact track storage
+
+# --- !Ups
+
+ALTER TABLE tour ADD COLUMN tur_track bytea;
+
+# --- !Downs
+
+ALTER TABLE tour DROP COLUMN tur_track;
@@ -0,0 +1,16 @@
+# Number of points per tour, for tour summaries
+
+# --- !Ups
+
+ALTER TABLE tour ADD COLUMN tur_point_count integer;
+
+-- Tours stored in compact form only have their start point as a row, so
+-- their count is filled in from their track by the track backfill on
+-- startup (tours.backfill.tracks).
+UPDATE tour SET tur_point_count = (
+	SELECT count(*) FROM timestamped_point WHERE tsp_tur_id = tur_id
+) WHERE tur_track IS NULL;
+
+# --- !Downs
+
+ALTER TABLE tour DROP COLUMN tur_point_count;
@@ -0,0 +1,12 @@
+# Index for joining tours to their start points
+
+# --- !Ups
+
+-- Radius searches filter on the start point stored on the tour (evolution
+-- 4), so only the join from the tours to their start point entries is
+-- indexed, not the points of all tracks.
+CREATE INDEX tur_start_tsp_id_idx ON tour (tur_start_tsp_id);
+
+# --- !Downs
+
+DROP INDEX tur_start_tsp_id_idx;
@@ -0,0 +1,29 @@
+# Start point stored on the tour
+
+# --- !Ups
+
+ALTER TABLE tour ADD COLUMN tur_start_point geometry(PointZ, 4326);
+ALTER TABLE tour ADD COLUMN tur_start_time timestamp;
+ALTER TABLE tour ADD COLUMN tur_start_geohash varchar(12);
+
+-- Tours stored in compact form still have their start point as a row, so
+-- all existing tours are filled in from it.
+UPDATE tour SET
+	tur_start_point = ST_Force_3D(tsp_point),
+	tur_start_time = tsp_time,
+	tur_start_geohash = ST_GeoHash(tsp_point, 12)
+FROM timestamped_point WHERE tsp_id = tur_start_tsp_id;
+
+CREATE INDEX tur_start_point_geog_idx ON tour USING GIST (geography(tur_start_point));
+CREATE INDEX tur_start_time_idx ON tour (tur_start_time);
+CREATE INDEX tur_start_geohash_idx ON tour (tur_start_geohash varchar_pattern_ops);
+
+# --- !Downs
+
+DROP INDEX tur_start_geohash_idx;
+DROP INDEX tur_start_time_idx;
+DROP INDEX tur_start_point_geog_idx;
+
+ALTER TABLE tour DROP COLUMN tur_start_geohash;
+ALTER TABLE tour DROP COLUMN tur_start_time;
+ALTER TABLE tour DROP COLUMN tur_start_point;
@@ -0,0 +1,10 @@
+# Index for nearest tour searches by start point
+
+# --- !Ups
+
+-- Serves the KNN ordering (<->) of the nearest tour queries.
+CREATE INDEX tur_start_point_idx ON tour USING GIST (tur_start_point);
+
+# --- !Downs
+
+DROP INDEX tur_start_point_idx;
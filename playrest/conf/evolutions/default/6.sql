@@ -0,0 +1,23 @@
+# Track path stored on the tour, for area searches
+
+# --- !Ups
+
+ALTER TABLE tour ADD COLUMN tur_path geometry(Geometry, 4326);
+
+-- Tours stored in compact form only have their start point as a row, so
+-- their path is filled in from their track by the track backfill on
+-- startup (tours.backfill.tracks).
+UPDATE tour SET tur_path = (
+	SELECT CASE WHEN count(*) > 1
+		THEN ST_MakeLine(ST_Force_2D(tsp_point) ORDER BY tsp_time)
+		ELSE ST_Force_2D((array_agg(tsp_point))[1]) END
+	FROM timestamped_point WHERE tsp_tur_id = tur_id
+) WHERE tur_track IS NULL;
+
+CREATE INDEX tur_path_idx ON tour USING GIST (tur_path);
+
+# --- !Downs
+
+DROP INDEX tur_path_idx;
+
+ALTER TABLE tour DROP COLUMN tur_path;
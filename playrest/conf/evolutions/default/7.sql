@@ -0,0 +1,16 @@
+# Simplified tracks of tours, for levels of detail
+
+# --- !Ups
+
+-- Tours created before are returned with all of their points.
+CREATE TABLE tour_detail (
+	tdl_tur_id integer NOT NULL REFERENCES tour (tur_id) ON DELETE CASCADE,
+	tdl_tolerance double precision NOT NULL,
+	tdl_point_count integer NOT NULL,
+	tdl_track bytea NOT NULL,
+	PRIMARY KEY (tdl_tur_id, tdl_tolerance)
+);
+
+# --- !Downs
+
+DROP TABLE tour_detail;
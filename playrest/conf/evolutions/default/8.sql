@@ -0,0 +1,44 @@
+# Tour statistics, for listing and filtering tours without their points
+
+# --- !Ups
+
+ALTER TABLE tour ADD COLUMN tur_distance double precision;
+ALTER TABLE tour ADD COLUMN tur_duration double precision;
+ALTER TABLE tour ADD COLUMN tur_elevation_gain double precision;
+ALTER TABLE tour ADD COLUMN tur_average_speed double precision;
+ALTER TABLE tour ADD COLUMN tur_max_speed double precision;
+
+-- Computed like TourStats from the segments between consecutive points.
+-- Tours stored in compact form only have their start point as a row, so
+-- their statistics are filled in from their track by the track backfill on
+-- startup (tours.backfill.tracks).
+WITH segment AS (
+	SELECT tsp_tur_id, tsp_time,
+		ST_Distance_Sphere(lag(tsp_point) OVER w, tsp_point) AS length,
+		ST_Z(tsp_point) - ST_Z(lag(tsp_point) OVER w) AS climb,
+		extract(EPOCH FROM tsp_time - lag(tsp_time) OVER w) AS seconds
+	FROM timestamped_point
+	WINDOW w AS (PARTITION BY tsp_tur_id ORDER BY tsp_time)
+), stats AS (
+	SELECT tsp_tur_id,
+		coalesce(sum(length), 0) AS distance,
+		extract(EPOCH FROM max(tsp_time) - min(tsp_time)) AS duration,
+		coalesce(sum(greatest(climb, 0)), 0) AS elevation_gain,
+		coalesce(max(length / nullif(seconds, 0)), 0) AS max_speed
+	FROM segment GROUP BY tsp_tur_id
+)
+UPDATE tour SET
+	tur_distance = distance,
+	tur_duration = duration,
+	tur_elevation_gain = elevation_gain,
+	tur_average_speed = distance / nullif(duration, 0),
+	tur_max_speed = max_speed
+FROM stats WHERE tsp_tur_id = tur_id AND tur_track IS NULL;
+
+# --- !Downs
+
+ALTER TABLE tour DROP COLUMN tur_max_speed;
+ALTER TABLE tour DROP COLUMN tur_average_speed;
+ALTER TABLE tour DROP COLUMN tur_elevation_gain;
+ALTER TABLE tour DROP COLUMN tur_duration;
+ALTER TABLE tour DROP COLUMN tur_distance;
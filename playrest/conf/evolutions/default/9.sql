@@ -0,0 +1,16 @@
+# Track fingerprints, for recognizing exact re-uploads of a tour
+
+# --- !Ups
+
+-- Fingerprints are computed when tours are written. Those of the existing
+-- tours are filled in by the track backfill on startup
+-- (tours.backfill.tracks), since they are hashed from the decoded tracks.
+ALTER TABLE tour ADD COLUMN tur_fingerprint bigint;
+
+CREATE INDEX tur_fingerprint_idx ON tour (tur_usr_id, tur_fingerprint);
+
+# --- !Downs
+
+DROP INDEX tur_fingerprint_idx;
+
+ALTER TABLE tour DROP COLUMN tur_fingerprint;
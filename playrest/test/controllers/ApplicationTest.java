@@ -21,7 +21,7 @@ public class ApplicationTest {
 	// @Test
 	// public void testHandleCriteriaNoQueryParams() throws Exception {
 	// Status result = (Status) Application.handleCriteria(
-	// Collections.<String, String[]>emptyMap());
+	// Collections.<String, String[]>emptyMap(), null);
 	// int expected = Results.badRequest()
 	// .getWrappedSimpleResult().header().status();
 	// int actual = result.getWrappedSimpleResult().header().status();
@@ -33,7 +33,7 @@ public class ApplicationTest {
 	// Map<String, String[]> qMap = ImmutableMap.of("startlat",
 	// new String[]{"45.3"}, "startlon", new String[]{"15.3"});
 	//
-	// Status result = (Status) Application.handleCriteria(qMap);
+	// Status result = (Status) Application.handleCriteria(qMap, null);
 	// int expected = Results.badRequest()
 	// .getWrappedSimpleResult().header().status();
 	// int actual = result.getWrappedSimpleResult().header().status();
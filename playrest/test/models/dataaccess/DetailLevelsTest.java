@@ -0,0 +1,84 @@
+package models.dataaccess;
+
+import java.util.Date;
+import java.util.List;
+
+import models.dtos.TimestampedPointDto;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+public class DetailLevelsTest {
+	private static final long TIME = 1388840323000L;
+
+	@Test
+	public void testSimplify() {
+		List<TimestampedPointDto> points = Lists.newArrayList();
+		// A straight line with a small wiggle and a corner.
+		for (int i = 0; i <= 10; i++) {
+			double y = i == 5 ? 0.00005 : 0;
+			points.add(new TimestampedPointDto(new Date(TIME + i * 1000),
+					10 + i * 0.001, 47 + y, i));
+		}
+		points.add(new TimestampedPointDto(new Date(TIME + 11000), 10.01,
+				47.01, 11));
+
+		// Once the wiggle is kept, its neighbours deviate by 0.00004.
+		List<TimestampedPointDto> fine = DetailLevels.simplify(points,
+				0.000045);
+		Assert.assertEquals(Lists.newArrayList(points.get(0), points.get(5),
+				points.get(10), points.get(11)), fine);
+
+		List<TimestampedPointDto> coarse = DetailLevels.simplify(points,
+				0.0001);
+		Assert.assertEquals(Lists.newArrayList(points.get(0),
+				points.get(10), points.get(11)), coarse);
+	}
+
+	@Test
+	public void testSimplifyShort() {
+		List<TimestampedPointDto> points = Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 10, 47, 0),
+				new TimestampedPointDto(new Date(TIME + 1000), 10, 47, 0));
+		Assert.assertEquals(points, DetailLevels.simplify(points, 1));
+	}
+
+	@Test
+	public void testParseTolerances() {
+		Assert.assertEquals(Lists.newArrayList(0.0001, 0.001, 0.01),
+				DetailLevels.parseTolerances("0.01, 0.0001,0.001"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseTolerancesInvalid() {
+		DetailLevels.parseTolerances("0.001, 0");
+	}
+
+	@Test
+	public void testLevel() {
+		List<Double> tolerances = Lists.newArrayList(0.0001, 0.001);
+		Assert.assertEquals(Optional.absent(),
+				DetailLevels.level(tolerances, 0.00005));
+		Assert.assertEquals(Optional.of(0.0001),
+				DetailLevels.level(tolerances, 0.0001));
+		Assert.assertEquals(Optional.of(0.0001),
+				DetailLevels.level(tolerances, 0.00099));
+		Assert.assertEquals(Optional.of(0.001),
+				DetailLevels.level(tolerances, 1));
+	}
+
+	@Test
+	public void testZoomTolerance() {
+		Assert.assertEquals(360d / 256, DetailLevels.zoomTolerance(0), 0);
+		Assert.assertEquals(DetailLevels.zoomTolerance(10) / 2,
+				DetailLevels.zoomTolerance(11), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZoomToleranceInvalid() {
+		DetailLevels.zoomTolerance(DetailLevels.MAX_ZOOM + 1);
+	}
+}
@@ -0,0 +1,36 @@
+package models.dataaccess;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GeohashTest {
+
+	@Test
+	public void testEncode() {
+		Assert.assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+		Assert.assertEquals("ezs42", Geohash.encode(42.6, -5.6, 5));
+		Assert.assertEquals("s00000000000", Geohash.encode(0, 0, 12));
+	}
+
+	@Test
+	public void testSharedPrefix() {
+		String hash = Geohash.encode(47.5, 10.3, Geohash.PRECISION);
+		String nearby = Geohash.encode(47.5001, 10.3001, Geohash.PRECISION);
+		Assert.assertEquals(hash.substring(0, 6), nearby.substring(0, 6));
+	}
+
+	@Test
+	public void testEncodeBits() {
+		// "ezs42" in base 32, 5 bits per character.
+		Assert.assertEquals((13L << 20) | (31 << 15) | (24 << 10) | (4 << 5)
+				| 2, Geohash.encodeBits(42.6, -5.6, 25));
+		// The cells of fewer bits contain the cells of more bits.
+		Assert.assertEquals(Geohash.encodeBits(47.5, 10.3, 60) >>> 30,
+				Geohash.encodeBits(47.5, 10.3, 30));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPrecision() {
+		Geohash.encode(0, 0, 13);
+	}
+}
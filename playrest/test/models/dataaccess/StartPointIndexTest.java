@@ -0,0 +1,171 @@
+package models.dataaccess;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+public class StartPointIndexTest {
+	private static final double CELL_SIZE = 0.1;
+	private static final int HIKE = 1;
+	private static final int BIKE = 2;
+
+	private static final int POINTS = 2000;
+	private static final double LAT = 47.5;
+	private static final double LON = 10.3;
+
+	private static final Optional<Double> NO_ALT = Optional.absent();
+
+	private StartPointIndex index;
+	private double[] lats;
+	private double[] lons;
+	private double[] alts;
+
+	@Before
+	public void before() {
+		index = new StartPointIndex(CELL_SIZE);
+		lats = new double[POINTS];
+		lons = new double[POINTS];
+		alts = new double[POINTS];
+
+		Random random = new Random(42);
+		for (int i = 0; i < POINTS; i++) {
+			lats[i] = LAT + random.nextDouble() - 0.5;
+			lons[i] = LON + random.nextDouble() - 0.5;
+			alts[i] = 500 + random.nextDouble() * 2000;
+			index.add(i + 1, i % 2 == 0 ? HIKE : BIKE, lats[i], lons[i],
+					alts[i]);
+		}
+	}
+
+	@Test
+	public void testDistance() {
+		// One degree of latitude on the sphere of ST_Distance_Sphere.
+		double expected = StartPointIndex.EARTH_RADIUS * Math.PI / 180;
+		Assert.assertEquals(expected,
+				StartPointIndex.distance(10, 20, 11, 20), 1e-6);
+		Assert.assertEquals(0, StartPointIndex.distance(10, 20, 10, 20), 0);
+	}
+
+	@Test
+	public void testFind() {
+		double radius = 20000;
+		Page<Integer> page = index.find(LAT, LON, NO_ALT, radius,
+				Optional.<Integer> absent(), 0, POINTS);
+
+		List<Integer> expected = Lists.newArrayList();
+		for (int i = 0; i < POINTS; i++) {
+			if (StartPointIndex.distance(LAT, LON, lats[i], lons[i]) < radius) {
+				expected.add(i + 1);
+			}
+		}
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected, page.items);
+		Assert.assertFalse(page.nextAfter.isPresent());
+	}
+
+	@Test
+	public void testFindByAltitude() {
+		double radius = 5000;
+		double alt = 3000;
+		Page<Integer> page = index.find(LAT, LON, Optional.of(alt), radius,
+				Optional.<Integer> absent(), 0, POINTS);
+
+		List<Integer> expected = Lists.newArrayList();
+		int flat = 0;
+		for (int i = 0; i < POINTS; i++) {
+			double distance = StartPointIndex.distance(LAT, LON, lats[i],
+					lons[i]);
+			if (distance < radius) {
+				flat++;
+				if (StartPointIndex.distance3d(distance, alt - alts[i]) < radius) {
+					expected.add(i + 1);
+				}
+			}
+		}
+		// The altitude excludes some of the tours within the radius.
+		Assert.assertTrue(expected.size() < flat);
+		Assert.assertEquals(expected, page.items);
+	}
+
+	@Test
+	public void testFindBySport() {
+		Page<Integer> page = index.find(LAT, LON, NO_ALT, 100000,
+				Optional.of(BIKE), 0, POINTS);
+		Assert.assertEquals(POINTS / 2, page.items.size());
+		for (int id : page.items) {
+			Assert.assertEquals(0, id % 2);
+		}
+	}
+
+	@Test
+	public void testFindPages() {
+		Page<Integer> first = index.find(LAT, LON, NO_ALT, 100000,
+				Optional.<Integer> absent(), 0, 10);
+		Assert.assertEquals(10, first.items.size());
+		Assert.assertEquals(Optional.of(10), first.nextAfter);
+
+		// A tour added twice, while loading, is returned once.
+		index.add(11, HIKE, lats[10], lons[10], alts[10]);
+		Page<Integer> second = index.find(LAT, LON, NO_ALT, 100000,
+				Optional.<Integer> absent(), first.nextAfter.get(), 10);
+		Assert.assertEquals(Lists.newArrayList(11, 12, 13, 14, 15, 16, 17,
+				18, 19, 20), second.items);
+	}
+
+	@Test
+	public void testFindAcrossAntimeridian() {
+		StartPointIndex index = new StartPointIndex(CELL_SIZE);
+		index.add(1, HIKE, 0, 179.95, 0);
+		index.add(2, HIKE, 0, -179.95, 0);
+		index.add(3, HIKE, 0, 170, 0);
+
+		Page<Integer> page = index.find(0, 180, NO_ALT, 20000,
+				Optional.<Integer> absent(), 0, 10);
+		Assert.assertEquals(Lists.newArrayList(1, 2), page.items);
+	}
+
+	@Test
+	public void testNearest() {
+		int k = 25;
+		List<TourDistance> nearest = index.nearest(LAT, LON,
+				Optional.<Integer> absent(), k);
+
+		List<TourDistance> expected = Lists.newArrayList();
+		for (int i = 0; i < POINTS; i++) {
+			expected.add(new TourDistance(i + 1, StartPointIndex.distance(LAT,
+					LON, lats[i], lons[i])));
+		}
+		expected = TourDistance.BY_DISTANCE.leastOf(expected, k);
+
+		Assert.assertEquals(k, nearest.size());
+		for (int i = 0; i < k; i++) {
+			Assert.assertEquals(expected.get(i).id, nearest.get(i).id);
+			Assert.assertEquals(expected.get(i).distance,
+					nearest.get(i).distance, 1e-6);
+		}
+	}
+
+	@Test
+	public void testNearestBySport() {
+		List<TourDistance> nearest = index.nearest(LAT, LON, Optional.of(HIKE),
+				10);
+		Assert.assertEquals(10, nearest.size());
+		for (TourDistance distance : nearest) {
+			Assert.assertEquals(1, distance.id % 2);
+		}
+	}
+
+	@Test
+	public void testNearestFarAway() {
+		// All of the tours are found, however far away.
+		List<TourDistance> nearest = index.nearest(-LAT, LON - 180,
+				Optional.<Integer> absent(), POINTS + 10);
+		Assert.assertEquals(POINTS, nearest.size());
+	}
+}
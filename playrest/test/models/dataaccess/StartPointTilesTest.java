@@ -0,0 +1,145 @@
+package models.dataaccess;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class StartPointTilesTest {
+	private static final int GRID_BITS = 3;
+	private static final int HIKE = 1;
+	private static final int BIKE = 2;
+
+	/** More than the new cells counted before a merge. */
+	private static final int POINTS = 5000;
+	private static final double LAT = 47.5;
+	private static final double LON = 10.3;
+	private static final int ZOOM = 9;
+
+	private static final Optional<Integer> ALL = Optional.absent();
+
+	private StartPointTiles tiles;
+	private double[] lats;
+	private double[] lons;
+
+	@Before
+	public void before() {
+		tiles = new StartPointTiles(GRID_BITS);
+		lats = new double[POINTS];
+		lons = new double[POINTS];
+
+		Random random = new Random(42);
+		for (int i = 0; i < POINTS; i++) {
+			lats[i] = LAT + random.nextDouble() - 0.5;
+			lons[i] = LON + random.nextDouble() - 0.5;
+			tiles.add(i + 1, i % 2 == 0 ? HIKE : BIKE, lats[i], lons[i]);
+		}
+	}
+
+	@Test
+	public void testInterleave() {
+		Assert.assertEquals(0, StartPointTiles.interleave(0, 0));
+		Assert.assertEquals(1, StartPointTiles.interleave(1, 0));
+		Assert.assertEquals(2, StartPointTiles.interleave(0, 1));
+		Assert.assertEquals(0xF, StartPointTiles.interleave(3, 3));
+		Assert.assertEquals(0x5, StartPointTiles.interleave(3, 0));
+	}
+
+	@Test
+	public void testCodeStartsWithTile() {
+		// The north-west quarter of the world at zoom 1.
+		long code = StartPointTiles.code(LAT, LON);
+		Assert.assertEquals(StartPointTiles.interleave(1, 0),
+				code >>> 2 * (StartPointTiles.BASE_ZOOM - 1));
+		Assert.assertEquals(0,
+				code >>> 2 * StartPointTiles.BASE_ZOOM);
+	}
+
+	@Test
+	public void testCount() {
+		int x = tileX(LON, ZOOM);
+		int y = tileY(LAT, ZOOM);
+		int[] counts = tiles.count(ZOOM, x, y, ALL);
+		Assert.assertArrayEquals(expectedCounts(x, y, -1), counts);
+
+		int total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		Assert.assertTrue(total > 0);
+	}
+
+	@Test
+	public void testCountNeighbour() {
+		int x = tileX(LON, ZOOM) + 1;
+		int y = tileY(LAT, ZOOM) + 1;
+		Assert.assertArrayEquals(expectedCounts(x, y, -1),
+				tiles.count(ZOOM, x, y, ALL));
+	}
+
+	@Test
+	public void testCountBySport() {
+		int x = tileX(LON, ZOOM);
+		int y = tileY(LAT, ZOOM);
+		Assert.assertArrayEquals(expectedCounts(x, y, HIKE),
+				tiles.count(ZOOM, x, y, Optional.of(HIKE)));
+		Assert.assertArrayEquals(new int[1 << 2 * GRID_BITS],
+				tiles.count(ZOOM, x, y, Optional.of(3)));
+	}
+
+	@Test
+	public void testCountWorld() {
+		int[] counts = tiles.count(0, 0, 0, ALL);
+		int total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		Assert.assertEquals(POINTS, total);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooDetailed() {
+		tiles.count(tiles.maxZoom() + 1, 0, 0, ALL);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoSuchTile() {
+		tiles.count(2, 4, 0, ALL);
+	}
+
+	/**
+	 * Counts the points in the cells of the tile one by one.
+	 * 
+	 * @param sportId
+	 *            The sport to count, or -1 for all.
+	 */
+	private int[] expectedCounts(int x, int y, int sportId) {
+		int gridSize = 1 << GRID_BITS;
+		int[] counts = new int[gridSize * gridSize];
+		for (int i = 0; i < POINTS; i++) {
+			int sport = i % 2 == 0 ? HIKE : BIKE;
+			if (sportId != -1 && sport != sportId) {
+				continue;
+			}
+			int col = tileX(lons[i], ZOOM + GRID_BITS) - x * gridSize;
+			int row = tileY(lats[i], ZOOM + GRID_BITS) - y * gridSize;
+			if (col >= 0 && col < gridSize && row >= 0 && row < gridSize) {
+				counts[row * gridSize + col]++;
+			}
+		}
+		return counts;
+	}
+
+	private static int tileX(double lon, int zoom) {
+		return (int) Math.floor((lon + 180) / 360 * (1 << zoom));
+	}
+
+	private static int tileY(double lat, int zoom) {
+		double sinLat = Math.sin(Math.toRadians(lat));
+		double y = 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+		return (int) Math.floor(y * (1 << zoom));
+	}
+}
@@ -5,6 +5,7 @@ import static org.easymock.EasyMock.expect;
 import static org.powermock.api.easymock.PowerMock.mockStatic;
 import static org.powermock.api.easymock.PowerMock.replay;
 
+import java.sql.Timestamp;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -13,8 +14,12 @@ import models.Sport;
 import models.TimestampedPoint;
 import models.Tour;
 import models.User;
+import models.dtos.PointSeries;
+import models.dtos.TileDto;
 import models.dtos.TimestampedPointDto;
 import models.dtos.TourDto;
+import models.dtos.TourStatsDto;
+import models.dtos.TourSummaryDto;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -23,8 +28,14 @@ import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({User.class, Sport.class})
@@ -93,6 +104,135 @@ public class TourDataAccessUtilsTest {
 		Assert.assertEquals(expectedTourDto, actualTourDto);
 	}
 	
+	@Test
+	public void testCreatePathWkb() throws ParseException {
+		PointSeries points = PointSeries.copyOf(Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 1, 2, 3),
+				new TimestampedPointDto(new Date(TIME + 1000), 3, 4, 5)));
+		WKBReader reader = new WKBReader();
+		
+		Geometry path = reader.read(TourDataAccessUtils.createPathWkb(points));
+		Assert.assertTrue(path instanceof LineString);
+		Assert.assertEquals(new Coordinate(1, 2), path.getCoordinates()[0]);
+		Assert.assertEquals(new Coordinate(3, 4), path.getCoordinates()[1]);
+		
+		PointSeries point = PointSeries.copyOf(points.subList(0, 1));
+		path = reader.read(TourDataAccessUtils.createPathWkb(point));
+		Assert.assertTrue(path instanceof Point);
+		Assert.assertEquals(new Coordinate(1, 2), path.getCoordinate());
+	}
+	
+	@Test
+	public void testCreateEnvelope() {
+		Geometry envelope = TourDataAccessUtils.createEnvelope(10, 47, 11, 48);
+		Assert.assertTrue(envelope.contains(TourDataAccessUtils.createPoint(
+				10.5, 47.5, 0)));
+		
+		// Across the antimeridian.
+		envelope = TourDataAccessUtils.createEnvelope(179, -1, -179, 1);
+		Assert.assertEquals(2, envelope.getNumGeometries());
+		Assert.assertTrue(envelope.contains(TourDataAccessUtils.createPoint(
+				-179.5, 0, 0)));
+		Assert.assertFalse(envelope.contains(TourDataAccessUtils.createPoint(
+				0, 0, 0)));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateEnvelopeInvalid() {
+		TourDataAccessUtils.createEnvelope(10, 48, 11, 47);
+	}
+	
+	@Test
+	public void testParseArea() {
+		Geometry area = TourDataAccessUtils
+				.parseArea("POLYGON((10 47, 11 47, 11 48, 10 47))");
+		Assert.assertEquals(TourDataAccessUtils.SRID, area.getSRID());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseAreaNotPolygon() {
+		TourDataAccessUtils.parseArea("LINESTRING(10 47, 11 47)");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseAreaMalformed() {
+		TourDataAccessUtils.parseArea("POLYGON((10 47, 11");
+	}
+	
+	@Test
+	public void testWithDistances() {
+		TimestampedPointDto start = new TimestampedPointDto(new Date(TIME), 1,
+				2, 3);
+		TourSummaryDto first = new TourSummaryDto(1, USERNAME, SPORT_NAME,
+				start, 1);
+		TourSummaryDto second = new TourSummaryDto(2, USERNAME, SPORT_NAME,
+				start, 2);
+		// The summaries are read ordered by ID, tour 3 was not found.
+		List<TourDistance> distances = Lists.newArrayList(new TourDistance(2,
+				10), new TourDistance(3, 20), new TourDistance(1, 30));
+
+		List<TourSummaryDto> summaries = TourDataAccessUtils.withDistances(
+				Lists.newArrayList(first, second), distances);
+
+		Assert.assertEquals(2, summaries.size());
+		Assert.assertEquals(2, summaries.get(0).id);
+		Assert.assertEquals(Double.valueOf(10), summaries.get(0).distance);
+		Assert.assertEquals(1, summaries.get(1).id);
+		Assert.assertEquals(Double.valueOf(30), summaries.get(1).distance);
+	}
+	
+	@Test
+	public void testToTile() {
+		int[] counts = { 0, 3, 0, 0, 0, 0, 2, 0, 0 };
+		TileDto tile = TourDataAccessUtils.toTile(4, 8, 5, 3, counts);
+		Assert.assertEquals(5, tile.total);
+		Assert.assertEquals(2, tile.cells.size());
+		Assert.assertArrayEquals(new int[] { 1, 0, 3 }, tile.cells.get(0));
+		Assert.assertArrayEquals(new int[] { 0, 2, 2 }, tile.cells.get(1));
+	}
+
+	@Test
+	public void testToSummaryPage() {
+		List<Object[]> rows = Lists.newArrayList();
+		rows.add(new Object[] { 1, USERNAME, SPORT_NAME,
+				new Timestamp(TIME), 1d, 2d, 3d, 2, 1000d, 500d, 10d, 2d,
+				4d });
+		// A two-dimensional start point, an unknown number of points and no
+		// statistics.
+		rows.add(new Object[] { 2, USERNAME, SPORT_NAME,
+				new Timestamp(TIME), 4d, 5d, null, null, null, null, null,
+				null, null });
+		rows.add(new Object[] { 3, USERNAME, SPORT_NAME, null, null, null,
+				null, 1, 0d, 0d, 0d, null, 0d });
+		
+		Page<TourSummaryDto> page = TourDataAccessUtils.toSummaryPage(rows, 2);
+		
+		Assert.assertEquals(2, page.items.size());
+		Assert.assertEquals(Optional.of(2), page.nextAfter);
+		
+		TourSummaryDto summary = page.items.get(0);
+		Assert.assertEquals(1, summary.id);
+		Assert.assertEquals(USERNAME, summary.username);
+		Assert.assertEquals(SPORT_NAME, summary.sportName);
+		Assert.assertEquals(new TimestampedPointDto(new Date(TIME), 1, 2, 3),
+				summary.startPoint);
+		Assert.assertEquals(Integer.valueOf(2), summary.pointCount);
+		Assert.assertEquals(new TourStatsDto(1000, 500, 10, 2d, 4),
+				summary.stats);
+		
+		summary = page.items.get(1);
+		Assert.assertEquals(new TimestampedPointDto(new Date(TIME), 4, 5, 0),
+				summary.startPoint);
+		Assert.assertNull(summary.pointCount);
+		Assert.assertNull(summary.stats);
+		
+		page = TourDataAccessUtils.toSummaryPage(rows, 3);
+		Assert.assertEquals(3, page.items.size());
+		Assert.assertNull(page.items.get(2).startPoint);
+		Assert.assertNull(page.items.get(2).stats.averageSpeed);
+		Assert.assertFalse(page.nextAfter.isPresent());
+	}
+	
 	private static List<TimestampedPointDto> createPointDtos() {
 		List<TimestampedPointDto> points = Lists.newArrayListWithCapacity(2);
 		
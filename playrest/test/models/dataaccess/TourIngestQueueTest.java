@@ -0,0 +1,152 @@
+package models.dataaccess;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import models.dataaccess.TourIngestQueue.PendingTour;
+import models.dtos.PointSeries;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class TourIngestQueueTest {
+	private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+	@Test
+	public void testOffer() {
+		TourIngestQueue queue = new TourIngestQueue(10, 5, new Recorder());
+		Assert.assertTrue(queue.offer(tour(1, 6)));
+		Assert.assertFalse(queue.isFull());
+		// The points of a second tour would exceed the capacity.
+		Assert.assertFalse(queue.offer(tour(2, 6)));
+		Assert.assertTrue(queue.offer(tour(3, 4)));
+		Assert.assertTrue(queue.isFull());
+
+		TourIngestQueue.Status status = queue.currentStatus();
+		Assert.assertEquals(2, status.queued);
+		Assert.assertEquals(10, status.pendingPoints);
+		Assert.assertEquals(0, status.remainingPoints);
+		Assert.assertEquals(ImmutableSet.of(1, 3), status.pending);
+	}
+
+	@Test
+	public void testOfferLargeTourIntoEmptyQueue() {
+		TourIngestQueue queue = new TourIngestQueue(10, 5, new Recorder());
+		Assert.assertTrue(queue.offer(tour(1, 25)));
+		Assert.assertFalse(queue.offer(tour(2, 1)));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testOfferNotRunning() {
+		TourIngestQueue queue = new TourIngestQueue(10, 5, new Recorder());
+		Assert.assertTrue(queue.stopWriters(TIMEOUT));
+		queue.offer(tour(1, 1));
+	}
+
+	@Test
+	public void testDrain() {
+		Recorder recorder = new Recorder();
+		TourIngestQueue queue = new TourIngestQueue(100, 3, recorder);
+		for (int id = 1; id <= 7; id++) {
+			Assert.assertTrue(queue.offer(tour(id, 2)));
+		}
+		queue.startWriters(1);
+		Assert.assertTrue(queue.stopWriters(TIMEOUT));
+
+		Assert.assertEquals(ImmutableSet.of(1, 2, 3, 4, 5, 6, 7),
+				recorder.written);
+		TourIngestQueue.Status status = queue.currentStatus();
+		Assert.assertFalse(status.running);
+		Assert.assertEquals(0, status.queued);
+		Assert.assertEquals(0, status.pendingPoints);
+		Assert.assertTrue(status.pending.isEmpty());
+		Assert.assertTrue(status.failed.isEmpty());
+	}
+
+	@Test
+	public void testBatchFailureRetry() {
+		Recorder recorder = new Recorder(2);
+		TourIngestQueue queue = new TourIngestQueue(100, 3, recorder);
+		for (int id = 1; id <= 3; id++) {
+			queue.offer(tour(id, 2));
+		}
+		queue.startWriters(1);
+		Assert.assertTrue(queue.stopWriters(TIMEOUT));
+
+		// The batch failed and each tour was retried on its own.
+		Assert.assertEquals(Lists.newArrayList(3, 1, 1, 1), recorder.sizes);
+		Assert.assertEquals(ImmutableSet.of(1, 3), recorder.written);
+		TourIngestQueue.Status status = queue.currentStatus();
+		Assert.assertEquals(ImmutableSet.of(2), status.failed.keySet());
+		Assert.assertEquals("Tour 2 failed", status.failed.get(2));
+		Assert.assertEquals(0, status.pendingPoints);
+		Assert.assertTrue(status.pending.isEmpty());
+	}
+
+	@Test
+	public void testStopInterruptsAfterTimeout() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		TourIngestQueue queue = new TourIngestQueue(100, 1,
+				new TourIngestQueue.Sink() {
+					@Override
+					public void write(List<PendingTour> batch) {
+						started.countDown();
+						try {
+							Thread.sleep(TIMEOUT * 10);
+						} catch (InterruptedException e) {
+							interrupted.countDown();
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+		queue.startWriters(1);
+		queue.offer(tour(1, 1));
+		queue.offer(tour(2, 1));
+		Assert.assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		Assert.assertFalse(queue.stopWriters(100));
+		Assert.assertTrue(interrupted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	private static PendingTour tour(int id, int points) {
+		PointSeries.Builder builder = new PointSeries.Builder(points);
+		for (int i = 0; i < points; i++) {
+			builder.add(i * 1000L, 10, 47, 500);
+		}
+		return new PendingTour(id, null, null, builder.build());
+	}
+
+	/**
+	 * Records the written tours, failing batches containing given tours.
+	 */
+	private static class Recorder implements TourIngestQueue.Sink {
+		private final Set<Integer> failing;
+		final Set<Integer> written = Sets.newConcurrentHashSet();
+		final List<Integer> sizes = Lists.newArrayList();
+
+		Recorder(Integer... failing) {
+			this.failing = ImmutableSet.copyOf(failing);
+		}
+
+		@Override
+		public synchronized void write(List<PendingTour> batch) {
+			sizes.add(batch.size());
+			for (PendingTour tour : batch) {
+				if (failing.contains(tour.id)) {
+					throw new IllegalStateException("Tour " + tour.id
+							+ " failed");
+				}
+			}
+			for (PendingTour tour : batch) {
+				written.add(tour.id);
+			}
+		}
+	}
+}
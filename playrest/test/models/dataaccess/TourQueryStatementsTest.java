@@ -0,0 +1,144 @@
+package models.dataaccess;
+
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.running;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import models.Tour;
+import models.dtos.TourDto;
+
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.Play;
+import play.db.jpa.JPA;
+import play.libs.F.Callback;
+import play.libs.F.Function0;
+import play.libs.F.Promise;
+import play.libs.F.Tuple;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+
+/**
+ * Checks the number of SQL statements issued by the tour list queries.<br>
+ * Requires the database configured in {@code application.conf}, so it is
+ * skipped if the database host is not set in the environment.
+ */
+public class TourQueryStatementsTest {
+	private static final String DB_HOST_ENV = "OPENSHIFT_POSTGRESQL_DB_HOST";
+	private static final long TIMEOUT = 30000;
+	private static final int LIMIT = Tour.POINTS_BATCH_SIZE;
+
+	private static final String USERNAME = "zoltan";
+	private static final String SPORT_NAME = "hike";
+	private static final String GROUP_SIZE_KEY = "tours.stream.groupSize";
+	private static final int DEFAULT_GROUP_SIZE = 50;
+
+	@Before
+	public void before() {
+		Assume.assumeNotNull(System.getenv(DB_HOST_ENV));
+	}
+
+	@Test
+	public void testFindByUsername() {
+		assertStatements(new Function0<Promise<Page<Integer>>>() {
+			@Override
+			public Promise<Page<Integer>> apply() {
+				return TourDataAccessUtils.findIdsByUsername(USERNAME,
+						TourStatsFilter.NONE, 0, LIMIT);
+			}
+		});
+	}
+
+	@Test
+	public void testFindBySportName() {
+		assertStatements(new Function0<Promise<Page<Integer>>>() {
+			@Override
+			public Promise<Page<Integer>> apply() {
+				return TourDataAccessUtils.findIdsBySportName(SPORT_NAME,
+						TourStatsFilter.NONE, 0, LIMIT);
+			}
+		});
+	}
+
+	@Test
+	public void testFindByStartPoint() {
+		assertStatements(new Function0<Promise<Page<Integer>>>() {
+			@Override
+			public Promise<Page<Integer>> apply() {
+				return TourDataAccessUtils.findIdsByStartPoint(47.5, 10.3,
+						Optional.<Double> absent(), 100000,
+						Optional.<String> absent(), TourStatsFilter.NONE, 0,
+						LIMIT);
+			}
+		});
+	}
+
+	/**
+	 * Runs the given query for a page of tour IDs and reads the tours with
+	 * {@link TourDataAccessUtils#forEachTour(List, Optional, Callback)}.
+	 * Checks that it issued one statement for the IDs and, for every group
+	 * of {@code tours.stream.groupSize} tours, one statement for the tours,
+	 * users and sports and one statement for the points of every
+	 * {@link Tour#POINTS_BATCH_SIZE} tours.
+	 */
+	private static void assertStatements(
+			final Function0<Promise<Page<Integer>>> query) {
+		running(fakeApplication(), new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Statistics statistics = statistics();
+					statistics.setStatisticsEnabled(true);
+					statistics.clear();
+
+					List<Integer> ids = query.apply().get(TIMEOUT).items;
+					final AtomicInteger read = new AtomicInteger();
+					TourDataAccessUtils.forEachTour(ids,
+							Optional.<Double> absent(),
+							new Callback<Tuple<Integer, TourDto>>() {
+								@Override
+								public void invoke(
+										Tuple<Integer, TourDto> tour) {
+									read.incrementAndGet();
+								}
+							}).get(TIMEOUT);
+
+					int groupSize = Objects.firstNonNull(Play.application()
+							.configuration().getInt(GROUP_SIZE_KEY),
+							DEFAULT_GROUP_SIZE);
+					int groups = (ids.size() + groupSize - 1) / groupSize;
+					int batchesPerGroup = (groupSize
+							+ Tour.POINTS_BATCH_SIZE - 1)
+							/ Tour.POINTS_BATCH_SIZE;
+					long maxStatements = 1 + groups * (1 + batchesPerGroup);
+					long statements = statistics.getPrepareStatementCount();
+					Assert.assertEquals(ids.size(), read.get());
+					Assert.assertTrue("Expected at most " + maxStatements
+							+ " statements for " + ids.size()
+							+ " tours, got " + statements,
+							statements <= maxStatements);
+				} catch (Throwable e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+	}
+
+	private static Statistics statistics() throws Throwable {
+		return JPA.withTransaction(new Function0<Statistics>() {
+			@Override
+			public Statistics apply() {
+				return JPA.em().unwrap(Session.class).getSessionFactory()
+						.getStatistics();
+			}
+		});
+	}
+}
@@ -0,0 +1,62 @@
+package models.dataaccess;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import models.dtos.TimestampedPointDto;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TourStatsTest {
+	/** A fixed epoch time. Fixed for the sake of reproducibility of tests. */
+	private static final long TIME = 1388840323000L;
+
+	/** The distance of 0.01 degrees of latitude in metres. */
+	private static final double STEP = StartPointIndex.distance(47, 10, 47.01,
+			10);
+
+	@Test
+	public void testStats() {
+		List<TimestampedPointDto> points = Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 10, 47, 500),
+				new TimestampedPointDto(new Date(TIME + 100000), 10, 47.01, 600),
+				new TimestampedPointDto(new Date(TIME + 150000), 10, 47.02, 550),
+				new TimestampedPointDto(new Date(TIME + 400000), 10, 47.03, 700));
+
+		TourStats stats = TourStats.of(points);
+		Assert.assertEquals(3 * STEP, stats.distance(), 1e-6);
+		Assert.assertEquals(400, stats.duration(), 1e-9);
+		Assert.assertEquals(250, stats.elevationGain(), 1e-9);
+		Assert.assertEquals(3 * STEP / 400, stats.averageSpeed(), 1e-9);
+		Assert.assertEquals(STEP / 50, stats.maxSpeed(), 1e-9);
+	}
+
+	@Test
+	public void testSameTime() {
+		// Points with the same time do not count towards the maximum speed.
+		List<TimestampedPointDto> points = Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 10, 47, 0),
+				new TimestampedPointDto(new Date(TIME), 10, 47.01, 0));
+
+		TourStats stats = TourStats.of(points);
+		Assert.assertEquals(STEP, stats.distance(), 1e-6);
+		Assert.assertEquals(0, stats.duration(), 0);
+		Assert.assertNull(stats.averageSpeed());
+		Assert.assertEquals(0, stats.maxSpeed(), 0);
+	}
+
+	@Test
+	public void testSinglePoint() {
+		TourStats stats = TourStats.of(Collections
+				.singletonList(new TimestampedPointDto(new Date(TIME), 10, 47,
+						500)));
+		Assert.assertEquals(0, stats.distance(), 0);
+		Assert.assertEquals(0, stats.duration(), 0);
+		Assert.assertEquals(0, stats.elevationGain(), 0);
+		Assert.assertNull(stats.averageSpeed());
+	}
+}
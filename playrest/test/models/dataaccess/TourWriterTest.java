@@ -0,0 +1,41 @@
+package models.dataaccess;
+
+import java.util.Date;
+
+import models.Tour;
+import models.dtos.PointSeries;
+import models.dtos.TimestampedPointDto;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TourWriterTest {
+	/** A fixed epoch time. Fixed for the sake of reproducibility of tests. */
+	private static final long TIME = 1388840323000L;
+
+	@Test
+	public void testSetDerived() {
+		PointSeries points = PointSeries.copyOf(Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 4, 5, 6),
+				new TimestampedPointDto(new Date(TIME - 10), 1, 2, 3)))
+				.sortedByTime();
+		Tour tour = new Tour();
+
+		TourWriter.setDerived(tour, points);
+
+		Assert.assertEquals(Integer.valueOf(2), tour.getPointCount());
+		Assert.assertEquals(new Date(TIME - 10), tour.getStartTime());
+		Assert.assertEquals(TourDataAccessUtils.createPoint(1, 2, 3),
+				tour.getStartLocation());
+		Assert.assertEquals(Geohash.encode(2, 1, Geohash.PRECISION),
+				tour.getStartGeohash());
+		Assert.assertEquals(StartPointIndex.distance(2, 1, 5, 4),
+				tour.getDistance(), 1e-6);
+		Assert.assertEquals(0.01, tour.getDuration(), 1e-9);
+		Assert.assertEquals(3, tour.getElevationGain(), 1e-9);
+		Assert.assertEquals(Long.valueOf(TrackFingerprint.of(points)),
+				tour.getFingerprint());
+	}
+}
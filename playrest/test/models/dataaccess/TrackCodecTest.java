@@ -0,0 +1,75 @@
+package models.dataaccess;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import models.dtos.TimestampedPointDto;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TrackCodecTest {
+	/** A fixed epoch time. Fixed for the sake of reproducibility of tests. */
+	private static final long TIME = 1388840323000L;
+	
+	@Test
+	public void testRoundTrip() {
+		List<TimestampedPointDto> expected = Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 10.275514, 47.514749,
+						756.587),
+				new TimestampedPointDto(new Date(TIME + 9000), 10.275563,
+						47.514797, 757.417),
+				new TimestampedPointDto(new Date(TIME + 4000), -0.0000001,
+						-89.9999999, -12.5));
+		
+		byte[] track = TrackCodec.encode(expected);
+		List<TimestampedPointDto> actual = TrackCodec.decode(track);
+		Assert.assertEquals(expected, actual);
+	}
+	
+	@Test
+	public void testCompactness() {
+		List<TimestampedPointDto> points = Lists.newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			// Coordinates within the precision of the codec.
+			points.add(new TimestampedPointDto(new Date(TIME + i * 1000),
+					(102755140 + i * 100) / 1e7, (475147490 - i * 100) / 1e7,
+					(756587 + i * 100) / 1e3));
+		}
+		
+		byte[] track = TrackCodec.encode(points);
+		Assert.assertTrue(track.length < points.size() * 10);
+		Assert.assertEquals(points, TrackCodec.decode(track));
+	}
+	
+	@Test
+	public void testDecodeWithoutCount() {
+		// A track of the first version: the zigzag encoded time, x, y and z.
+		byte[] track = { 1, 2, 2, 4, 6 };
+		List<TimestampedPointDto> points = TrackCodec.decode(track);
+		Assert.assertEquals(1, points.size());
+		Assert.assertEquals(new Date(1), points.get(0).time);
+		Assert.assertEquals(1e-7, points.get(0).x, 1e-12);
+		Assert.assertEquals(2e-7, points.get(0).y, 1e-12);
+		Assert.assertEquals(0.003, points.get(0).z, 1e-12);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeInvalidCount() {
+		byte[] track = TrackCodec.encode(Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 1, 2, 3)));
+		// Claims more points than the track can hold.
+		track[1] = 100;
+		TrackCodec.decode(track);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeTruncated() {
+		byte[] track = TrackCodec.encode(Lists.newArrayList(
+				new TimestampedPointDto(new Date(TIME), 1, 2, 3)));
+		TrackCodec.decode(Arrays.copyOf(track, track.length - 1));
+	}
+}
@@ -0,0 +1,82 @@
+package models.dataaccess;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import models.dtos.TimestampedPointDto;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TrackFingerprintTest {
+	/** A fixed epoch time. Fixed for the sake of reproducibility of tests. */
+	private static final long TIME = 1388840323000L;
+
+	@Test
+	public void testSameTrack() {
+		List<TimestampedPointDto> track = createTrack(0, 0, 1000);
+		Assert.assertEquals(TrackFingerprint.of(track),
+				TrackFingerprint.of(Lists.newArrayList(track)));
+	}
+
+	@Test
+	public void testRoundedTrack() {
+		// Rounded to five decimals, at other times and altitudes, with a
+		// repeated point.
+		List<TimestampedPointDto> track = createTrack(0, 0, 1000);
+		List<TimestampedPointDto> rounded = Lists.newArrayList();
+		for (int i = 0; i < track.size(); i++) {
+			TimestampedPointDto point = track.get(i);
+			rounded.add(new TimestampedPointDto(new Date(TIME + i * 2000),
+					Math.round(point.x * 1e5) / 1e5,
+					Math.round(point.y * 1e5) / 1e5, point.z + 10));
+		}
+		rounded.add(rounded.get(rounded.size() - 1));
+		Assert.assertEquals(TrackFingerprint.of(track),
+				TrackFingerprint.of(rounded));
+	}
+
+	@Test
+	public void testOtherTrack() {
+		List<TimestampedPointDto> track = createTrack(0, 0, 1000);
+		Assert.assertNotEquals(TrackFingerprint.of(track),
+				TrackFingerprint.of(createTrack(0.05, 0, 1000)));
+		Assert.assertNotEquals(TrackFingerprint.of(track),
+				TrackFingerprint.of(createTrack(0, 0, 500)));
+	}
+
+	@Test
+	public void testReversedTrack() {
+		List<TimestampedPointDto> track = createTrack(0, 0, 1000);
+		List<TimestampedPointDto> reversed = Lists.reverse(track);
+		Assert.assertNotEquals(TrackFingerprint.of(track),
+				TrackFingerprint.of(reversed));
+	}
+
+	@Test
+	public void testSingleCell() {
+		TimestampedPointDto point = new TimestampedPointDto(new Date(TIME),
+				10.3, 47.5, 0);
+		Assert.assertEquals(TrackFingerprint.of(Collections
+				.singletonList(point)), TrackFingerprint.of(Lists.newArrayList(
+				point, point, point)));
+	}
+
+	/**
+	 * @return A track heading north-east from (47.5, 10.3) in steps of about
+	 *         100 m.
+	 */
+	private static List<TimestampedPointDto> createTrack(double latOffset,
+			double lonOffset, int steps) {
+		List<TimestampedPointDto> track = Lists.newArrayList();
+		for (int i = 0; i < steps; i++) {
+			track.add(new TimestampedPointDto(new Date(TIME + i * 1000), 10.3
+					+ lonOffset + i * 0.001, 47.5 + latOffset + i * 0.0005,
+					500 + i));
+		}
+		return track;
+	}
+}
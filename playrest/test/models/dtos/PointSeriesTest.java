@@ -0,0 +1,96 @@
+package models.dtos;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class PointSeriesTest {
+	/** A fixed epoch time. Fixed for the sake of reproducibility of tests. */
+	private static final long TIME = 1388840323000L;
+
+	@Test
+	public void testBuilder() {
+		PointSeries.Builder builder = new PointSeries.Builder(0);
+		for (int i = 0; i < 100; i++) {
+			builder.add(TIME + i * 1000, i, -i, i / 2d);
+		}
+		PointSeries series = builder.build();
+		Assert.assertEquals(100, series.size());
+		Assert.assertEquals(TIME + 42000, series.time(42));
+		Assert.assertEquals(42, series.x(42), 0);
+		Assert.assertEquals(-42, series.y(42), 0);
+		Assert.assertEquals(21, series.z(42), 0);
+		Assert.assertEquals(new TimestampedPointDto(new Date(TIME + 42000),
+				42, -42, 21), series.get(42));
+	}
+
+	@Test
+	public void testCopyOf() {
+		List<TimestampedPointDto> points = createPoints();
+		PointSeries series = PointSeries.copyOf(points);
+		Assert.assertSame(series, PointSeries.copyOf(series));
+		Assert.assertEquals(points, series);
+		Assert.assertEquals(series, points);
+		Assert.assertEquals(points.hashCode(), series.hashCode());
+		Assert.assertEquals(series, PointSeries.copyOf(Lists
+				.newArrayList(series)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCopyOfWithoutTime() {
+		PointSeries.copyOf(Collections.singletonList(new TimestampedPointDto(
+				null, 1, 2, 3)));
+	}
+
+	@Test
+	public void testSortedByTime() {
+		PointSeries ordered = PointSeries.copyOf(createPoints());
+		Assert.assertSame(ordered, ordered.sortedByTime());
+
+		// Points with the same time keep their order.
+		PointSeries series = new PointSeries.Builder(4)
+				.add(TIME + 2000, 1, 0, 0).add(TIME, 2, 0, 0)
+				.add(TIME + 2000, 3, 0, 0).add(TIME + 1000, 4, 0, 0).build();
+		Assert.assertFalse(series.isOrderedByTime());
+		PointSeries sorted = series.sortedByTime();
+		Assert.assertTrue(sorted.isOrderedByTime());
+		double[] expected = { 2, 4, 1, 3 };
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], sorted.x(i), 0);
+		}
+	}
+
+	@Test
+	public void testSortedByTimeStable() {
+		PointSeries.Builder builder = new PointSeries.Builder(100);
+		for (int i = 0; i < 100; i++) {
+			builder.add(TIME + (i * 37) % 7 * 1000, i, 0, 0);
+		}
+		PointSeries sorted = builder.build().sortedByTime();
+		for (int i = 1; i < sorted.size(); i++) {
+			Assert.assertTrue(sorted.time(i - 1) <= sorted.time(i));
+			if (sorted.time(i - 1) == sorted.time(i)) {
+				Assert.assertTrue(sorted.x(i - 1) < sorted.x(i));
+			}
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() {
+		PointSeries.copyOf(createPoints()).time(3);
+	}
+
+	private static List<TimestampedPointDto> createPoints() {
+		List<TimestampedPointDto> points = Lists.newArrayList();
+		for (int i = 0; i < 3; i++) {
+			points.add(new TimestampedPointDto(new Date(TIME + i * 1000),
+					15.97 + i * 1e-5, 45.81 - i * 1e-5, 120 + i));
+		}
+		return points;
+	}
+}
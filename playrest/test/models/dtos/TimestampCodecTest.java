@@ -0,0 +1,103 @@
+package models.dtos;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimestampCodecTest {
+	private static final String[] ZONES = { "UTC", "CET", "Europe/Zagreb",
+			"America/St_Johns", "Asia/Kathmandu", "Pacific/Kiritimati",
+			"Pacific/Pago_Pago" };
+
+	@Test
+	public void testFormat() {
+		TimeZone tz = TimeZone.getTimeZone("CET");
+		Assert.assertEquals("2009-07-10 14:56:10 +0200",
+				TimestampCodec.format(1247230570000L, tz));
+		Assert.assertEquals("1970-01-01 00:00:00 +0000",
+				TimestampCodec.format(0, TimeZone.getTimeZone("UTC")));
+	}
+
+	@Test
+	public void testParse() throws ParseException {
+		TimeZone tz = TimeZone.getTimeZone("UTC");
+		Assert.assertEquals(1247230570000L,
+				TimestampCodec.parse("2009-07-10 14:56:10 +0200", tz));
+		Assert.assertEquals(1247230570000L,
+				TimestampCodec.parse("2009-07-10 06:26:10 -0630", tz));
+	}
+
+	@Test
+	public void testSameAsSimpleDateFormat() throws ParseException {
+		Random random = new Random(42);
+		for (String zone : ZONES) {
+			TimeZone tz = TimeZone.getTimeZone(zone);
+			DateFormat format = simpleDateFormat(tz);
+			for (int i = 0; i < 2000; i++) {
+				// Between 1600 and 2400, truncated to seconds.
+				long millis = (-11676096000L + (long) (random.nextDouble()
+						* 25245000000L)) * 1000;
+				String expected = format.format(new Date(millis));
+				Assert.assertEquals(expected, TimestampCodec.format(millis, tz));
+				// Historical offsets with seconds are truncated to minutes.
+				Assert.assertEquals(format.parse(expected).getTime(),
+						TimestampCodec.parse(expected, tz));
+			}
+		}
+	}
+
+	@Test
+	public void testDaylightSavingTransition() throws ParseException {
+		TimeZone tz = TimeZone.getTimeZone("Europe/Zagreb");
+		DateFormat format = simpleDateFormat(tz);
+		// 2014-03-30 01:00:00 UTC, when the offset changes to +0200.
+		long transition = 1396141200000L;
+		for (long millis = transition - 2000; millis <= transition + 2000; millis += 1000) {
+			String expected = format.format(new Date(millis));
+			Assert.assertEquals(expected, TimestampCodec.format(millis, tz));
+			Assert.assertEquals(millis, TimestampCodec.parse(expected, tz));
+		}
+	}
+
+	@Test
+	public void testFallback() throws ParseException {
+		TimeZone tz = TimeZone.getTimeZone("UTC");
+		DateFormat format = simpleDateFormat(tz);
+		// Before the Gregorian calendar and with a lenient layout.
+		Assert.assertEquals(format.format(new Date(-15000000000000L)),
+				TimestampCodec.format(-15000000000000L, tz));
+		Assert.assertEquals(format.parse("2009-7-10 14:56:10 +0200")
+				.getTime(), TimestampCodec.parse("2009-7-10 14:56:10 +0200",
+				tz));
+		// Out of range fields are rolled over, as by the lenient format.
+		Assert.assertEquals(format.parse("2009-02-30 14:56:10 +0200")
+				.getTime(), TimestampCodec.parse("2009-02-30 14:56:10 +0200",
+				tz));
+	}
+
+	@Test(expected = ParseException.class)
+	public void testParseInvalid() throws ParseException {
+		TimestampCodec.parse("10.07.2009 14:56", TimeZone.getTimeZone("UTC"));
+	}
+
+	@Test
+	public void testParseOffset() throws ParseException {
+		char[] text = "[\"2009-07-10 14:56:10 +0200\"]".toCharArray();
+		Assert.assertEquals(1247230570000L, TimestampCodec.parse(text, 2,
+				TimestampCodec.LENGTH, TimeZone.getTimeZone("UTC")));
+	}
+
+	private static DateFormat simpleDateFormat(TimeZone tz) {
+		DateFormat format = new SimpleDateFormat(
+				TimestampedPointDto.TIME_PATTERN, Locale.ROOT);
+		format.setTimeZone(tz);
+		return format;
+	}
+}
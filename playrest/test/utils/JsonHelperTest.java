@@ -1,22 +1,37 @@
 package utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.TimeZone;
 
 import models.dtos.TimestampedPointDto;
 import models.dtos.TourDto;
+import models.dtos.TourStatsDto;
+import models.dtos.TourSummaryDto;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import utils.JsonHelper.TourHandler;
+import utils.JsonHelper.ToursHandler;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 
 public class JsonHelperTest {
@@ -50,7 +65,7 @@ public class JsonHelperTest {
 	public void before()
 			throws ParseException, JsonProcessingException, IOException {
 		tourDto = createTourDto();
-		json = JsonHelper.MAPPER.setTimeZone(TIME_ZONE).readTree(INPUT_JSON);
+		json = JsonHelper.MAPPER.readTree(INPUT_JSON);
 	}
 	
 	@Test
@@ -60,6 +75,82 @@ public class JsonHelperTest {
 		Assert.assertEquals(expected, actual);
 	}
 	
+	@Test
+	public void testJsonToTourPointFields() throws IOException {
+		// Epoch milliseconds and unknown fields, as for single points.
+		String input = "{ \"creator\": \"zoltan\", \"sport\": \"hike\", " +
+				"\"geometry\": [ { \"time\": 1247230570000, " +
+				"\"x\": 10.275514, \"y\": \"47.514749\", " +
+				"\"hr\": { \"bpm\": 120 } } ] }";
+		TourDto actual = JsonHelper.jsonToTour(
+				JsonHelper.MAPPER.readTree(input));
+		Assert.assertEquals(tourDto.points.time(0), actual.points.time(0));
+		Assert.assertEquals(10.275514, actual.points.x(0), 0);
+		Assert.assertEquals(47.514749, actual.points.y(0), 0);
+		Assert.assertEquals(0, actual.points.z(0), 0);
+	}
+	
+	@Test(expected = JsonProcessingException.class)
+	public void testJsonToTourPointWithoutTime() throws IOException {
+		String input = "{ \"creator\": \"zoltan\", \"sport\": \"hike\", " +
+				"\"geometry\": [ { \"x\": 10.275514, \"y\": 47.514749 } ] }";
+		JsonHelper.jsonToTour(JsonHelper.MAPPER.readTree(input));
+	}
+	
+	@Test
+	public void testReadTour() throws IOException {
+		final AtomicReference<String> username = new AtomicReference<>();
+		final AtomicReference<String> sportName = new AtomicReference<>();
+		final List<TimestampedPointDto> points = Lists.newArrayList();
+		
+		JsonHelper.readTour(toStream(INPUT_JSON), new TourHandler() {
+			@Override
+			public void onHeader(String u, String s) {
+				username.set(u);
+				sportName.set(s);
+			}
+			
+			@Override
+			public void onPoint(TimestampedPointDto point) {
+				points.add(point);
+			}
+		});
+		
+		TourDto actual = new TourDto(username.get(), sportName.get(), points);
+		TourDto expected = tourDto;
+		Assert.assertEquals(expected, actual);
+	}
+	
+	@Test(expected = JsonProcessingException.class)
+	public void testReadTourGeometryFirst() throws IOException {
+		String input = "{ \"geometry\": [], " +
+				"\"creator\": \"zoltan\", \"sport\": \"hike\" }";
+		JsonHelper.readTour(toStream(input), (TourHandler) null);
+	}
+	
+	@Test
+	public void testReadToursNewlineDelimited() throws IOException {
+		String input = INPUT_JSON + "\n" + INPUT_JSON + "\n";
+		List<TourDto> tours = Lists.newArrayList();
+		List<String> errors = Lists.newArrayList();
+		JsonHelper.readTours(toStream(input), collect(tours, errors));
+		
+		Assert.assertEquals(Lists.newArrayList(tourDto, tourDto), tours);
+		Assert.assertTrue(errors.isEmpty());
+	}
+	
+	@Test
+	public void testReadToursArrayWithInvalidTour() throws IOException {
+		String input = "[" + INPUT_JSON + ", { \"geometry\": 5 }, " +
+				INPUT_JSON + "]";
+		List<TourDto> tours = Lists.newArrayList();
+		List<String> errors = Lists.newArrayList();
+		JsonHelper.readTours(toStream(input), collect(tours, errors));
+		
+		Assert.assertEquals(Lists.newArrayList(tourDto, tourDto), tours);
+		Assert.assertEquals(1, errors.size());
+	}
+	
 	@Test
 	public void testTourToJson() {
 		JsonNode expected = json;
@@ -67,6 +158,174 @@ public class JsonHelperTest {
 		Assert.assertEquals(expected, actual);
 	}
 	
+	@Test
+	public void testTourArrayWriter() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonHelper.TourArrayWriter writer = JsonHelper.tourArrayWriter(out,
+				TIME_ZONE);
+		writer.write(tourDto);
+		writer.write(tourDto);
+		writer.close();
+		
+		JsonNode expected = JsonHelper.toursToJson(
+				Lists.newArrayList(tourDto, tourDto), TIME_ZONE);
+		JsonNode actual = JsonHelper.MAPPER.readTree(out.toByteArray());
+		Assert.assertEquals(expected, actual);
+	}
+	
+	@Test
+	public void testSmileRoundTrip() throws IOException {
+		byte[] smile = JsonHelper.tourToBytes(tourDto, TIME_ZONE,
+				WireFormat.SMILE);
+		TourDto actual = JsonHelper.readTour(new ByteArrayInputStream(smile),
+				WireFormat.SMILE);
+		Assert.assertEquals(tourDto, actual);
+	}
+	
+	@Test
+	public void testPolylineFields() throws IOException {
+		TourDto tour = tourDto.withStats(
+				new TourStatsDto(1200, 600, 15, 2.0, 4.5)).withDistance(80);
+		ObjectNode expected = (ObjectNode) JsonHelper.MAPPER.readTree(
+				JsonHelper.tourToBytes(tour, TIME_ZONE, WireFormat.JSON));
+		expected.put("geometry", Polyline.encode(tour.points));
+		Assert.assertEquals(expected, JsonHelper.MAPPER.readTree(
+				JsonHelper.tourToBytes(tour, TIME_ZONE, WireFormat.POLYLINE)));
+	}
+	
+	@Test
+	public void testPolylineRoundTrip() throws IOException {
+		byte[] polyline = JsonHelper.tourToBytes(tourDto, TIME_ZONE,
+				WireFormat.POLYLINE);
+		Assert.assertTrue(JsonHelper.MAPPER.readTree(polyline)
+				.get("geometry").isTextual());
+		
+		TourDto actual = JsonHelper.readTour(
+				new ByteArrayInputStream(polyline), WireFormat.POLYLINE);
+		Assert.assertEquals(tourDto.username, actual.username);
+		Assert.assertEquals(tourDto.sportName, actual.sportName);
+		Assert.assertEquals(tourDto.points.size(), actual.points.size());
+		for (int i = 0; i < tourDto.points.size(); i++) {
+			TimestampedPointDto expected = tourDto.points.get(i);
+			TimestampedPointDto point = actual.points.get(i);
+			Assert.assertEquals(expected.time, point.time);
+			Assert.assertEquals(expected.x, point.x, 1e-6);
+			Assert.assertEquals(expected.y, point.y, 1e-6);
+			Assert.assertEquals(expected.z, point.z, 0.1);
+		}
+	}
+	
+	@Test
+	public void testWriterCachedPerTimeZone() {
+		Assert.assertSame(
+				JsonHelper.writer(WireFormat.JSON, TIME_ZONE, TimeFormat.TEXT),
+				JsonHelper.writer(WireFormat.JSON,
+						TimeZone.getTimeZone("CET"), TimeFormat.TEXT));
+		Assert.assertNotSame(
+				JsonHelper.writer(WireFormat.JSON, TIME_ZONE, TimeFormat.TEXT),
+				JsonHelper.writer(WireFormat.JSON,
+						TimeZone.getTimeZone("UTC"), TimeFormat.TEXT));
+		Assert.assertSame(
+				JsonHelper.writer(WireFormat.JSON, TIME_ZONE, TimeFormat.MILLIS),
+				JsonHelper.writer(WireFormat.JSON,
+						TimeZone.getTimeZone("UTC"), TimeFormat.MILLIS));
+	}
+	
+	@Test
+	public void testConcurrentTimeZones() throws Exception {
+		final TimeZone utc = TimeZone.getTimeZone("UTC");
+		final String cet = JsonHelper.tourToJson(tourDto, TIME_ZONE)
+				.toString();
+		Assert.assertTrue(cet.contains("14:56:10 +0200"));
+		final String inUtc = JsonHelper.tourToJson(tourDto, utc).toString();
+		Assert.assertTrue(inUtc.contains("12:56:10 +0000"));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = Lists.newArrayList();
+			for (int i = 0; i < 200; i++) {
+				final boolean even = i % 2 == 0;
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						String expected = even ? cet : inUtc;
+						String actual = JsonHelper.tourToJson(tourDto,
+								even ? TIME_ZONE : utc).toString();
+						return expected.equals(actual);
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				Assert.assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testTourToBytesMillis() throws IOException {
+		byte[] bytes = JsonHelper.tourToBytes(tourDto, TIME_ZONE,
+				WireFormat.JSON, TimeFormat.MILLIS);
+		JsonNode geometry = JsonHelper.MAPPER.readTree(bytes).get("geometry");
+		Assert.assertEquals(tourDto.points.time(0),
+				geometry.get(0).get("time").longValue());
+		Assert.assertFalse(geometry.get(1).has("time"));
+		Assert.assertEquals(9000, geometry.get(1).get("dt").longValue());
+		
+		TourDto actual = JsonHelper.readTour(new ByteArrayInputStream(bytes));
+		Assert.assertEquals(tourDto, actual);
+		List<TourDto> tours = Lists.newArrayList();
+		JsonHelper.readTours(new ByteArrayInputStream(bytes),
+				collect(tours, Lists.<String> newArrayList()));
+		Assert.assertEquals(Lists.newArrayList(tourDto), tours);
+	}
+	
+	@Test
+	public void testSummariesToJsonMillis() {
+		TourSummaryDto summary = new TourSummaryDto(1, "zoltan", "hike",
+				tourDto.points.get(0), 2);
+		JsonNode text = JsonHelper.summariesToJson(
+				Lists.newArrayList(summary), TIME_ZONE);
+		JsonNode millis = JsonHelper.summariesToJson(
+				Lists.newArrayList(summary), TIME_ZONE, TimeFormat.MILLIS);
+		Assert.assertEquals("2009-07-10 14:56:10 +0200",
+				text.get(0).get("start").get("time").textValue());
+		Assert.assertEquals(tourDto.points.time(0),
+				millis.get(0).get("start").get("time").longValue());
+	}
+	
+	@Test(expected = JsonProcessingException.class)
+	public void testReadDeltaWithoutTime() throws IOException {
+		JsonHelper.readTour(toStream("{ \"creator\": \"zoltan\", " +
+				"\"sport\": \"hike\", \"geometry\": [ " +
+				"{ \"dt\": 1000, \"x\": 10.275514, \"y\": 47.514749 } ] }"));
+	}
+	
+	@Test(expected = JsonProcessingException.class)
+	public void testReadPolylineArray() throws IOException {
+		JsonHelper.readTour(toStream(INPUT_JSON), WireFormat.POLYLINE);
+	}
+	
+	private static ToursHandler collect(final List<TourDto> tours,
+			final List<String> errors) {
+		return new ToursHandler() {
+			@Override
+			public void onTour(TourDto tour) {
+				tours.add(tour);
+			}
+			
+			@Override
+			public void onInvalidTour(String message) {
+				errors.add(message);
+			}
+		};
+	}
+	
+	private static InputStream toStream(String json) {
+		return new ByteArrayInputStream(json.getBytes(Charsets.UTF_8));
+	}
+	
 	private static TourDto createTourDto() throws ParseException {
 		List<TimestampedPointDto> points = Lists.newArrayListWithCapacity(2);
 		
@@ -0,0 +1,82 @@
+package utils;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import models.dtos.TimestampedPointDto;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class PolylineTest {
+	/** A fixed epoch time. Fixed for the sake of reproducibility of tests. */
+	private static final long TIME = 1388840323000L;
+
+	@Test
+	public void testRoundTrip() {
+		List<TimestampedPointDto> points = Lists.newArrayList();
+		for (int i = 0; i < 100; i++) {
+			points.add(new TimestampedPointDto(new Date(TIME + i * 1000),
+					-122.4194 + i * 0.000031, 37.7749 - i * 0.000017,
+					-12.5 + i * 0.3));
+		}
+
+		List<TimestampedPointDto> decoded = Polyline.decode(Polyline
+				.encode(points));
+		Assert.assertEquals(points.size(), decoded.size());
+		for (int i = 0; i < points.size(); i++) {
+			TimestampedPointDto expected = points.get(i);
+			TimestampedPointDto actual = decoded.get(i);
+			Assert.assertEquals(expected.time, actual.time);
+			Assert.assertEquals(expected.x, actual.x, 0.5e-6);
+			Assert.assertEquals(expected.y, actual.y, 0.5e-6);
+			Assert.assertEquals(expected.z, actual.z, 0.05);
+		}
+	}
+
+	@Test
+	public void testCompact() {
+		List<TimestampedPointDto> points = Lists.newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			points.add(new TimestampedPointDto(new Date(TIME + i * 1000),
+					15.9 + i * 0.00003, 45.8 + i * 0.00002, 120 + i * 0.1));
+		}
+		// Apart from the first point, each value fits in one or two
+		// characters.
+		Assert.assertTrue(Polyline.encode(points).length() < 8 * 1000);
+	}
+
+	@Test
+	public void testFirstPointMatchesPolyline6() {
+		// The latitude and longitude of the first point are encoded as in
+		// the polyline6 format, (38.5, -120.2) being "_izlhA~rlgdF".
+		List<TimestampedPointDto> points = Collections
+				.singletonList(new TimestampedPointDto(new Date(0), -120.2,
+						38.5, 0));
+		Assert.assertTrue(Polyline.encode(points).startsWith("_izlhA~rlgdF"));
+	}
+
+	@Test
+	public void testEmpty() {
+		List<TimestampedPointDto> points = Collections.emptyList();
+		Assert.assertEquals("", Polyline.encode(points));
+		Assert.assertTrue(Polyline.decode("").isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncated() {
+		List<TimestampedPointDto> points = Collections
+				.singletonList(new TimestampedPointDto(new Date(TIME), 15.9,
+						45.8, 120));
+		String encoded = Polyline.encode(points);
+		Polyline.decode(encoded.substring(0, encoded.length() - 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCharacter() {
+		Polyline.decode(" ");
+	}
+}
@@ -0,0 +1,112 @@
+package utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import utils.TourResponseCache.Entry;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+public class TourResponseCacheTest {
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	private static final byte[] BODY = ("{\"id\":1,\"geometry\":["
+			+ Strings.repeat("{\"x\":15.97,\"y\":45.81},", 100) + "]}")
+			.getBytes(Charsets.UTF_8);
+
+	@Test
+	public void testKey() {
+		Optional<Double> absent = Optional.absent();
+		Assert.assertEquals("1/JSON/UTC/TEXT/full", TourResponseCache.key(1,
+				WireFormat.JSON, UTC, TimeFormat.TEXT, false, absent));
+		Assert.assertEquals("1/JSON/UTC/TEXT/full@0.001",
+				TourResponseCache.key(1, WireFormat.JSON, UTC,
+						TimeFormat.TEXT, false, Optional.of(0.001)));
+		Assert.assertEquals("1/SMILE/UTC/TEXT/summary", TourResponseCache.key(
+				1, WireFormat.SMILE, UTC, TimeFormat.TEXT, true,
+				Optional.of(0.001)));
+		Assert.assertEquals("1/JSON/MILLIS/full", TourResponseCache.key(1,
+				WireFormat.JSON, UTC, TimeFormat.MILLIS, false, absent));
+		Assert.assertEquals("1/JSON/MILLIS/full", TourResponseCache.key(1,
+				WireFormat.JSON, TimeZone.getTimeZone("Europe/Zagreb"),
+				TimeFormat.MILLIS, false, absent));
+		Assert.assertEquals("1/JSON/Europe/Zagreb/TEXT/full",
+				TourResponseCache.key(1, WireFormat.JSON,
+						TimeZone.getTimeZone("Europe/Zagreb"),
+						TimeFormat.TEXT, false, absent));
+	}
+
+	@Test
+	public void testFind() {
+		TourResponseCache cache = new TourResponseCache(1024 * 1024, false);
+		Assert.assertFalse(cache.find("1/full").isPresent());
+		cache.put("1/full", BODY);
+		Assert.assertArrayEquals(BODY, cache.find("1/full").get().body());
+		Assert.assertFalse(cache.find("1/full").get().gzipped().isPresent());
+		Assert.assertEquals(2, cache.stats().hits);
+		Assert.assertEquals(1, cache.stats().misses);
+		Assert.assertEquals(BODY.length, cache.stats().bytes);
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		TourResponseCache cache = new TourResponseCache(1024 * 1024, true);
+		byte[] gzipped = cache.put("1/full", BODY).gzipped().get();
+		Assert.assertTrue(gzipped.length < BODY.length);
+		Assert.assertArrayEquals(BODY, ByteStreams.toByteArray(
+				new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+		Assert.assertEquals(BODY.length + gzipped.length,
+				cache.stats().bytes);
+	}
+
+	@Test
+	public void testEvictionBySize() {
+		// Room for two bodies only.
+		TourResponseCache cache = new TourResponseCache(BODY.length * 2 + 1,
+				false);
+		cache.put("1/full", BODY);
+		cache.put("2/full", BODY);
+		cache.put("3/full", BODY);
+		Assert.assertTrue(cache.stats().size <= 2);
+		Assert.assertTrue(cache.stats().evictions >= 1);
+		Assert.assertTrue(cache.stats().bytes <= BODY.length * 2);
+	}
+
+	@Test
+	public void testDisabled() {
+		TourResponseCache cache = new TourResponseCache(0, true);
+		cache.put("1/full", BODY);
+		Assert.assertFalse(cache.find("1/full").isPresent());
+	}
+
+	@Test
+	public void testEtag() {
+		Entry entry = new Entry(BODY, null);
+		Entry same = new Entry(BODY.clone(), null);
+		Entry other = new Entry("{}".getBytes(Charsets.UTF_8), null);
+		Assert.assertEquals(entry.etag(false), same.etag(false));
+		Assert.assertFalse(entry.etag(false).equals(other.etag(false)));
+		Assert.assertFalse(entry.etag(false).equals(entry.etag(true)));
+		Assert.assertTrue(entry.etag(false).startsWith("\""));
+		Assert.assertTrue(entry.etag(false).endsWith("\""));
+	}
+
+	@Test
+	public void testMatches() {
+		Entry entry = new Entry(BODY, null);
+		Assert.assertFalse(entry.matches(null));
+		Assert.assertTrue(entry.matches(entry.etag(false)));
+		Assert.assertTrue(entry.matches(entry.etag(true)));
+		Assert.assertTrue(entry.matches("W/" + entry.etag(false)));
+		Assert.assertTrue(entry.matches("\"a\", " + entry.etag(false)));
+		Assert.assertTrue(entry.matches("*"));
+		Assert.assertFalse(entry.matches("\"a\", \"b\""));
+	}
+}
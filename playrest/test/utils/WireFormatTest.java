@@ -0,0 +1,67 @@
+package utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class WireFormatTest {
+	@Test
+	public void testNegotiateDefault() {
+		Assert.assertEquals(Optional.of(WireFormat.JSON),
+				WireFormat.negotiate(null));
+		Assert.assertEquals(Optional.of(WireFormat.JSON),
+				WireFormat.negotiate("*/*"));
+		Assert.assertEquals(Optional.of(WireFormat.JSON),
+				WireFormat.negotiate("text/html, application/*;q=0.8"));
+	}
+
+	@Test
+	public void testNegotiateExact() {
+		Assert.assertEquals(Optional.of(WireFormat.SMILE),
+				WireFormat.negotiate("application/x-jackson-smile"));
+		Assert.assertEquals(Optional.of(WireFormat.POLYLINE),
+				WireFormat.negotiate("application/vnd.playrest.polyline+json"));
+	}
+
+	@Test
+	public void testNegotiateByQuality() {
+		Assert.assertEquals(Optional.of(WireFormat.SMILE), WireFormat
+				.negotiate("application/json;q=0.5, "
+						+ "application/x-jackson-smile"));
+		Assert.assertEquals(Optional.of(WireFormat.JSON), WireFormat
+				.negotiate("application/json, application/x-jackson-smile"));
+		Assert.assertEquals(Optional.of(WireFormat.JSON), WireFormat
+				.negotiate("application/x-jackson-smile; q=0, */*; q=0.1"));
+		Assert.assertEquals(Optional.of(WireFormat.POLYLINE), WireFormat
+				.negotiate("*/*;q=0.5, application/vnd.playrest.polyline+json"));
+	}
+
+	@Test
+	public void testNegotiateExcludedByWildcard() {
+		Assert.assertEquals(Optional.of(WireFormat.SMILE),
+				WireFormat.negotiate("application/json;q=0, */*"));
+		Assert.assertFalse(WireFormat.negotiate("application/json;q=0, "
+				+ "application/x-jackson-smile;q=0, "
+				+ "application/vnd.playrest.polyline+json;q=0, "
+				+ "application/*").isPresent());
+	}
+
+	@Test
+	public void testNegotiateUnsupported() {
+		Assert.assertFalse(WireFormat.negotiate("text/html").isPresent());
+		Assert.assertFalse(WireFormat.negotiate("application/json;q=0")
+				.isPresent());
+	}
+
+	@Test
+	public void testOfContentType() {
+		Assert.assertEquals(WireFormat.JSON, WireFormat.ofContentType(null));
+		Assert.assertEquals(WireFormat.JSON,
+				WireFormat.ofContentType("text/plain"));
+		Assert.assertEquals(WireFormat.SMILE,
+				WireFormat.ofContentType("application/x-jackson-smile"));
+		Assert.assertEquals(WireFormat.POLYLINE, WireFormat.ofContentType(
+				"application/vnd.playrest.polyline+json; charset=UTF-8"));
+	}
+}